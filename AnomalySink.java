@@ -0,0 +1,13 @@
+/**
+ * Receives anomalies from a {@link HealthAnomalyDetector} as readings arrive.
+*/
+@FunctionalInterface
+public interface AnomalySink {
+    /**
+     * Called on the thread that checks the reading, which in {@link HealthDataIngestPipeline} is the flusher thread.
+     * Implementations should return quickly and hand slow work, such as paging a doctor, to another thread.
+     *
+     * @param anomaly The anomaly that was detected.
+    */
+    void onAnomaly(HealthAnomaly anomaly);
+}
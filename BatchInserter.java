@@ -0,0 +1,103 @@
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Inserts chunks of records for the DAOs' bulk insert methods. Each chunk is sent as one JDBC batch in one transaction;
+ * if the database rejects the batch, the chunk is retried row by row under a savepoint per row, so only the
+ * offending rows fail.
+ *
+ * @param <T> The type of record to insert.
+*/
+class BatchInserter<T> {
+    /**
+     * Binds the insert parameters for one record.
+    */
+    @FunctionalInterface
+    interface Binder<T> {
+        void bind(PreparedStatement statement, T record) throws SQLException;
+    }
+
+    private final ConnectionPool pool;
+    private final String insertSql;
+    private final Function<T, String> validator;
+    private final Binder<T> binder;
+
+    /**
+     * Constructs a BatchInserter.
+     *
+     * @param pool      The connection pool to borrow connections from.
+     * @param insertSql The INSERT statement, with one parameter per bound value.
+     * @param validator Returns why a record cannot be inserted, or null if it can; invalid records are never sent.
+     * @param binder    Binds a record to the INSERT statement.
+    */
+    BatchInserter(ConnectionPool pool, String insertSql, Function<T, String> validator, Binder<T> binder) {
+        this.pool = pool;
+        this.insertSql = insertSql;
+        this.validator = validator;
+        this.binder = binder;
+    }
+
+    /**
+     * Inserts one chunk in a single transaction, falling back to one savepoint per row if the batch is rejected.
+     *
+     * @param chunk      The records to insert.
+     * @param chunkStart The position of the chunk's first record in the caller's input, used for failure indexes.
+     * @param result     The result to add the inserted count and failures to.
+    */
+    void insertChunk(List<T> chunk, int chunkStart, BatchResult<T> result) {
+        List<Integer> validRows = new ArrayList<>(chunk.size());
+        for (int i = 0; i < chunk.size(); i++) {
+            String invalidReason = validator.apply(chunk.get(i));
+            if (invalidReason != null) {
+                result.addFailure(chunkStart + i, chunk.get(i), invalidReason);
+            } else {
+                validRows.add(i);
+            }
+        }
+        if (validRows.isEmpty()) {
+            return;
+        }
+
+        BatchResult<T> chunkResult = new BatchResult<>();
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(insertSql)) {
+            connection.setAutoCommit(false);
+            try {
+                for (int row : validRows) {
+                    binder.bind(statement, chunk.get(row));
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+                chunkResult.addInserted(validRows.size());
+            } catch (BatchUpdateException e) {
+                connection.rollback();
+                statement.clearBatch();
+                for (int row : validRows) {
+                    Savepoint savepoint = connection.setSavepoint();
+                    try {
+                        binder.bind(statement, chunk.get(row));
+                        statement.executeUpdate();
+                        connection.releaseSavepoint(savepoint);
+                        chunkResult.addInserted(1);
+                    } catch (SQLException rowException) {
+                        connection.rollback(savepoint);
+                        chunkResult.addFailure(chunkStart + row, chunk.get(row), rowException.getMessage());
+                    }
+                }
+            }
+            connection.commit();
+            result.merge(chunkResult);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            for (int row : validRows) {
+                result.addFailure(chunkStart + row, chunk.get(row), e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,124 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of a bulk write: how many rows were written and which rows failed, and why.
+ *
+ * @param <T> The type of record that was written.
+*/
+public class BatchResult<T> {
+    private int insertedCount;
+    private final List<Failure<T>> failures = new ArrayList<>();
+
+    /**
+     * Retrieves the number of rows that were written successfully.
+     *
+     * @return The inserted row count.
+    */
+    public int getInsertedCount() {
+        return insertedCount;
+    }
+
+    /**
+     * Retrieves the rows that could not be written.
+     *
+     * @return An unmodifiable list of failures, in input order.
+    */
+    public List<Failure<T>> getFailures() {
+        return Collections.unmodifiableList(failures);
+    }
+
+    /**
+     * Checks whether every row was written.
+     *
+     * @return True if there were no failures, false otherwise.
+    */
+    public boolean isSuccessful() {
+        return failures.isEmpty();
+    }
+
+    /**
+     * Adds to the number of rows written successfully.
+     *
+     * @param count The number of rows to add.
+    */
+    void addInserted(int count) {
+        insertedCount += count;
+    }
+
+    /**
+     * Records a row that could not be written.
+     *
+     * @param index  The position of the row in the input collection.
+     * @param record The row that failed.
+     * @param reason A description of why it failed.
+    */
+    void addFailure(int index, T record, String reason) {
+        failures.add(new Failure<>(index, record, reason));
+    }
+
+    /**
+     * Merges the counts and failures of another result into this one.
+     *
+     * @param other The result to merge.
+    */
+    void merge(BatchResult<T> other) {
+        insertedCount += other.insertedCount;
+        failures.addAll(other.failures);
+    }
+
+    @Override
+    public String toString() {
+        return "BatchResult[inserted=" + insertedCount + ", failed=" + failures.size() + "]";
+    }
+
+    /**
+     * A single row that could not be written.
+     *
+     * @param <T> The type of record that was written.
+    */
+    public static class Failure<T> {
+        private final int index;
+        private final T record;
+        private final String reason;
+
+        Failure(int index, T record, String reason) {
+            this.index = index;
+            this.record = record;
+            this.reason = reason;
+        }
+
+        /**
+         * Retrieves the position of the row in the input collection.
+         *
+         * @return The row index.
+        */
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * Retrieves the row that failed.
+         *
+         * @return The failed record.
+        */
+        public T getRecord() {
+            return record;
+        }
+
+        /**
+         * Retrieves a description of why the row failed.
+         *
+         * @return The failure reason.
+        */
+        public String getReason() {
+            return reason;
+        }
+
+        @Override
+        public String toString() {
+            return "row " + index + ": " + reason;
+        }
+    }
+}
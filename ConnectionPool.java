@@ -0,0 +1,539 @@
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded JDBC connection pool.
+ * Connections are borrowed with {@link #getConnection()} and returned to the pool by calling close() on them,
+ * so DAOs can borrow one per operation inside a try-with-resources block.
+*/
+public class ConnectionPool implements AutoCloseable {
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+    private static final long VALIDATION_BYPASS_MILLIS = 500;
+    private static final long HOUSEKEEPING_INTERVAL_MILLIS = 5000;
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final int minSize;
+    private final int maxSize;
+    private final long acquireTimeoutMillis;
+    private final long idleTimeoutMillis;
+    private final long leakDetectionThresholdMillis;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private final Deque<PooledConnection> idle = new ArrayDeque<>();
+    private final Set<ConnectionHandle> borrowed = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService housekeeper;
+    private int totalConnections;
+    private int waiters;
+    private boolean closed;
+
+    private final AtomicLong acquireCount = new AtomicLong();
+    private final AtomicLong acquireNanosTotal = new AtomicLong();
+    private final AtomicLong acquireNanosMax = new AtomicLong();
+    private final AtomicLong acquireTimeouts = new AtomicLong();
+    private final AtomicLong leaksDetected = new AtomicLong();
+    private volatile DaoMetrics metrics;
+
+    /**
+     * Constructs a ConnectionPool and opens the minimum number of connections.
+     *
+     * @param url                          The JDBC URL of the database.
+     * @param user                         The database user.
+     * @param password                     The database password.
+     * @param minSize                      The number of connections kept open even when idle.
+     * @param maxSize                      The maximum number of connections the pool may open.
+     * @param acquireTimeoutMillis         How long getConnection() waits for a free connection before failing.
+     * @param idleTimeoutMillis            How long a connection above the minimum may sit idle before it is closed.
+     * @param leakDetectionThresholdMillis How long a connection may stay borrowed before it is reported as a leak, or 0 to disable.
+    */
+    public ConnectionPool(String url, String user, String password, int minSize, int maxSize,
+                          long acquireTimeoutMillis, long idleTimeoutMillis, long leakDetectionThresholdMillis) {
+        if (minSize < 0 || maxSize < 1 || minSize > maxSize) {
+            throw new IllegalArgumentException("Invalid pool size: min=" + minSize + ", max=" + maxSize);
+        }
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.leakDetectionThresholdMillis = leakDetectionThresholdMillis;
+
+        try {
+            Class.forName("org.postgresql.Driver");
+        } catch (ClassNotFoundException e) {
+            e.printStackTrace();
+        }
+        fillToMinimum();
+
+        housekeeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "connection-pool-housekeeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        housekeeper.scheduleWithFixedDelay(this::housekeep, HOUSEKEEPING_INTERVAL_MILLIS,
+                HOUSEKEEPING_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Borrows a connection from the pool, opening a new one if the pool is below its maximum size.
+     * The returned connection goes back to the pool when it is closed.
+     *
+     * @return A validated connection.
+     * @throws SQLException If no connection becomes available within the acquire timeout or one cannot be opened.
+    */
+    public Connection getConnection() throws SQLException {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(acquireTimeoutMillis);
+        while (true) {
+            PooledConnection pooled = null;
+            boolean create = false;
+            lock.lock();
+            try {
+                while (idle.isEmpty() && totalConnections >= maxSize) {
+                    if (closed) {
+                        throw new SQLException("Connection pool is closed");
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        acquireTimeouts.incrementAndGet();
+                        throw new SQLTransientConnectionException("Timed out after " + acquireTimeoutMillis
+                                + " ms waiting for a connection (active=" + borrowed.size() + ", max=" + maxSize + ")");
+                    }
+                    waiters++;
+                    try {
+                        available.awaitNanos(remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new SQLException("Interrupted while waiting for a connection", e);
+                    } finally {
+                        waiters--;
+                    }
+                }
+                if (closed) {
+                    throw new SQLException("Connection pool is closed");
+                }
+                if (!idle.isEmpty()) {
+                    pooled = idle.pollFirst();
+                } else {
+                    totalConnections++;
+                    create = true;
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            if (create) {
+                try {
+                    pooled = new PooledConnection(DriverManager.getConnection(url, user, password));
+                } catch (SQLException e) {
+                    discard(null);
+                    throw e;
+                }
+            } else if (!isValid(pooled)) {
+                discard(pooled);
+                continue;
+            }
+            recordAcquire(System.nanoTime() - start);
+            return borrow(pooled);
+        }
+    }
+
+    /**
+     * Records statement metrics for every connection borrowed from now on.
+     *
+     * @param metrics The metrics to record to, or null to stop recording.
+    */
+    public void setMetrics(DaoMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Retrieves the statement metrics recorded for borrowed connections.
+     *
+     * @return The metrics, or null if none are being recorded.
+    */
+    public DaoMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Retrieves the number of connections currently borrowed.
+     *
+     * @return The number of active connections.
+    */
+    public int getActiveCount() {
+        return borrowed.size();
+    }
+
+    /**
+     * Retrieves the number of open connections waiting in the pool.
+     *
+     * @return The number of idle connections.
+    */
+    public int getIdleCount() {
+        lock.lock();
+        try {
+            return idle.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Retrieves the number of threads blocked waiting for a connection.
+     *
+     * @return The number of waiters.
+    */
+    public int getWaiterCount() {
+        lock.lock();
+        try {
+            return waiters;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Retrieves the total number of open connections, borrowed or idle.
+     *
+     * @return The number of open connections.
+    */
+    public int getTotalCount() {
+        lock.lock();
+        try {
+            return totalConnections;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Retrieves the average time spent in getConnection().
+     *
+     * @return The average acquire latency in milliseconds.
+    */
+    public double getAverageAcquireMillis() {
+        long count = acquireCount.get();
+        return count == 0 ? 0 : acquireNanosTotal.get() / (count * 1_000_000.0);
+    }
+
+    /**
+     * Retrieves the longest time spent in getConnection().
+     *
+     * @return The maximum acquire latency in milliseconds.
+    */
+    public double getMaxAcquireMillis() {
+        return acquireNanosMax.get() / 1_000_000.0;
+    }
+
+    /**
+     * Retrieves the number of successful getConnection() calls.
+     *
+     * @return The acquire count.
+    */
+    public long getAcquireCount() {
+        return acquireCount.get();
+    }
+
+    /**
+     * Retrieves the number of getConnection() calls that timed out.
+     *
+     * @return The acquire timeout count.
+    */
+    public long getAcquireTimeoutCount() {
+        return acquireTimeouts.get();
+    }
+
+    /**
+     * Retrieves the number of connections reported as leaked.
+     *
+     * @return The leak count.
+    */
+    public long getLeakCount() {
+        return leaksDetected.get();
+    }
+
+    /**
+     * Opens a connection to the pool's database that is not part of the pool, for long-lived uses such as LISTEN,
+     * which would otherwise hold a pooled connection forever and be reported as a leak. The caller must close it.
+     *
+     * @return A new, unpooled connection.
+     * @throws SQLException If the connection cannot be opened.
+    */
+    public Connection openUnpooledConnection() throws SQLException {
+        return DriverManager.getConnection(url, user, password);
+    }
+
+    /**
+     * Closes every idle connection and stops the pool. Borrowed connections are closed when they are returned.
+    */
+    @Override
+    public void close() {
+        housekeeper.shutdownNow();
+        lock.lock();
+        try {
+            closed = true;
+            for (PooledConnection pooled : idle) {
+                closeQuietly(pooled);
+                totalConnections--;
+            }
+            idle.clear();
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ConnectionPool[active=%d, idle=%d, waiters=%d, total=%d, acquires=%d, avgAcquire=%.3f ms, maxAcquire=%.3f ms, timeouts=%d, leaks=%d]",
+                getActiveCount(), getIdleCount(), getWaiterCount(), getTotalCount(), getAcquireCount(),
+                getAverageAcquireMillis(), getMaxAcquireMillis(), getAcquireTimeoutCount(), getLeakCount());
+    }
+
+    /**
+     * Wraps a pooled connection in a handle whose close() returns it to the pool.
+    */
+    private Connection borrow(PooledConnection pooled) {
+        ConnectionHandle handle = new ConnectionHandle(pooled, leakDetectionThresholdMillis > 0 ? new Throwable("Connection borrowed here") : null);
+        borrowed.add(handle);
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class }, handle);
+    }
+
+    /**
+     * Returns a borrowed connection to the pool, resetting any transaction state left behind by the borrower.
+    */
+    private void release(ConnectionHandle handle) {
+        borrowed.remove(handle);
+        PooledConnection pooled = handle.pooled;
+        boolean reusable;
+        try {
+            if (!pooled.connection.getAutoCommit()) {
+                pooled.connection.rollback();
+                pooled.connection.setAutoCommit(true);
+            }
+            reusable = !pooled.connection.isClosed();
+        } catch (SQLException e) {
+            reusable = false;
+        }
+        if (!reusable) {
+            discard(pooled);
+            return;
+        }
+        pooled.lastUsedMillis = System.currentTimeMillis();
+        lock.lock();
+        try {
+            if (closed) {
+                closeQuietly(pooled);
+                totalConnections--;
+            } else {
+                idle.addFirst(pooled);
+            }
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Closes a connection that can no longer be used and frees its slot.
+    */
+    private void discard(PooledConnection pooled) {
+        if (pooled != null) {
+            closeQuietly(pooled);
+        }
+        lock.lock();
+        try {
+            totalConnections--;
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Checks a connection before handing it out. Connections returned very recently are trusted without a round trip.
+    */
+    private boolean isValid(PooledConnection pooled) {
+        if (System.currentTimeMillis() - pooled.lastUsedMillis < VALIDATION_BYPASS_MILLIS) {
+            return true;
+        }
+        try {
+            return pooled.connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void recordAcquire(long nanos) {
+        acquireCount.incrementAndGet();
+        acquireNanosTotal.addAndGet(nanos);
+        acquireNanosMax.accumulateAndGet(nanos, Math::max);
+    }
+
+    /**
+     * Opens connections until the pool holds at least its minimum size.
+    */
+    private void fillToMinimum() {
+        while (true) {
+            lock.lock();
+            try {
+                if (closed || totalConnections >= minSize) {
+                    return;
+                }
+                totalConnections++;
+            } finally {
+                lock.unlock();
+            }
+            try {
+                PooledConnection pooled = new PooledConnection(DriverManager.getConnection(url, user, password));
+                lock.lock();
+                try {
+                    idle.addLast(pooled);
+                    available.signal();
+                } finally {
+                    lock.unlock();
+                }
+            } catch (SQLException e) {
+                discard(null);
+                e.printStackTrace();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Evicts connections idle longer than the idle timeout, reports leaked connections and tops the pool back up.
+    */
+    private void housekeep() {
+        long now = System.currentTimeMillis();
+        lock.lock();
+        try {
+            Iterator<PooledConnection> iterator = idle.descendingIterator();
+            while (iterator.hasNext() && totalConnections > minSize) {
+                PooledConnection pooled = iterator.next();
+                if (now - pooled.lastUsedMillis > idleTimeoutMillis) {
+                    iterator.remove();
+                    closeQuietly(pooled);
+                    totalConnections--;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (leakDetectionThresholdMillis > 0) {
+            for (ConnectionHandle handle : borrowed) {
+                if (!handle.leakReported && now - handle.borrowedAtMillis > leakDetectionThresholdMillis) {
+                    handle.leakReported = true;
+                    leaksDetected.incrementAndGet();
+                    System.err.println("Possible connection leak: connection held for " + (now - handle.borrowedAtMillis) + " ms");
+                    handle.borrowSite.printStackTrace();
+                }
+            }
+        }
+        fillToMinimum();
+    }
+
+    private static void closeQuietly(PooledConnection pooled) {
+        try {
+            pooled.connection.close();
+        } catch (SQLException e) {
+            // The connection is being thrown away; nothing more to do.
+        }
+    }
+
+    /**
+     * A physical connection owned by the pool.
+    */
+    private static class PooledConnection {
+        private final Connection connection;
+        private volatile long lastUsedMillis;
+
+        private PooledConnection(Connection connection) {
+            this.connection = connection;
+            this.lastUsedMillis = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * The proxy handed to a borrower. Each borrow gets its own handle, so a second close() is harmless
+     * and a stale reference cannot touch a connection that has since been lent to someone else.
+    */
+    private class ConnectionHandle implements InvocationHandler {
+        private final PooledConnection pooled;
+        private final Throwable borrowSite;
+        private final long borrowedAtMillis = System.currentTimeMillis();
+        private volatile boolean leakReported;
+        private boolean returned;
+
+        private ConnectionHandle(PooledConnection pooled, Throwable borrowSite) {
+            this.pooled = pooled;
+            this.borrowSite = borrowSite;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    synchronized (this) {
+                        if (!returned) {
+                            returned = true;
+                            release(this);
+                        }
+                    }
+                    return null;
+                case "isClosed":
+                    synchronized (this) {
+                        return returned || pooled.connection.isClosed();
+                    }
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled" + pooled.connection;
+                default:
+                    synchronized (this) {
+                        if (returned) {
+                            throw new SQLException("Connection has already been returned to the pool");
+                        }
+                    }
+                    Object result;
+                    try {
+                        result = method.invoke(pooled.connection, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                    DaoMetrics statementMetrics = metrics;
+                    if (statementMetrics != null && result instanceof Statement) {
+                        String sql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : null;
+                        return statementMetrics.instrument((Statement) result, sql);
+                    }
+                    return result;
+            }
+        }
+    }
+}
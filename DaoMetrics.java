@@ -0,0 +1,430 @@
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.CallableStatement;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToLongFunction;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Per-operation database metrics for the DAOs: statement executions, errors, rows returned or affected, and latency.
+ * The {@link ConnectionPool} wraps every statement it hands out, so the DAOs need no changes to be measured.
+ * Each statement is attributed to the DAO method that ran it, such as "HealthDataDao.getLatestHealthDataForUser";
+ * when a DAO method calls a helper or another method of a DAO, the outermost of those DAO methods is used.
+ * Statements slower than a threshold are logged with their SQL. Metrics are exposed through JMX and as Prometheus text.
+*/
+public class DaoMetrics implements DaoMetricsMXBean {
+    private static final Set<String> DAO_CLASSES = Set.of("UserDao", "HealthDataDao", "MedicineReminderManager",
+            "RecommendationDao", "DoctorPortalDao", "HealthDataRollupDao");
+    private static final String OBJECT_NAME = "HealthMonitoring:type=DaoMetrics";
+    private static final StackWalker STACK_WALKER = StackWalker.getInstance();
+    /** How far up the stack findOperation looks; the DAO frames sit a handful of frames above the pool. */
+    private static final int MAX_STACK_DEPTH = 32;
+    /** Walks that must agree on the operation of a SQL string before it is reused without walking. */
+    private static final int CONFIRMING_WALKS = 100;
+    /** After confirmation, one statement in this many is still walked, so a SQL string that gains a second caller is noticed. */
+    private static final int RESAMPLE_INTERVAL = 64;
+    private static final int MAX_CACHED_SQL = 10000;
+
+    private final Map<String, OperationMetrics> operations = new ConcurrentHashMap<>();
+    private final Map<String, SqlOperation> operationsBySql = new ConcurrentHashMap<>();
+    private final AtomicLong slowQueries = new AtomicLong();
+    private volatile long slowQueryThresholdMillis;
+
+    /**
+     * Constructs a DaoMetrics.
+     *
+     * @param slowQueryThresholdMillis Statements that take longer than this are logged; 0 disables the log.
+    */
+    public DaoMetrics(long slowQueryThresholdMillis) {
+        this.slowQueryThresholdMillis = slowQueryThresholdMillis;
+    }
+
+    /**
+     * Registers these metrics with the platform MBean server.
+    */
+    public void registerMBean() {
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+            }
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Serves the Prometheus text at http://host:port/metrics from a background thread.
+     *
+     * @param port The port to listen on.
+     * @return The running server; stop it with stop(0).
+     * @throws IOException If the port cannot be bound.
+    */
+    public HttpServer startHttpEndpoint(int port) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/metrics", exchange -> {
+            byte[] body = getPrometheusText().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    /**
+     * Writes the Prometheus text to a file, replacing it atomically so a scraper never sees a partial file.
+     *
+     * @param file The file to write.
+     * @throws IOException If the file cannot be written.
+    */
+    public void writePrometheus(Path file) throws IOException {
+        Path absolute = file.toAbsolutePath();
+        Path temporary = absolute.resolveSibling(absolute.getFileName() + ".tmp");
+        Files.writeString(temporary, getPrometheusText(), StandardCharsets.UTF_8);
+        Files.move(temporary, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public String getPrometheusText() {
+        Map<String, OperationMetrics> sorted = new TreeMap<>(operations);
+        StringBuilder text = new StringBuilder();
+        appendCounter(text, sorted, "dao_calls_total", "Statements executed per DAO method.", metrics -> metrics.calls.sum());
+        appendCounter(text, sorted, "dao_errors_total", "Statements per DAO method that threw an SQLException.", metrics -> metrics.errors.sum());
+        appendCounter(text, sorted, "dao_rows_total", "Rows returned or affected per DAO method.", metrics -> metrics.rows.sum());
+        text.append("# HELP dao_latency_seconds Statement execution time per DAO method.\n");
+        text.append("# TYPE dao_latency_seconds summary\n");
+        for (Map.Entry<String, OperationMetrics> entry : sorted.entrySet()) {
+            LatencyHistogram latency = entry.getValue().latency;
+            String label = "operation=\"" + entry.getKey() + "\"";
+            for (double quantile : new double[] { 0.5, 0.99, 0.999 }) {
+                text.append(String.format(Locale.ROOT, "dao_latency_seconds{%s,quantile=\"%s\"} %.6f%n",
+                        label, quantile, latency.getValueAtPercentile(quantile * 100) / 1e9));
+            }
+            text.append(String.format(Locale.ROOT, "dao_latency_seconds_sum{%s} %.6f%n",
+                    label, latency.getMeanNanos() * latency.getCount() / 1e9));
+            text.append("dao_latency_seconds_count{").append(label).append("} ").append(latency.getCount()).append('\n');
+        }
+        text.append("# HELP dao_slow_queries_total Statements slower than the slow query threshold.\n");
+        text.append("# TYPE dao_slow_queries_total counter\n");
+        text.append("dao_slow_queries_total ").append(slowQueries.get()).append('\n');
+        return text.toString();
+    }
+
+    @Override
+    public Map<String, Long> getCallCounts() {
+        return collectLongs(metrics -> metrics.calls.sum());
+    }
+
+    @Override
+    public Map<String, Long> getErrorCounts() {
+        return collectLongs(metrics -> metrics.errors.sum());
+    }
+
+    @Override
+    public Map<String, Long> getRowCounts() {
+        return collectLongs(metrics -> metrics.rows.sum());
+    }
+
+    @Override
+    public Map<String, Double> getP50Millis() {
+        return collectDoubles(metrics -> metrics.latency.getValueAtPercentile(50) / 1e6);
+    }
+
+    @Override
+    public Map<String, Double> getP99Millis() {
+        return collectDoubles(metrics -> metrics.latency.getValueAtPercentile(99) / 1e6);
+    }
+
+    @Override
+    public Map<String, Double> getMaxMillis() {
+        return collectDoubles(metrics -> metrics.latency.getMaxNanos() / 1e6);
+    }
+
+    @Override
+    public long getSlowQueryCount() {
+        return slowQueries.get();
+    }
+
+    @Override
+    public long getSlowQueryThresholdMillis() {
+        return slowQueryThresholdMillis;
+    }
+
+    @Override
+    public void setSlowQueryThresholdMillis(long slowQueryThresholdMillis) {
+        this.slowQueryThresholdMillis = slowQueryThresholdMillis;
+    }
+
+    /**
+     * Retrieves the latency histogram of one operation.
+     *
+     * @param operation The operation, such as "UserDao.getUserById".
+     * @return The histogram, or null if the operation has not run.
+    */
+    public LatencyHistogram getLatency(String operation) {
+        OperationMetrics metrics = operations.get(operation);
+        return metrics == null ? null : metrics.latency;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder summary = new StringBuilder("DaoMetrics[slowQueries=").append(slowQueries).append("]");
+        for (Map.Entry<String, OperationMetrics> entry : new TreeMap<>(operations).entrySet()) {
+            OperationMetrics metrics = entry.getValue();
+            summary.append("\n  ").append(entry.getKey()).append(": errors=").append(metrics.errors.sum())
+                   .append(", rows=").append(metrics.rows.sum()).append(", ").append(metrics.latency);
+        }
+        return summary.toString();
+    }
+
+    /**
+     * Wraps a statement so its executions are recorded under the DAO method that created it.
+     *
+     * @param statement The statement returned by the driver.
+     * @param sql       The SQL it was prepared with, or null for a plain Statement.
+     * @return The instrumented statement.
+    */
+    Statement instrument(Statement statement, String sql) {
+        OperationMetrics metrics = operations.computeIfAbsent(operationFor(sql), OperationMetrics::new);
+        Class<?> type = statement instanceof CallableStatement ? CallableStatement.class
+                : statement instanceof PreparedStatement ? PreparedStatement.class : Statement.class;
+        return (Statement) Proxy.newProxyInstance(Statement.class.getClassLoader(), new Class<?>[] { type },
+                new StatementHandler(statement, sql, metrics));
+    }
+
+    /**
+     * Finds the operation a statement belongs to. Most SQL strings are only ever prepared by one DAO method, so once
+     * enough stack walks agree, the operation is remembered for that SQL and most walks are skipped.
+     * One statement in {@link #RESAMPLE_INTERVAL} is still walked, so when a second method starts preparing the same SQL,
+     * such as an insert used by both the single and the batch method, the SQL is marked shared and always walked from then on.
+     * Until that sample, up to RESAMPLE_INTERVAL - 1 of the new caller's statements are counted under the first one.
+    */
+    private String operationFor(String sql) {
+        if (sql == null) {
+            return findOperation();
+        }
+        SqlOperation known = operationsBySql.get(sql);
+        if (known != null && !known.shared && known.walks.get() >= CONFIRMING_WALKS
+                && known.uses.incrementAndGet() % RESAMPLE_INTERVAL != 0) {
+            return known.operation;
+        }
+        String operation = findOperation();
+        if (known == null) {
+            if (operationsBySql.size() < MAX_CACHED_SQL) {
+                operationsBySql.putIfAbsent(sql, new SqlOperation(operation));
+            }
+        } else if (!known.operation.equals(operation)) {
+            known.shared = true;
+        } else {
+            known.walks.incrementAndGet();
+        }
+        return operation;
+    }
+
+    /**
+     * Finds the DAO method on the current stack: the first DAO frame, followed outwards while the callers are DAO methods too.
+     * Statements created outside the DAOs are attributed to their first caller outside the pool and the JDK.
+     * Only the top {@link #MAX_STACK_DEPTH} frames are walked, since this runs for every statement prepared.
+    */
+    private static String findOperation() {
+        return STACK_WALKER.walk(frames -> {
+            String operation = null;
+            String fallback = null;
+            for (StackWalker.StackFrame frame : (Iterable<StackWalker.StackFrame>) frames.limit(MAX_STACK_DEPTH)::iterator) {
+                String className = frame.getClassName();
+                if (DAO_CLASSES.contains(className)) {
+                    operation = className + "." + frame.getMethodName();
+                } else if (operation != null) {
+                    break;
+                } else if (fallback == null && !isInfrastructure(className)) {
+                    fallback = className + "." + frame.getMethodName();
+                }
+            }
+            return operation != null ? operation : fallback != null ? fallback : "unknown";
+        });
+    }
+
+    private static boolean isInfrastructure(String className) {
+        return className.startsWith("DaoMetrics") || className.startsWith("ConnectionPool") || className.startsWith("java.")
+                || className.startsWith("jdk.") || className.startsWith("com.sun.") || className.startsWith("org.postgresql.");
+    }
+
+    private void recordExecution(OperationMetrics metrics, String sql, long nanos, long rows, boolean failed) {
+        metrics.calls.increment();
+        metrics.latency.record(nanos);
+        if (rows > 0) {
+            metrics.rows.add(rows);
+        }
+        if (failed) {
+            metrics.errors.increment();
+        }
+        long thresholdMillis = slowQueryThresholdMillis;
+        if (thresholdMillis > 0 && nanos >= thresholdMillis * 1_000_000L) {
+            slowQueries.incrementAndGet();
+            System.err.printf(Locale.ROOT, "Slow query (%.1f ms) in %s: %s%n", nanos / 1e6, metrics.operation,
+                    sql == null ? "<unknown SQL>" : sql.replaceAll("\\s+", " "));
+        }
+    }
+
+    private static void appendCounter(StringBuilder text, Map<String, OperationMetrics> sorted, String name, String help,
+                                      ToLongFunction<OperationMetrics> value) {
+        text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(name).append(" counter\n");
+        for (Map.Entry<String, OperationMetrics> entry : sorted.entrySet()) {
+            text.append(name).append("{operation=\"").append(entry.getKey()).append("\"} ")
+                .append(value.applyAsLong(entry.getValue())).append('\n');
+        }
+    }
+
+    private Map<String, Long> collectLongs(ToLongFunction<OperationMetrics> value) {
+        Map<String, Long> values = new TreeMap<>();
+        operations.forEach((operation, metrics) -> values.put(operation, value.applyAsLong(metrics)));
+        return values;
+    }
+
+    private Map<String, Double> collectDoubles(ToDoubleFunction<OperationMetrics> value) {
+        Map<String, Double> values = new TreeMap<>();
+        operations.forEach((operation, metrics) -> values.put(operation, value.applyAsDouble(metrics)));
+        return values;
+    }
+
+    /**
+     * The counters of one DAO method.
+    */
+    private static class OperationMetrics {
+        private final String operation;
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder rows = new LongAdder();
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        OperationMetrics(String operation) {
+            this.operation = operation;
+        }
+    }
+
+    /**
+     * The operation a SQL string has been prepared by, and how many stack walks have confirmed it.
+    */
+    private static class SqlOperation {
+        private final String operation;
+        private final AtomicInteger walks = new AtomicInteger(1);
+        private final AtomicLong uses = new AtomicLong();
+        private volatile boolean shared;
+
+        SqlOperation(String operation) {
+            this.operation = operation;
+        }
+    }
+
+    /**
+     * Times the execute methods of a statement and counts the rows they return or affect.
+    */
+    private class StatementHandler implements InvocationHandler {
+        private final Statement statement;
+        private final String preparedSql;
+        private final OperationMetrics metrics;
+
+        StatementHandler(Statement statement, String preparedSql, OperationMetrics metrics) {
+            this.statement = statement;
+            this.preparedSql = preparedSql;
+            this.metrics = metrics;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (!name.startsWith("execute")) {
+                if (name.equals("equals")) {
+                    return proxy == args[0];
+                }
+                if (name.equals("hashCode")) {
+                    return System.identityHashCode(proxy);
+                }
+                return forward(method, args);
+            }
+
+            String sql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : preparedSql;
+            long start = System.nanoTime();
+            Object result;
+            try {
+                result = forward(method, args);
+            } catch (Throwable e) {
+                recordExecution(metrics, sql, System.nanoTime() - start, 0, true);
+                throw e;
+            }
+            long nanos = System.nanoTime() - start;
+
+            if (result instanceof ResultSet) {
+                // Rows are counted as the caller reads them, and recorded when the result set is closed.
+                recordExecution(metrics, sql, nanos, 0, false);
+                return new CountingResultSet((ResultSet) result, metrics.rows);
+            }
+            recordExecution(metrics, sql, nanos, affectedRows(result), false);
+            return result;
+        }
+
+        private Object forward(Method method, Object[] args) throws Throwable {
+            try {
+                return method.invoke(statement, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        private long affectedRows(Object result) {
+            if (result instanceof Integer || result instanceof Long) {
+                return ((Number) result).longValue();
+            }
+            long rows = 0;
+            if (result instanceof int[]) {
+                for (int count : (int[]) result) {
+                    rows += batchRows(count);
+                }
+            } else if (result instanceof long[]) {
+                for (long count : (long[]) result) {
+                    rows += batchRows(count);
+                }
+            }
+            return rows;
+        }
+
+        /**
+         * Converts one entry of a batch update count array to a row count.
+         * With reWriteBatchedInserts the driver reports SUCCESS_NO_INFO for every parameter set, which is counted as one row.
+        */
+        private long batchRows(long count) {
+            if (count == Statement.SUCCESS_NO_INFO) {
+                return 1;
+            }
+            return Math.max(count, 0);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+import java.util.Map;
+
+/**
+ * The JMX view of {@link DaoMetrics}, registered as HealthMonitoring:type=DaoMetrics.
+*/
+public interface DaoMetricsMXBean {
+    Map<String, Long> getCallCounts();
+
+    Map<String, Long> getErrorCounts();
+
+    Map<String, Long> getRowCounts();
+
+    Map<String, Double> getP50Millis();
+
+    Map<String, Double> getP99Millis();
+
+    Map<String, Double> getMaxMillis();
+
+    long getSlowQueryCount();
+
+    long getSlowQueryThresholdMillis();
+
+    void setSlowQueryThresholdMillis(long slowQueryThresholdMillis);
+
+    String getPrometheusText();
+}
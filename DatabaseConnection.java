@@ -1,25 +1,60 @@
 // package com.keyin.client;
 
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
 
 public class DatabaseConnection {
     // private static final String url = "jdbc:postgresql://localhost:5432/APJavaFinalSprint";
-    private static final String url = "jdbc:postgresql://localhost:5432/Health";
+    // reWriteBatchedInserts lets the driver collapse JDBC insert batches into multi-row INSERT statements.
+    private static final String url = "jdbc:postgresql://localhost:5432/Health?reWriteBatchedInserts=true";
     private static final String user = "postgres";
     private static final String password = "000rAt000";
 
+    private static final int POOL_MIN_SIZE = 2;
+    private static final int POOL_MAX_SIZE = 10;
+    private static final long POOL_ACQUIRE_TIMEOUT_MILLIS = 5000;
+    private static final long POOL_IDLE_TIMEOUT_MILLIS = 60000;
+    private static final long POOL_LEAK_DETECTION_THRESHOLD_MILLIS = 30000;
+    private static final long SLOW_QUERY_THRESHOLD_MILLIS = 200;
+
+    private static ConnectionPool pool;
+
+    /**
+     * Retrieves the shared connection pool, creating it on first use.
+     *
+     * @return The application's connection pool.
+    */
+    public static synchronized ConnectionPool getPool() {
+        if (pool == null) {
+            pool = new ConnectionPool(url, user, password, POOL_MIN_SIZE, POOL_MAX_SIZE,
+                    POOL_ACQUIRE_TIMEOUT_MILLIS, POOL_IDLE_TIMEOUT_MILLIS, POOL_LEAK_DETECTION_THRESHOLD_MILLIS);
+            pool.setMetrics(new DaoMetrics(SLOW_QUERY_THRESHOLD_MILLIS));
+        }
+        return pool;
+    }
+
+    /**
+     * Borrows a connection from the shared pool. The caller must close it to return it to the pool.
+     *
+     * @return A pooled connection, or null if none could be obtained.
+    */
     public static Connection getCon(){
         Connection connection = null;
         try{
-            Class.forName("org.postgresql.Driver");
-            connection = DriverManager.getConnection(url, user, password);
-        } catch (ClassNotFoundException | SQLException  e) {
+            connection = getPool().getConnection();
+        } catch (SQLException e) {
             e.printStackTrace();
         }
         return connection;
     }
 
-
+    /**
+     * Closes the shared pool, if it was ever created.
+    */
+    public static synchronized void shutdown() {
+        if (pool != null) {
+            pool.close();
+            pool = null;
+        }
+    }
 }
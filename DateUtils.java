@@ -1,16 +1,41 @@
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.Date;
 
 /**
  * Utility class for handling date conversions.
+ * The model and DAOs use {@link LocalDate} directly; these helpers remain for the places that still convert to and from text.
 */
 public class DateUtils {
 
     /**
-     * Date format pattern used for string to date conversion.
+     * Date format used for string to date conversion. DateTimeFormatter is immutable and thread-safe, so one instance is shared.
     */
-    private static final String DATE_FORMAT = "yyyy-MM-dd";
+    public static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+
+    /**
+     * Parses a string representation of a date.
+     *
+     * @param dateString the string representation of the date
+     * @return the LocalDate parsed from the input string
+     * @throws DateTimeParseException if the input string is not in the expected format
+    */
+    public static LocalDate parse(String dateString) {
+        return LocalDate.parse(dateString, DATE_FORMATTER);
+    }
+
+    /**
+     * Formats a date using the shared date format.
+     *
+     * @param date the date to format
+     * @return the string representation of the date
+    */
+    public static String format(LocalDate date) {
+        return DATE_FORMATTER.format(date);
+    }
 
     /**
      * Converts a string representation of a date to a Date object.
@@ -20,8 +45,7 @@ public class DateUtils {
      * @throws ParseException if the input string is not in the expected format
     */
     public static Date stringToDate(String dateString) throws ParseException {
-        SimpleDateFormat sdf = new SimpleDateFormat(DATE_FORMAT);
-        return sdf.parse(dateString);
+        return Date.from(parseLegacy(dateString).atStartOfDay(ZoneId.systemDefault()).toInstant());
     }
 
     /**
@@ -31,8 +55,10 @@ public class DateUtils {
      * @return the string representation of the date
     */
     public static String dateToString(Date date) {
-        SimpleDateFormat sdf = new SimpleDateFormat(DATE_FORMAT);
-        return sdf.format(date);
+        if (date instanceof java.sql.Date) {
+            return format(((java.sql.Date) date).toLocalDate());
+        }
+        return format(LocalDate.ofInstant(date.toInstant(), ZoneId.systemDefault()));
     }
 
     /**
@@ -43,8 +69,7 @@ public class DateUtils {
      * @throws ParseException if the input string is not in the expected format
     */
     public static java.sql.Date stringToSqlDate(String dateString) throws ParseException {
-        Date utilDate = stringToDate(dateString);
-        return new java.sql.Date(utilDate.getTime());
+        return java.sql.Date.valueOf(parseLegacy(dateString));
     }
 
     /**
@@ -54,8 +79,16 @@ public class DateUtils {
      * @return the string representation of the date
     */
     public static String sqlDateToString(java.sql.Date sqlDate) {
-        SimpleDateFormat sdf = new SimpleDateFormat(DATE_FORMAT);
-        return sdf.format(sqlDate);
+        return format(sqlDate.toLocalDate());
     }
-}
 
+    private static LocalDate parseLegacy(String dateString) throws ParseException {
+        try {
+            return parse(dateString);
+        } catch (DateTimeParseException e) {
+            ParseException parseException = new ParseException(e.getParsedString(), e.getErrorIndex());
+            parseException.initCause(e);
+            throw parseException;
+        }
+    }
+}
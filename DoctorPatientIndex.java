@@ -0,0 +1,636 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntConsumer;
+
+/**
+ * An in-memory copy of the doctor_patient table, so authorization checks and patient lists do not query the database.
+ * Both directions are stored in compressed sparse row form: sorted source IDs, an offsets array and a sorted targets
+ * array, so a relation lookup is two binary searches and no Integer is ever boxed.
+ * Relations added or removed since the arrays were built are kept in a small sorted overlay, which is merged back
+ * into the arrays once it grows past a fixed size or when the index is reconciled with the table.
+ * Changes made through {@link UserDao} apply at once, but a relation removed by another process or directly in the
+ * database keeps answering true until the next reconcile, so the reconcile interval bounds how long a revoked doctor
+ * keeps access.
+*/
+public class DoctorPatientIndex implements AutoCloseable {
+    private static final int MAX_OVERLAY_SIZE = 512;
+    private static final int FETCH_SIZE = 10000;
+    private static final String RELATIONS_SQL = "SELECT doctor_id, patient_id FROM doctor_patient";
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private Adjacency patientsByDoctor;
+    private Adjacency doctorsByPatient;
+    // Overlay keys are (doctor << 32 | patient), except addedByPatient which is (patient << 32 | doctor).
+    private final SortedLongs added = new SortedLongs();
+    private final SortedLongs addedByPatient = new SortedLongs();
+    private final SortedLongs removed = new SortedLongs();
+    private int generation;
+    private boolean reconciling;
+    private long compactionCount;
+    private long reconcileCount;
+    // False while the index holds only pairs from outside the table, such as a snapshot, until the first reconcile.
+    private volatile boolean current;
+    private ScheduledExecutorService reconciler;
+
+    /**
+     * Constructs an empty DoctorPatientIndex.
+    */
+    public DoctorPatientIndex() {
+        this(new long[0], 0);
+    }
+
+    private DoctorPatientIndex(long[] relations, int count) {
+        install(relations, count);
+    }
+
+    /**
+     * Builds an index from doctor and patient ID pairs, such as {@link HealthSnapshot#getDoctorPatientPairs()}.
+     * The pairs may be out of date, so the index is not {@link #isCurrent() current} until it has been reconciled.
+     *
+     * @param pairs Alternating doctor and patient IDs.
+     * @return The index.
+    */
+    public static DoctorPatientIndex fromPairs(int[] pairs) {
+        long[] relations = new long[pairs.length / 2];
+        for (int i = 0; i < relations.length; i++) {
+            relations[i] = key(pairs[2 * i], pairs[2 * i + 1]);
+        }
+        return new DoctorPatientIndex(relations, relations.length);
+    }
+
+    /**
+     * Builds an index from the doctor_patient table.
+     *
+     * @param pool The connection pool to borrow a connection from.
+     * @return The index.
+     * @throws SQLException If the table cannot be read.
+    */
+    public static DoctorPatientIndex load(ConnectionPool pool) throws SQLException {
+        LongArray relations = readRelations(pool);
+        DoctorPatientIndex index = new DoctorPatientIndex(relations.values, relations.size);
+        index.current = true;
+        return index;
+    }
+
+    /**
+     * Checks whether the index has been read from the doctor_patient table, either by {@link #load} or by a reconcile.
+     * An index built only from pairs, such as a snapshot, may still hold relations that have since been removed.
+     *
+     * @return True if the index reflects the table, false otherwise.
+    */
+    public boolean isCurrent() {
+        return current;
+    }
+
+    /**
+     * Checks whether a doctor is associated with a patient.
+     *
+     * @param doctorId  The ID of the doctor.
+     * @param patientId The ID of the patient.
+     * @return True if the relation exists, false otherwise.
+    */
+    public boolean contains(int doctorId, int patientId) {
+        long key = key(doctorId, patientId);
+        lock.readLock().lock();
+        try {
+            if (added.indexOf(key) >= 0) {
+                return true;
+            }
+            return patientsByDoctor.contains(doctorId, patientId) && removed.indexOf(key) < 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Passes each of a doctor's patient IDs, in ascending order, to a consumer.
+     * The read lock is held while the consumer runs, so it must not modify the index.
+     *
+     * @param doctorId The ID of the doctor.
+     * @param consumer The consumer to pass each patient ID to.
+     * @return The number of patients.
+    */
+    public int forEachPatient(int doctorId, IntConsumer consumer) {
+        lock.readLock().lock();
+        try {
+            return forEach(patientsByDoctor, added, doctorId, false, consumer);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Passes each of a patient's doctor IDs, in ascending order, to a consumer.
+     * The read lock is held while the consumer runs, so it must not modify the index.
+     *
+     * @param patientId The ID of the patient.
+     * @param consumer  The consumer to pass each doctor ID to.
+     * @return The number of doctors.
+    */
+    public int forEachDoctor(int patientId, IntConsumer consumer) {
+        lock.readLock().lock();
+        try {
+            return forEach(doctorsByPatient, addedByPatient, patientId, true, consumer);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Retrieves the IDs of a doctor's patients.
+     *
+     * @param doctorId The ID of the doctor.
+     * @return The patient IDs in ascending order.
+    */
+    public int[] getPatients(int doctorId) {
+        lock.readLock().lock();
+        try {
+            IntCollector collector = new IntCollector(patientsByDoctor.degree(doctorId) + added.size());
+            forEach(patientsByDoctor, added, doctorId, false, collector);
+            return collector.toArray();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Retrieves the IDs of a patient's doctors.
+     *
+     * @param patientId The ID of the patient.
+     * @return The doctor IDs in ascending order.
+    */
+    public int[] getDoctors(int patientId) {
+        lock.readLock().lock();
+        try {
+            IntCollector collector = new IntCollector(doctorsByPatient.degree(patientId) + addedByPatient.size());
+            forEach(doctorsByPatient, addedByPatient, patientId, true, collector);
+            return collector.toArray();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Records a relation that was added to the table.
+     *
+     * @param doctorId  The ID of the doctor.
+     * @param patientId The ID of the patient.
+    */
+    public void add(int doctorId, int patientId) {
+        long key = key(doctorId, patientId);
+        lock.writeLock().lock();
+        try {
+            removed.remove(key);
+            // While a reconcile is reading the table, keep a stamped entry even if the arrays already have the
+            // relation, since the arrays are about to be replaced by what was read.
+            if (reconciling || !patientsByDoctor.contains(doctorId, patientId)) {
+                added.put(key, generation);
+                addedByPatient.put(key(patientId, doctorId), generation);
+            }
+            compactIfFull();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Records a relation that was removed from the table.
+     *
+     * @param doctorId  The ID of the doctor.
+     * @param patientId The ID of the patient.
+    */
+    public void remove(int doctorId, int patientId) {
+        long key = key(doctorId, patientId);
+        lock.writeLock().lock();
+        try {
+            added.remove(key);
+            addedByPatient.remove(key(patientId, doctorId));
+            if (patientsByDoctor.contains(doctorId, patientId) || reconciling) {
+                removed.put(key, generation);
+            }
+            compactIfFull();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Rebuilds the index from the doctor_patient table, picking up changes made by other processes.
+     * Changes recorded while the table is being read are kept; older overlay entries are replaced by the table.
+     *
+     * @param pool The connection pool to borrow a connection from.
+     * @return The number of relations in the index afterwards.
+     * @throws SQLException If the table cannot be read.
+    */
+    public int reconcile(ConnectionPool pool) throws SQLException {
+        int readGeneration;
+        lock.writeLock().lock();
+        try {
+            if (reconciling) {
+                return -1;
+            }
+            reconciling = true;
+            readGeneration = generation++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        LongArray relations = null;
+        try {
+            relations = readRelations(pool);
+        } finally {
+            lock.writeLock().lock();
+            try {
+                reconciling = false;
+                if (relations != null) {
+                    install(relations.values, relations.size);
+                    retainNewerThan(readGeneration);
+                    reconcileCount++;
+                    current = true;
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        return size();
+    }
+
+    /**
+     * Reconciles the index with the table in the background at a fixed interval.
+     * An index that is not yet {@link #isCurrent() current} is reconciled straight away.
+     *
+     * @param pool           The connection pool to borrow connections from.
+     * @param intervalMillis The delay between the end of one reconcile and the start of the next; also the longest a
+     *                       relation removed outside this process can still be found.
+    */
+    public synchronized void startReconciler(ConnectionPool pool, long intervalMillis) {
+        if (reconciler != null) {
+            return;
+        }
+        reconciler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "doctor-patient-reconciler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reconciler.scheduleWithFixedDelay(() -> {
+            try {
+                reconcile(pool);
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }, current ? intervalMillis : 0, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the background reconciler, if one was started.
+    */
+    @Override
+    public synchronized void close() {
+        if (reconciler != null) {
+            reconciler.shutdownNow();
+            reconciler = null;
+        }
+    }
+
+    /**
+     * Retrieves the number of relations in the index.
+     *
+     * @return The relation count.
+    */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            int size = patientsByDoctor.targets.length;
+            for (int i = 0; i < removed.size(); i++) {
+                long key = removed.values[i];
+                if (patientsByDoctor.contains(doctorOf(key), patientOf(key))) {
+                    size--;
+                }
+            }
+            for (int i = 0; i < added.size(); i++) {
+                long key = added.values[i];
+                if (!patientsByDoctor.contains(doctorOf(key), patientOf(key))) {
+                    size++;
+                }
+            }
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Estimates the heap used by the index arrays.
+     *
+     * @return The approximate size in bytes.
+    */
+    public long getMemoryBytes() {
+        lock.readLock().lock();
+        try {
+            return patientsByDoctor.getMemoryBytes() + doctorsByPatient.getMemoryBytes()
+                    + (long) (added.values.length + addedByPatient.values.length + removed.values.length) * (Long.BYTES + Integer.BYTES);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        lock.readLock().lock();
+        try {
+            return "DoctorPatientIndex{relations=" + size() + ", doctors=" + patientsByDoctor.sources.length
+                    + ", patients=" + doctorsByPatient.sources.length + ", overlay=" + (added.size() + removed.size())
+                    + ", compactions=" + compactionCount + ", reconciles=" + reconcileCount
+                    + ", memoryKiB=" + getMemoryBytes() / 1024 + "}";
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Merges one direction of the arrays with the overlay for a single source ID, in ascending target order.
+    */
+    private int forEach(Adjacency adjacency, SortedLongs overlay, int source, boolean reversed, IntConsumer consumer) {
+        int count = 0;
+        int from = 0;
+        int to = 0;
+        int index = Arrays.binarySearch(adjacency.sources, source);
+        if (index >= 0) {
+            from = adjacency.offsets[index];
+            to = adjacency.offsets[index + 1];
+        }
+        int overlayIndex = overlay.lowerBound(key(source, 0));
+        long overlayEnd = key(source, 0) + (1L << 32);
+        while (from < to || (overlayIndex < overlay.size() && overlay.values[overlayIndex] < overlayEnd)) {
+            int target;
+            boolean inOverlay = overlayIndex < overlay.size() && overlay.values[overlayIndex] < overlayEnd;
+            int overlayTarget = inOverlay ? patientOf(overlay.values[overlayIndex]) : Integer.MAX_VALUE;
+            if (from < to && (!inOverlay || adjacency.targets[from] <= overlayTarget)) {
+                target = adjacency.targets[from++];
+                if (inOverlay && target == overlayTarget) {
+                    overlayIndex++;
+                }
+                long relation = reversed ? key(target, source) : key(source, target);
+                if (removed.size() > 0 && removed.indexOf(relation) >= 0) {
+                    continue;
+                }
+            } else {
+                target = overlayTarget;
+                overlayIndex++;
+            }
+            consumer.accept(target);
+            count++;
+        }
+        return count;
+    }
+
+    private void compactIfFull() {
+        if (reconciling || added.size() + removed.size() < MAX_OVERLAY_SIZE) {
+            return;
+        }
+        LongArray relations = new LongArray(patientsByDoctor.targets.length + added.size());
+        for (int i = 0; i < patientsByDoctor.sources.length; i++) {
+            for (int j = patientsByDoctor.offsets[i]; j < patientsByDoctor.offsets[i + 1]; j++) {
+                long key = key(patientsByDoctor.sources[i], patientsByDoctor.targets[j]);
+                if (removed.indexOf(key) < 0) {
+                    relations.add(key);
+                }
+            }
+        }
+        for (int i = 0; i < added.size(); i++) {
+            relations.add(added.values[i]);
+        }
+        install(relations.values, relations.size);
+        added.clear();
+        addedByPatient.clear();
+        removed.clear();
+        compactionCount++;
+    }
+
+    /**
+     * Drops overlay entries recorded before a reconcile read the table, and entries the table already agrees with.
+    */
+    private void retainNewerThan(int readGeneration) {
+        SortedLongs keptAdded = new SortedLongs();
+        SortedLongs keptRemoved = new SortedLongs();
+        for (int i = 0; i < added.size(); i++) {
+            long key = added.values[i];
+            if (added.stamps[i] > readGeneration && !patientsByDoctor.contains(doctorOf(key), patientOf(key))) {
+                keptAdded.put(key, added.stamps[i]);
+            }
+        }
+        for (int i = 0; i < removed.size(); i++) {
+            long key = removed.values[i];
+            if (removed.stamps[i] > readGeneration && patientsByDoctor.contains(doctorOf(key), patientOf(key))) {
+                keptRemoved.put(key, removed.stamps[i]);
+            }
+        }
+        added.clear();
+        addedByPatient.clear();
+        removed.clear();
+        for (int i = 0; i < keptAdded.size(); i++) {
+            long key = keptAdded.values[i];
+            added.put(key, keptAdded.stamps[i]);
+            addedByPatient.put(key(patientOf(key), doctorOf(key)), keptAdded.stamps[i]);
+        }
+        for (int i = 0; i < keptRemoved.size(); i++) {
+            removed.put(keptRemoved.values[i], keptRemoved.stamps[i]);
+        }
+    }
+
+    private void install(long[] relations, int count) {
+        long[] byDoctor = Arrays.copyOf(relations, count);
+        long[] byPatient = new long[count];
+        for (int i = 0; i < count; i++) {
+            byPatient[i] = key(patientOf(byDoctor[i]), doctorOf(byDoctor[i]));
+        }
+        patientsByDoctor = Adjacency.build(byDoctor);
+        doctorsByPatient = Adjacency.build(byPatient);
+    }
+
+    private static LongArray readRelations(ConnectionPool pool) throws SQLException {
+        LongArray relations = new LongArray(1024);
+        try (Connection connection = pool.getConnection()) {
+            boolean autoCommit = connection.getAutoCommit();
+            // The driver only streams rows through a cursor inside a transaction.
+            connection.setAutoCommit(false);
+            try (PreparedStatement statement = connection.prepareStatement(RELATIONS_SQL)) {
+                statement.setFetchSize(FETCH_SIZE);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        relations.add(key(resultSet.getInt(1), resultSet.getInt(2)));
+                    }
+                }
+                connection.commit();
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        }
+        return relations;
+    }
+
+    private static long key(int high, int low) {
+        return ((long) high << 32) | (low & 0xFFFFFFFFL);
+    }
+
+    private static int doctorOf(long key) {
+        return (int) (key >>> 32);
+    }
+
+    private static int patientOf(long key) {
+        return (int) key;
+    }
+
+    /**
+     * One direction of the relation in compressed sparse row form. The targets of sources[i] are
+     * targets[offsets[i]] up to, but not including, targets[offsets[i + 1]], in ascending order.
+    */
+    private static final class Adjacency {
+        final int[] sources;
+        final int[] offsets;
+        final int[] targets;
+
+        private Adjacency(int[] sources, int[] offsets, int[] targets) {
+            this.sources = sources;
+            this.offsets = offsets;
+            this.targets = targets;
+        }
+
+        static Adjacency build(long[] keys) {
+            // Sorting the packed keys orders by source, then target, and makes duplicates adjacent.
+            Arrays.sort(keys);
+            int unique = 0;
+            int sourceCount = 0;
+            for (int i = 0; i < keys.length; i++) {
+                if (i == 0 || keys[i] != keys[i - 1]) {
+                    if (unique == 0 || doctorOf(keys[i]) != doctorOf(keys[unique - 1])) {
+                        sourceCount++;
+                    }
+                    keys[unique++] = keys[i];
+                }
+            }
+            int[] sources = new int[sourceCount];
+            int[] offsets = new int[sourceCount + 1];
+            int[] targets = new int[unique];
+            int source = -1;
+            for (int i = 0; i < unique; i++) {
+                if (i == 0 || doctorOf(keys[i]) != sources[source]) {
+                    sources[++source] = doctorOf(keys[i]);
+                    offsets[source] = i;
+                }
+                targets[i] = patientOf(keys[i]);
+            }
+            offsets[sourceCount] = unique;
+            return new Adjacency(sources, offsets, targets);
+        }
+
+        boolean contains(int source, int target) {
+            int index = Arrays.binarySearch(sources, source);
+            return index >= 0 && Arrays.binarySearch(targets, offsets[index], offsets[index + 1], target) >= 0;
+        }
+
+        int degree(int source) {
+            int index = Arrays.binarySearch(sources, source);
+            return index < 0 ? 0 : offsets[index + 1] - offsets[index];
+        }
+
+        long getMemoryBytes() {
+            return (long) (sources.length + offsets.length + targets.length) * Integer.BYTES;
+        }
+    }
+
+    /**
+     * A sorted set of packed relations, each stamped with the generation in which it was recorded.
+    */
+    private static final class SortedLongs {
+        long[] values = new long[16];
+        int[] stamps = new int[16];
+        private int size;
+
+        int size() {
+            return size;
+        }
+
+        int indexOf(long value) {
+            return Arrays.binarySearch(values, 0, size, value);
+        }
+
+        int lowerBound(long value) {
+            int index = indexOf(value);
+            return index >= 0 ? index : -index - 1;
+        }
+
+        void put(long value, int stamp) {
+            int index = indexOf(value);
+            if (index >= 0) {
+                stamps[index] = stamp;
+                return;
+            }
+            index = -index - 1;
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+                stamps = Arrays.copyOf(stamps, size * 2);
+            }
+            System.arraycopy(values, index, values, index + 1, size - index);
+            System.arraycopy(stamps, index, stamps, index + 1, size - index);
+            values[index] = value;
+            stamps[index] = stamp;
+            size++;
+        }
+
+        void remove(long value) {
+            int index = indexOf(value);
+            if (index < 0) {
+                return;
+            }
+            System.arraycopy(values, index + 1, values, index, size - index - 1);
+            System.arraycopy(stamps, index + 1, stamps, index, size - index - 1);
+            size--;
+        }
+
+        void clear() {
+            size = 0;
+        }
+    }
+
+    private static final class LongArray {
+        long[] values;
+        int size;
+
+        LongArray(int capacity) {
+            values = new long[Math.max(16, capacity)];
+        }
+
+        void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size + (size >> 1));
+            }
+            values[size++] = value;
+        }
+    }
+
+    private static final class IntCollector implements IntConsumer {
+        private final int[] values;
+        private int size;
+
+        IntCollector(int capacity) {
+            values = new int[capacity];
+        }
+
+        @Override
+        public void accept(int value) {
+            values[size++] = value;
+        }
+
+        int[] toArray() {
+            return size == values.length ? values : Arrays.copyOf(values, size);
+        }
+    }
+}
@@ -1,3 +1,6 @@
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -6,18 +9,51 @@ import java.util.List;
 */
 public class DoctorPortalDao {
 
+    private static final String DASHBOARD_SQL =
+        "SELECT u.id, u.first_name, u.last_name, u.email, u.is_doctor, " +
+        "       hd.id AS health_data_id, hd.weight, hd.height, hd.steps, hd.heart_rate, hd.date, hd.source, " +
+        "       mr.active_reminders " +
+        "FROM doctor_patient dp " +
+        "JOIN users u ON u.id = dp.patient_id " +
+        "LEFT JOIN health_data_latest hd ON hd.user_id = dp.patient_id " +
+        "LEFT JOIN LATERAL (SELECT COUNT(*) AS active_reminders FROM medicine_reminders m " +
+        "                   WHERE m.user_id = dp.patient_id AND m.start_date <= ? AND m.end_date >= ?) mr ON true " +
+        "WHERE dp.doctor_id = ? AND dp.patient_id > ? " +
+        "ORDER BY dp.patient_id " +
+        "LIMIT ?";
+
+    private ConnectionPool pool;
     private UserDao userDao;
     private HealthDataDao healthDataDao;
 
     /**
-     * Constructs a DoctorPortalDao object and initializes UserDao and HealthDataDao.
-     * Assumes a valid database connection is available.
+     * Constructs a DoctorPortalDao object backed by the application's shared connection pool.
     */
     public DoctorPortalDao() {
-        // Assuming you have a valid connection object named 'connection' available
-        DatabaseConnection databaseConnection = new DatabaseConnection();
-        userDao = new UserDao(databaseConnection.getCon());
-        healthDataDao = new HealthDataDao(databaseConnection.getCon());
+        this(DatabaseConnection.getPool());
+    }
+
+    /**
+     * Constructs a DoctorPortalDao object whose UserDao and HealthDataDao borrow connections from the specified pool.
+     *
+     * @param pool The connection pool to borrow connections from.
+    */
+    public DoctorPortalDao(ConnectionPool pool) {
+        this(pool, new UserDao(pool), new HealthDataDao(pool));
+    }
+
+    /**
+     * Constructs a DoctorPortalDao object that shares existing DAOs, so doctor lookups use the same user cache
+     * that updateUser and deleteUser invalidate.
+     *
+     * @param pool          The connection pool to borrow connections from.
+     * @param userDao       The UserDao to use.
+     * @param healthDataDao The HealthDataDao to use.
+    */
+    public DoctorPortalDao(ConnectionPool pool, UserDao userDao, HealthDataDao healthDataDao) {
+        this.pool = pool;
+        this.userDao = userDao;
+        this.healthDataDao = healthDataDao;
     }
 
     /**
@@ -54,5 +90,68 @@ public class DoctorPortalDao {
     public List<HealthData> getHealthDataByPatientId(int patientId) {
         return healthDataDao.getHealthDataByUserId(patientId);
     }
-}
 
+    /**
+     * Retrieves one page of a doctor's dashboard: each patient with their latest health data, current BMI
+     * and number of active medicine reminders, in a single query.
+     * Pages are keyed on patient ID; pass the last patient ID of one page to fetch the next.
+     *
+     * @param doctorId       The unique identifier of the doctor.
+     * @param afterPatientId The last patient ID of the previous page, or 0 for the first page.
+     * @param limit          The maximum number of patients to return.
+     * @return The patient summaries ordered by patient ID, or an empty list if there are no more patients.
+    */
+    public List<PatientSummary> getDashboard(int doctorId, int afterPatientId, int limit) {
+        List<PatientSummary> dashboard = new ArrayList<>();
+        LocalDate today = LocalDate.now();
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(DASHBOARD_SQL)) {
+            statement.setObject(1, today);
+            statement.setObject(2, today);
+            statement.setInt(3, doctorId);
+            statement.setInt(4, afterPatientId);
+            statement.setInt(5, limit);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    dashboard.add(extractPatientSummaryFromResultSet(resultSet));
+                }
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return dashboard;
+    }
+
+    /**
+     * Helper method to convert a dashboard row into a PatientSummary object.
+     *
+     * @param resultSet The ResultSet containing the dashboard row.
+     * @return A PatientSummary object created from the ResultSet data.
+     * @throws SQLException If an SQL exception occurs while accessing the ResultSet.
+    */
+    private PatientSummary extractPatientSummaryFromResultSet(ResultSet resultSet) throws SQLException {
+        User patient = new User(
+            resultSet.getInt("id"),
+            resultSet.getString("first_name"),
+            resultSet.getString("last_name"),
+            resultSet.getString("email"),
+            null,
+            resultSet.getBoolean("is_doctor")
+        );
+        HealthData latestHealthData = null;
+        int healthDataId = resultSet.getInt("health_data_id");
+        if (!resultSet.wasNull()) {
+            latestHealthData = new HealthData(
+                healthDataId,
+                patient.getId(),
+                resultSet.getDouble("weight"),
+                resultSet.getDouble("height"),
+                resultSet.getInt("steps"),
+                resultSet.getInt("heart_rate"),
+                resultSet.getObject("date", LocalDate.class),
+                resultSet.getString("source")
+            );
+        }
+        return new PatientSummary(patient, latestHealthData, resultSet.getInt("active_reminders"));
+    }
+}
@@ -0,0 +1,196 @@
+import java.time.LocalDate;
+
+/**
+ * A health reading that stands out, either from fixed safe limits or from the user's own recent readings.
+*/
+public class HealthAnomaly {
+
+    /**
+     * The readings that are watched for anomalies, with the range outside of which a single reading is always flagged.
+    */
+    public enum Metric {
+        HEART_RATE(30, 150, 2),
+        WEIGHT(25, 300, 0.5),
+        STEPS(0, 100000, 500);
+
+        private final double minSafe;
+        private final double maxSafe;
+        private final double minStdDev;
+
+        Metric(double minSafe, double maxSafe, double minStdDev) {
+            this.minSafe = minSafe;
+            this.maxSafe = maxSafe;
+            this.minStdDev = minStdDev;
+        }
+
+        /**
+         * Retrieves this metric's value from a reading.
+         *
+         * @param healthData The reading.
+         * @return The value.
+        */
+        public double valueOf(HealthData healthData) {
+            switch (this) {
+                case HEART_RATE:
+                    return healthData.getHeartRate();
+                case WEIGHT:
+                    return healthData.getWeight();
+                default:
+                    return healthData.getSteps();
+            }
+        }
+
+        /**
+         * Retrieves the lowest value that is not flagged on its own.
+         *
+         * @return The lower safe limit.
+        */
+        public double getMinSafe() {
+            return minSafe;
+        }
+
+        /**
+         * Retrieves the highest value that is not flagged on its own.
+         *
+         * @return The upper safe limit.
+        */
+        public double getMaxSafe() {
+            return maxSafe;
+        }
+
+        /**
+         * Retrieves the smallest spread assumed for a user's readings, so a very steady history does not turn
+         * normal day-to-day noise into anomalies.
+         *
+         * @return The minimum standard deviation.
+        */
+        public double getMinStdDev() {
+            return minStdDev;
+        }
+    }
+
+    /**
+     * Why a reading was flagged.
+    */
+    public enum Kind {
+        /** The value is outside the metric's safe range, whatever the user's history. */
+        OUT_OF_RANGE,
+        /** The value is far from the user's recent mean. */
+        SPIKE,
+        /** The user's readings have drifted away from their baseline over several readings. */
+        SHIFT
+    }
+
+    private final int userId;
+    private final LocalDate date;
+    private final Metric metric;
+    private final Kind kind;
+    private final double value;
+    private final double baselineMean;
+    private final double baselineStdDev;
+    private final long detectedAtMillis;
+
+    /**
+     * Constructs a HealthAnomaly.
+     *
+     * @param userId           The ID of the user the reading belongs to.
+     * @param date             The date of the reading.
+     * @param metric           The metric that was flagged.
+     * @param kind             Why it was flagged.
+     * @param value            The flagged value.
+     * @param baselineMean     The user's recent mean for the metric, or NaN if there is no baseline yet.
+     * @param baselineStdDev   The user's recent standard deviation for the metric, or NaN if there is no baseline yet.
+     * @param detectedAtMillis When the anomaly was detected, in epoch milliseconds.
+    */
+    public HealthAnomaly(int userId, LocalDate date, Metric metric, Kind kind, double value, double baselineMean,
+                         double baselineStdDev, long detectedAtMillis) {
+        this.userId = userId;
+        this.date = date;
+        this.metric = metric;
+        this.kind = kind;
+        this.value = value;
+        this.baselineMean = baselineMean;
+        this.baselineStdDev = baselineStdDev;
+        this.detectedAtMillis = detectedAtMillis;
+    }
+
+    /**
+     * Retrieves the ID of the user the reading belongs to.
+     *
+     * @return The user ID.
+    */
+    public int getUserId() {
+        return userId;
+    }
+
+    /**
+     * Retrieves the date of the reading.
+     *
+     * @return The reading date.
+    */
+    public LocalDate getDate() {
+        return date;
+    }
+
+    /**
+     * Retrieves the metric that was flagged.
+     *
+     * @return The metric.
+    */
+    public Metric getMetric() {
+        return metric;
+    }
+
+    /**
+     * Retrieves why the reading was flagged.
+     *
+     * @return The kind of anomaly.
+    */
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * Retrieves the flagged value.
+     *
+     * @return The value.
+    */
+    public double getValue() {
+        return value;
+    }
+
+    /**
+     * Retrieves the user's recent mean for the metric.
+     *
+     * @return The baseline mean, or NaN if there was no baseline yet.
+    */
+    public double getBaselineMean() {
+        return baselineMean;
+    }
+
+    /**
+     * Retrieves the user's recent standard deviation for the metric.
+     *
+     * @return The baseline standard deviation, or NaN if there was no baseline yet.
+    */
+    public double getBaselineStdDev() {
+        return baselineStdDev;
+    }
+
+    /**
+     * Retrieves when the anomaly was detected.
+     *
+     * @return The detection time in epoch milliseconds.
+    */
+    public long getDetectedAtMillis() {
+        return detectedAtMillis;
+    }
+
+    @Override
+    public String toString() {
+        String baseline = Double.isNaN(baselineMean) ? "no baseline"
+                : String.format("baseline %.1f +/- %.1f", baselineMean, baselineStdDev);
+        return "HealthAnomaly{userId=" + userId + ", date=" + date + ", " + metric + " " + kind + ", value="
+                + value + ", " + baseline + "}";
+    }
+}
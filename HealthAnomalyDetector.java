@@ -0,0 +1,257 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Watches health readings as they arrive and flags the ones that stand out from the user's own history.
+ * For each user and metric it keeps a fixed handful of numbers, updated in constant time per reading:
+ * an exponentially weighted moving average (EWMA) of recent values, a mean and variance kept with Welford's method,
+ * and a two-sided CUSUM that catches a steady drift no single reading would reveal.
+ * Readings outside a metric's safe range are always flagged, so a user with no history is still covered.
+*/
+public class HealthAnomalyDetector {
+    private static final long CHECKPOINT_MAGIC = 0x48414E4F4D414C59L; // "HANOMALY"
+    private static final int CHECKPOINT_VERSION = 1;
+
+    /** Readings needed before a user's own baseline is trusted. */
+    private static final int MIN_BASELINE_READINGS = 5;
+    /** Once this many readings are in the baseline, older ones fade out instead of being counted forever. */
+    private static final int BASELINE_WINDOW = 30;
+    private static final double EWMA_ALPHA = 0.3;
+    private static final double SPIKE_Z_SCORE = 4.0;
+    private static final double CUSUM_SLACK = 0.5;
+    private static final double CUSUM_THRESHOLD = 5.0;
+
+    private static final HealthAnomaly.Metric[] METRICS = HealthAnomaly.Metric.values();
+    // Per metric: reading count, EWMA, Welford mean, Welford sum of squared deviations, CUSUM high, CUSUM low.
+    private static final int COUNT = 0;
+    private static final int EWMA = 1;
+    private static final int MEAN = 2;
+    private static final int M2 = 3;
+    private static final int CUSUM_HIGH = 4;
+    private static final int CUSUM_LOW = 5;
+    private static final int FIELDS = 6;
+
+    private final AnomalySink sink;
+    private final Map<Integer, double[]> statsByUser = new ConcurrentHashMap<>();
+    private final LongAdder checked = new LongAdder();
+    private final LongAdder anomalies = new LongAdder();
+    private final LongAdder sinkFailures = new LongAdder();
+
+    /**
+     * Constructs a HealthAnomalyDetector.
+     *
+     * @param sink The sink to send anomalies to.
+    */
+    public HealthAnomalyDetector(AnomalySink sink) {
+        this.sink = sink;
+    }
+
+    /**
+     * Checks a reading against the user's baseline, sends any anomalies to the sink and folds the reading into the baseline.
+     * Out-of-range values are not folded in, and spikes are clamped first, so one bad reading does not skew later checks.
+     *
+     * @param healthData The reading.
+     * @return The number of anomalies found in the reading.
+    */
+    public int check(HealthData healthData) {
+        checked.increment();
+        double[] stats = statsByUser.computeIfAbsent(healthData.getUserId(), userId -> new double[METRICS.length * FIELDS]);
+        int found = 0;
+        for (HealthAnomaly.Metric metric : METRICS) {
+            HealthAnomaly.Kind kind;
+            double mean;
+            double stdDev;
+            synchronized (stats) {
+                int base = metric.ordinal() * FIELDS;
+                double value = metric.valueOf(healthData);
+                mean = stats[base + COUNT] >= MIN_BASELINE_READINGS ? stats[base + EWMA] : Double.NaN;
+                stdDev = stdDev(stats, base, metric);
+                kind = update(stats, base, metric, value);
+            }
+            if (kind != null) {
+                found++;
+                emit(new HealthAnomaly(healthData.getUserId(), healthData.getDate(), metric, kind,
+                        metric.valueOf(healthData), mean, Double.isNaN(mean) ? Double.NaN : stdDev, System.currentTimeMillis()));
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Writes every user's statistics to a file, so a restarted detector does not have to relearn each baseline.
+     * The file is written beside the target and moved into place, so a crash never leaves a partial checkpoint.
+     *
+     * @param file The checkpoint file.
+     * @return The number of users written.
+     * @throws IOException If the file cannot be written.
+    */
+    public int checkpoint(Path file) throws IOException {
+        List<Map.Entry<Integer, double[]>> users = new ArrayList<>(statsByUser.entrySet());
+        Path absolute = file.toAbsolutePath();
+        Path temporary = absolute.resolveSibling(absolute.getFileName() + ".tmp");
+        try (FileOutputStream stream = new FileOutputStream(temporary.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream))) {
+            out.writeLong(CHECKPOINT_MAGIC);
+            out.writeInt(CHECKPOINT_VERSION);
+            out.writeInt(METRICS.length * FIELDS);
+            out.writeInt(users.size());
+            double[] copy = new double[METRICS.length * FIELDS];
+            for (Map.Entry<Integer, double[]> entry : users) {
+                double[] stats = entry.getValue();
+                synchronized (stats) {
+                    System.arraycopy(stats, 0, copy, 0, copy.length);
+                }
+                out.writeInt(entry.getKey());
+                for (double field : copy) {
+                    out.writeDouble(field);
+                }
+            }
+            out.flush();
+            stream.getFD().sync();
+        }
+        Files.move(temporary, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return users.size();
+    }
+
+    /**
+     * Loads users' statistics from a checkpoint, replacing any statistics already held for those users.
+     *
+     * @param file The checkpoint file.
+     * @return The number of users loaded.
+     * @throws IOException If the file cannot be read or is not a checkpoint written by this version.
+    */
+    public int restore(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readLong() != CHECKPOINT_MAGIC || in.readInt() != CHECKPOINT_VERSION) {
+                throw new IOException(file + " is not an anomaly detector checkpoint");
+            }
+            if (in.readInt() != METRICS.length * FIELDS) {
+                throw new IOException(file + " was written for a different set of metrics");
+            }
+            int users = in.readInt();
+            for (int i = 0; i < users; i++) {
+                int userId = in.readInt();
+                double[] stats = new double[METRICS.length * FIELDS];
+                for (int j = 0; j < stats.length; j++) {
+                    stats[j] = in.readDouble();
+                }
+                statsByUser.put(userId, stats);
+            }
+            return users;
+        }
+    }
+
+    /**
+     * Retrieves the number of users with a baseline.
+     *
+     * @return The user count.
+    */
+    public int getUserCount() {
+        return statsByUser.size();
+    }
+
+    /**
+     * Retrieves the number of readings checked.
+     *
+     * @return The checked count.
+    */
+    public long getCheckedCount() {
+        return checked.sum();
+    }
+
+    /**
+     * Retrieves the number of anomalies found.
+     *
+     * @return The anomaly count.
+    */
+    public long getAnomalyCount() {
+        return anomalies.sum();
+    }
+
+    /**
+     * Retrieves the number of anomalies the sink threw an exception for.
+     *
+     * @return The sink failure count.
+    */
+    public long getSinkFailureCount() {
+        return sinkFailures.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "HealthAnomalyDetector[users=" + statsByUser.size() + ", checked=" + checked + ", anomalies=" + anomalies
+                + ", sinkFailures=" + sinkFailures + "]";
+    }
+
+    /**
+     * Scores one value against the statistics at base, then folds it in.
+     *
+     * @return The kind of anomaly the value is, or null if it is normal.
+    */
+    private static HealthAnomaly.Kind update(double[] stats, int base, HealthAnomaly.Metric metric, double value) {
+        if (value < metric.getMinSafe() || value > metric.getMaxSafe()) {
+            return HealthAnomaly.Kind.OUT_OF_RANGE;
+        }
+        HealthAnomaly.Kind kind = null;
+        double count = stats[base + COUNT];
+        if (count >= MIN_BASELINE_READINGS) {
+            double stdDev = stdDev(stats, base, metric);
+            double ewma = stats[base + EWMA];
+            if (Math.abs(value - ewma) > SPIKE_Z_SCORE * stdDev) {
+                kind = HealthAnomaly.Kind.SPIKE;
+                value = ewma + Math.copySign(SPIKE_Z_SCORE * stdDev, value - ewma);
+            }
+            double z = (value - stats[base + MEAN]) / stdDev;
+            stats[base + CUSUM_HIGH] = Math.max(0, stats[base + CUSUM_HIGH] + z - CUSUM_SLACK);
+            stats[base + CUSUM_LOW] = Math.max(0, stats[base + CUSUM_LOW] - z - CUSUM_SLACK);
+            if (stats[base + CUSUM_HIGH] > CUSUM_THRESHOLD || stats[base + CUSUM_LOW] > CUSUM_THRESHOLD) {
+                stats[base + CUSUM_HIGH] = 0;
+                stats[base + CUSUM_LOW] = 0;
+                if (kind == null) {
+                    kind = HealthAnomaly.Kind.SHIFT;
+                }
+            }
+        }
+
+        stats[base + EWMA] = count == 0 ? value : stats[base + EWMA] + EWMA_ALPHA * (value - stats[base + EWMA]);
+        if (count >= BASELINE_WINDOW) {
+            // Decay the old deviations so the variance tracks roughly the last BASELINE_WINDOW readings.
+            stats[base + M2] *= (count - 1) / count;
+        } else {
+            count++;
+            stats[base + COUNT] = count;
+        }
+        double delta = value - stats[base + MEAN];
+        stats[base + MEAN] += delta / count;
+        stats[base + M2] += delta * (value - stats[base + MEAN]);
+        return kind;
+    }
+
+    private static double stdDev(double[] stats, int base, HealthAnomaly.Metric metric) {
+        double count = stats[base + COUNT];
+        double variance = count > 1 ? stats[base + M2] / (count - 1) : 0;
+        return Math.max(Math.sqrt(variance), metric.getMinStdDev());
+    }
+
+    private void emit(HealthAnomaly anomaly) {
+        anomalies.increment();
+        try {
+            sink.onAnomaly(anomaly);
+        } catch (RuntimeException e) {
+            sinkFailures.increment();
+            e.printStackTrace();
+        }
+    }
+}
@@ -1,14 +1,22 @@
+import java.time.LocalDate;
+
 /**
- * Represents health data records for a user, including weight, height, steps, heart rate, and date.
+ * Represents health data records for a user, including weight, height, steps, heart rate, date, and the source that sent it.
 */
 public class HealthData {
+    /**
+     * The source recorded for readings that do not name one, such as those entered by hand.
+    */
+    public static final String DEFAULT_SOURCE = "manual";
+
     private int id;
     private int userId;
     private double weight;
     private double height;
     private int steps;
     private int heartRate;
-    private String date;
+    private LocalDate date;
+    private String source;
 
     /**
      * Constructs a HealthData object with the specified parameters.
@@ -21,7 +29,23 @@ public class HealthData {
      * @param heartRate The heart rate of the user.
      * @param date      The date of the health data recording.
     */
-    public HealthData(int id, int userId, double weight, double height, int steps, int heartRate, String date) {
+    public HealthData(int id, int userId, double weight, double height, int steps, int heartRate, LocalDate date) {
+        this(id, userId, weight, height, steps, heartRate, date, DEFAULT_SOURCE);
+    }
+
+    /**
+     * Constructs a HealthData object with the specified parameters, including the source that sent it.
+     *
+     * @param id        The unique identifier for the health data record.
+     * @param userId    The identifier of the user associated with this health data record.
+     * @param weight    The weight of the user at the time of recording.
+     * @param height    The height of the user at the time of recording.
+     * @param steps     The number of steps taken by the user.
+     * @param heartRate The heart rate of the user.
+     * @param date      The date of the health data recording.
+     * @param source    The device or app that sent the reading; together with the user and date it identifies the reading.
+    */
+    public HealthData(int id, int userId, double weight, double height, int steps, int heartRate, LocalDate date, String source) {
         this.id = id;
         this.userId = userId;
         this.weight = weight;
@@ -29,6 +53,7 @@ public class HealthData {
         this.steps = steps;
         this.heartRate = heartRate;
         this.date = date;
+        this.source = source;
     }
 
     /**
@@ -90,10 +115,19 @@ public class HealthData {
      *
      * @return The date of the recording.
     */
-    public String getDate() {
+    public LocalDate getDate() {
         return date;
     }
 
+    /**
+     * Retrieves the device or app that sent the reading.
+     *
+     * @return The source of the reading.
+    */
+    public String getSource() {
+        return source;
+    }
+
     /**
      * Calculates the Body Mass Index (BMI) based on the weight and height.
      *
@@ -162,7 +196,16 @@ public class HealthData {
      *
      * @param date The date to set.
     */
-    public void setDate(String date) {
+    public void setDate(LocalDate date) {
         this.date = date;
     }
+
+    /**
+     * Sets the device or app that sent the reading.
+     *
+     * @param source The source to set.
+    */
+    public void setSource(String source) {
+        this.source = source;
+    }
 }
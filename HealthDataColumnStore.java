@@ -0,0 +1,613 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * An in-memory, column-oriented copy of health_data for cohort analytics.
+ * Each reading takes 26 bytes across primitive arrays instead of a HealthData object per row,
+ * and queries are tight loops over the arrays, split into segments that are scanned in parallel.
+ * Between rebuilds the store is insert-only: {@link #loadNewerThan} picks up new readings, but updates, deletes and
+ * partitions retired by {@link HealthDataPartitionManager} are not seen until {@link #rebuild} reloads the whole range,
+ * which {@link #startRebuilder} does at a fixed interval.
+ * Appends are single-writer; queries may run concurrently with an append or a rebuild and see the rows published
+ * before it started.
+*/
+public class HealthDataColumnStore implements AutoCloseable {
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int SEGMENT_SIZE = 1 << 16;
+    private static final int FETCH_SIZE = 10000;
+    /**
+     * How far below the high-water ID a catch-up starts reading. IDs are taken from a sequence when a row is inserted
+     * but only become visible when its transaction commits, so a row can appear after rows with higher IDs.
+     * A transaction that stays open while more than this many later rows are inserted can still be missed.
+    */
+    private static final int CATCH_UP_ID_MARGIN = 10000;
+    private static final String SELECT_SQL = "SELECT id, user_id, date, weight, height, steps, heart_rate FROM health_data";
+
+    /**
+     * The values a query can aggregate.
+    */
+    public enum Column {
+        WEIGHT,
+        HEIGHT,
+        STEPS,
+        HEART_RATE,
+        BMI
+    }
+
+    // Replaced as a whole when the arrays grow or the store is rebuilt, so a query reads one consistent set of arrays.
+    private volatile Columns columns;
+    private volatile int highWaterId;
+    // The first day loaded, or null if the store holds every reading.
+    private LocalDate from;
+    private ScheduledExecutorService rebuilder;
+    private long rebuildCount;
+
+    /**
+     * Constructs an empty HealthDataColumnStore.
+    */
+    public HealthDataColumnStore() {
+        this(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Constructs an empty HealthDataColumnStore with room for a number of readings.
+     *
+     * @param capacity The number of readings to allocate room for.
+    */
+    public HealthDataColumnStore(int capacity) {
+        int initial = Math.max(capacity, 16);
+        columns = new Columns(new int[initial], new int[initial], new int[initial], new float[initial], new float[initial],
+                new int[initial], new short[initial], 0);
+    }
+
+    /**
+     * Wraps existing column arrays, such as those read from a snapshot, without copying them.
+    */
+    static HealthDataColumnStore fromColumns(int[] id, int[] userId, int[] epochDay, float[] weight, float[] height, int[] steps,
+                                             short[] heartRate, int size, int highWaterId) {
+        HealthDataColumnStore store = new HealthDataColumnStore(0);
+        store.highWaterId = highWaterId;
+        store.columns = new Columns(id, userId, epochDay, weight, height, steps, heartRate, size);
+        return store;
+    }
+
+    /**
+     * Loads every health data reading on or after a date into a new store, streaming the rows through a cursor.
+     *
+     * @param pool The connection pool to borrow a connection from.
+     * @param from The first day to load, or null to load every reading.
+     * @return The loaded store.
+     * @throws SQLException If the readings cannot be read.
+    */
+    public static HealthDataColumnStore load(ConnectionPool pool, LocalDate from) throws SQLException {
+        HealthDataColumnStore store = new HealthDataColumnStore();
+        store.from = from;
+        try (Connection connection = pool.getConnection()) {
+            // The driver only uses a cursor when autocommit is off.
+            connection.setAutoCommit(false);
+            if (from == null) {
+                store.loadRows(connection, SELECT_SQL, null);
+            } else {
+                store.loadRows(connection, SELECT_SQL + " WHERE date >= ?", null, from);
+            }
+            connection.commit();
+        }
+        return store;
+    }
+
+    /**
+     * Reloads the store's date range from the table and swaps the result in, so updated, deleted and retired
+     * readings stop being counted. Queries keep using the old arrays until the new ones are complete; readings
+     * appended meanwhile are read again by the next {@link #loadNewerThan}. Needs heap for a second copy while it loads.
+     *
+     * @param pool The connection pool to borrow a connection from.
+     * @throws SQLException If the readings cannot be read; the store is left as it was.
+    */
+    public void rebuild(ConnectionPool pool) throws SQLException {
+        HealthDataColumnStore fresh = load(pool, from);
+        synchronized (this) {
+            columns = fresh.columns;
+            highWaterId = fresh.highWaterId;
+            rebuildCount++;
+        }
+    }
+
+    /**
+     * Starts a background thread that {@link #rebuild rebuilds} the store at a fixed interval, starting one interval
+     * from now. A failed rebuild is logged and tried again at the next interval.
+     *
+     * @param pool           The connection pool to borrow connections from.
+     * @param intervalMillis The delay between the end of one rebuild and the start of the next; also the longest an
+     *                       updated or deleted reading keeps being counted.
+    */
+    public synchronized void startRebuilder(ConnectionPool pool, long intervalMillis) {
+        if (rebuilder != null) {
+            return;
+        }
+        rebuilder = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "health-data-column-store-rebuilder");
+            thread.setDaemon(true);
+            return thread;
+        });
+        rebuilder.scheduleWithFixedDelay(() -> {
+            try {
+                rebuild(pool);
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the background rebuilder, if one was started.
+    */
+    @Override
+    public synchronized void close() {
+        if (rebuilder != null) {
+            rebuilder.shutdownNow();
+            rebuilder = null;
+        }
+    }
+
+    /**
+     * Appends the readings inserted since the store was loaded, keeping to the store's date range.
+     * Rows a little below {@link #getHighWaterId()} are read again, so a row whose transaction committed after rows with
+     * higher IDs is still picked up; rows already in the store are recognised by ID and skipped.
+     *
+     * @param pool The connection pool to borrow a connection from.
+     * @return The number of readings appended, or -1 if the query failed.
+    */
+    public long loadNewerThan(ConnectionPool pool) {
+        try (Connection connection = pool.getConnection()) {
+            connection.setAutoCommit(false);
+            long count = loadNewerThan(connection);
+            connection.commit();
+            return count;
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return -1;
+        }
+    }
+
+    /**
+     * Appends the readings inserted since the store was loaded, reading them in the caller's transaction.
+     * The driver only streams the rows through a cursor if autocommit is off. Holds the store's lock, so a rebuild
+     * does not swap the arrays between collecting the known IDs and appending.
+    */
+    synchronized long loadNewerThan(Connection connection) throws SQLException {
+        int floor = Math.max(0, highWaterId - CATCH_UP_ID_MARGIN);
+        int[] knownIds = idsAbove(floor);
+        if (from == null) {
+            return loadRows(connection, SELECT_SQL + " WHERE id > ?", knownIds, floor);
+        }
+        return loadRows(connection, SELECT_SQL + " WHERE id > ? AND date >= ?", knownIds, floor, from);
+    }
+
+    /**
+     * Streams the rows of a query into the store, skipping the IDs in knownIds, which must be sorted.
+    */
+    private long loadRows(Connection connection, String sql, int[] knownIds, Object... parameters) throws SQLException {
+        long count = 0;
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setFetchSize(FETCH_SIZE);
+            for (int i = 0; i < parameters.length; i++) {
+                statement.setObject(i + 1, parameters[i]);
+            }
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    int rowId = resultSet.getInt(1);
+                    if (knownIds != null && Arrays.binarySearch(knownIds, rowId) >= 0) {
+                        continue;
+                    }
+                    append(rowId, resultSet.getInt(2), resultSet.getObject(3, LocalDate.class).toEpochDay(),
+                            resultSet.getDouble(4), resultSet.getDouble(5), resultSet.getInt(6), resultSet.getInt(7));
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Collects the IDs in the store above a floor, sorted.
+    */
+    private int[] idsAbove(int floor) {
+        Columns columns = this.columns;
+        int rows = columns.size;
+        int[] id = columns.id;
+        int[] ids = new int[16];
+        int count = 0;
+        for (int row = 0; row < rows; row++) {
+            if (id[row] > floor) {
+                if (count == ids.length) {
+                    ids = Arrays.copyOf(ids, count * 2);
+                }
+                ids[count++] = id[row];
+            }
+        }
+        ids = Arrays.copyOf(ids, count);
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    /**
+     * Appends one reading.
+     *
+     * @param id        The ID of the health data record.
+     * @param userId    The ID of the user.
+     * @param epochDay  The date of the reading, as days since 1970-01-01.
+     * @param weight    The weight.
+     * @param height    The height.
+     * @param steps     The number of steps.
+     * @param heartRate The heart rate.
+    */
+    public synchronized void append(int id, int userId, long epochDay, double weight, double height, int steps, int heartRate) {
+        Columns columns = this.columns;
+        int row = columns.size;
+        if (row == columns.userId.length) {
+            columns = columns.grow();
+            this.columns = columns;
+        }
+        columns.id[row] = id;
+        columns.userId[row] = userId;
+        columns.epochDay[row] = (int) epochDay;
+        columns.weight[row] = (float) weight;
+        columns.height[row] = (float) height;
+        columns.steps[row] = steps;
+        columns.heartRate[row] = (short) heartRate;
+        if (id > highWaterId) {
+            highWaterId = id;
+        }
+        columns.size = row + 1;
+    }
+
+    /**
+     * Retrieves the number of readings in the store.
+     *
+     * @return The reading count.
+    */
+    public int size() {
+        return columns.size;
+    }
+
+    /**
+     * Retrieves the highest health data ID in the store.
+     *
+     * @return The high-water ID, or 0 if the store is empty.
+    */
+    public int getHighWaterId() {
+        return highWaterId;
+    }
+
+    /**
+     * Retrieves the number of completed rebuilds.
+     *
+     * @return The rebuild count.
+    */
+    public synchronized long getRebuildCount() {
+        return rebuildCount;
+    }
+
+    /**
+     * Estimates the heap used by the column arrays.
+     *
+     * @return The size in bytes.
+    */
+    public long getMemoryBytes() {
+        return (long) columns.userId.length * (4 + 4 + 4 + 4 + 4 + 4 + 2);
+    }
+
+    // Column accessors for HealthSnapshot; only the first size() entries are readings.
+
+    synchronized int[] idColumn() {
+        return columns.id;
+    }
+
+    synchronized int[] userIdColumn() {
+        return columns.userId;
+    }
+
+    synchronized int[] epochDayColumn() {
+        return columns.epochDay;
+    }
+
+    synchronized float[] weightColumn() {
+        return columns.weight;
+    }
+
+    synchronized float[] heightColumn() {
+        return columns.height;
+    }
+
+    synchronized int[] stepsColumn() {
+        return columns.steps;
+    }
+
+    synchronized short[] heartRateColumn() {
+        return columns.heartRate;
+    }
+
+    /**
+     * Aggregates a column over the readings that match a filter.
+     *
+     * @param filter The readings to include.
+     * @param column The column to aggregate.
+     * @return The count, minimum, maximum, sum and mean of the matching values.
+    */
+    public Aggregate aggregate(Filter filter, Column column) {
+        // Each segment builds its own partial result, so the reductions below can merge into their left operand.
+        Columns columns = this.columns;
+        int rows = columns.size;
+        int[] userId = columns.userId;
+        int[] epochDay = columns.epochDay;
+        return IntStream.range(0, segmentCount(rows)).parallel()
+                .mapToObj(segment -> {
+                    Aggregate aggregate = new Aggregate();
+                    int end = Math.min(rows, (segment + 1) * SEGMENT_SIZE);
+                    for (int row = segment * SEGMENT_SIZE; row < end; row++) {
+                        if (filter.matches(userId[row], epochDay[row])) {
+                            aggregate.add(columns.value(column, row));
+                        }
+                    }
+                    return aggregate;
+                })
+                .reduce(Aggregate::merge)
+                .orElseGet(Aggregate::new);
+    }
+
+    /**
+     * Aggregates a column per user over the readings that match a filter.
+     *
+     * @param filter The readings to include.
+     * @param column The column to aggregate.
+     * @return The aggregate of each user with at least one matching reading, keyed by user ID.
+    */
+    public Map<Integer, Aggregate> groupByUser(Filter filter, Column column) {
+        Columns columns = this.columns;
+        int rows = columns.size;
+        int[] userId = columns.userId;
+        int[] epochDay = columns.epochDay;
+        return IntStream.range(0, segmentCount(rows)).parallel()
+                .mapToObj(segment -> {
+                    Map<Integer, Aggregate> byUser = new HashMap<>();
+                    int end = Math.min(rows, (segment + 1) * SEGMENT_SIZE);
+                    for (int row = segment * SEGMENT_SIZE; row < end; row++) {
+                        if (filter.matches(userId[row], epochDay[row])) {
+                            byUser.computeIfAbsent(userId[row], user -> new Aggregate()).add(columns.value(column, row));
+                        }
+                    }
+                    return byUser;
+                })
+                .reduce((left, right) -> {
+                    right.forEach((user, aggregate) -> left.merge(user, aggregate, Aggregate::merge));
+                    return left;
+                })
+                .orElseGet(HashMap::new);
+    }
+
+    /**
+     * Counts the matching values of a column in equal-width buckets.
+     * Values below the first bucket go in the first bucket and values above the last go in the last.
+     *
+     * @param filter      The readings to include.
+     * @param column      The column to count.
+     * @param min         The lower bound of the first bucket.
+     * @param bucketWidth The width of each bucket.
+     * @param buckets     The number of buckets.
+     * @return The count of each bucket.
+    */
+    public long[] histogram(Filter filter, Column column, double min, double bucketWidth, int buckets) {
+        Columns columns = this.columns;
+        int rows = columns.size;
+        int[] userId = columns.userId;
+        int[] epochDay = columns.epochDay;
+        return IntStream.range(0, segmentCount(rows)).parallel()
+                .mapToObj(segment -> {
+                    long[] counts = new long[buckets];
+                    int end = Math.min(rows, (segment + 1) * SEGMENT_SIZE);
+                    for (int row = segment * SEGMENT_SIZE; row < end; row++) {
+                        if (filter.matches(userId[row], epochDay[row])) {
+                            int bucket = (int) ((columns.value(column, row) - min) / bucketWidth);
+                            counts[Math.max(0, Math.min(buckets - 1, bucket))]++;
+                        }
+                    }
+                    return counts;
+                })
+                .reduce((left, right) -> {
+                    for (int i = 0; i < buckets; i++) {
+                        left[i] += right[i];
+                    }
+                    return left;
+                })
+                .orElseGet(() -> new long[buckets]);
+    }
+
+    private static int segmentCount(int rows) {
+        return (rows + SEGMENT_SIZE - 1) / SEGMENT_SIZE;
+    }
+
+    /**
+     * One set of column arrays. The arrays are filled in place up to their capacity; size is written after a row's
+     * values, so a reader that sees the new size also sees the row.
+    */
+    private static class Columns {
+        final int[] id;
+        final int[] userId;
+        final int[] epochDay;
+        final float[] weight;
+        final float[] height;
+        final int[] steps;
+        final short[] heartRate;
+        volatile int size;
+
+        Columns(int[] id, int[] userId, int[] epochDay, float[] weight, float[] height, int[] steps, short[] heartRate, int size) {
+            this.id = id;
+            this.userId = userId;
+            this.epochDay = epochDay;
+            this.weight = weight;
+            this.height = height;
+            this.steps = steps;
+            this.heartRate = heartRate;
+            this.size = size;
+        }
+
+        Columns grow() {
+            int capacity = Math.max(16, userId.length + (userId.length >> 1));
+            return new Columns(Arrays.copyOf(id, capacity), Arrays.copyOf(userId, capacity), Arrays.copyOf(epochDay, capacity),
+                    Arrays.copyOf(weight, capacity), Arrays.copyOf(height, capacity), Arrays.copyOf(steps, capacity),
+                    Arrays.copyOf(heartRate, capacity), size);
+        }
+
+        double value(Column column, int row) {
+            switch (column) {
+                case WEIGHT:
+                    return weight[row];
+                case HEIGHT:
+                    return height[row];
+                case STEPS:
+                    return steps[row];
+                case HEART_RATE:
+                    return heartRate[row];
+                default:
+                    // Same formula as HealthData.getBMI().
+                    return weight[row] / height[row];
+            }
+        }
+    }
+
+    /**
+     * Selects readings by user and date range.
+    */
+    public static class Filter {
+        private final long[] userBitmap;
+        private final int fromDay;
+        private final int toDay;
+
+        private Filter(long[] userBitmap, int fromDay, int toDay) {
+            this.userBitmap = userBitmap;
+            this.fromDay = fromDay;
+            this.toDay = toDay;
+        }
+
+        /**
+         * Selects every reading within a date range.
+         *
+         * @param from The first day to include.
+         * @param to   The last day to include.
+         * @return The filter.
+        */
+        public static Filter between(LocalDate from, LocalDate to) {
+            return new Filter(null, (int) from.toEpochDay(), (int) to.toEpochDay());
+        }
+
+        /**
+         * Narrows the filter to a set of users, such as a doctor's patients.
+         *
+         * @param userIds The IDs of the users to include.
+         * @return A new filter.
+        */
+        public Filter forUsers(int... userIds) {
+            int maxUserId = 0;
+            for (int id : userIds) {
+                maxUserId = Math.max(maxUserId, id);
+            }
+            long[] bitmap = new long[(maxUserId >> 6) + 1];
+            for (int id : userIds) {
+                if (id >= 0) {
+                    bitmap[id >> 6] |= 1L << id;
+                }
+            }
+            return new Filter(bitmap, fromDay, toDay);
+        }
+
+        boolean matches(int userId, int epochDay) {
+            if (epochDay < fromDay || epochDay > toDay) {
+                return false;
+            }
+            if (userBitmap == null) {
+                return true;
+            }
+            int word = userId >> 6;
+            return userId >= 0 && word < userBitmap.length && (userBitmap[word] & (1L << userId)) != 0;
+        }
+    }
+
+    /**
+     * The count, minimum, maximum and sum of a set of values.
+    */
+    public static class Aggregate {
+        private long count;
+        private double min = Double.POSITIVE_INFINITY;
+        private double max = Double.NEGATIVE_INFINITY;
+        private double sum;
+
+        void add(double value) {
+            count++;
+            sum += value;
+            if (value < min) {
+                min = value;
+            }
+            if (value > max) {
+                max = value;
+            }
+        }
+
+        Aggregate merge(Aggregate other) {
+            count += other.count;
+            sum += other.sum;
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+            return this;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Retrieves the smallest value.
+         *
+         * @return The minimum, or NaN if there were no values.
+        */
+        public double getMin() {
+            return count == 0 ? Double.NaN : min;
+        }
+
+        /**
+         * Retrieves the largest value.
+         *
+         * @return The maximum, or NaN if there were no values.
+        */
+        public double getMax() {
+            return count == 0 ? Double.NaN : max;
+        }
+
+        public double getSum() {
+            return sum;
+        }
+
+        /**
+         * Retrieves the mean value.
+         *
+         * @return The mean, or NaN if there were no values.
+        */
+        public double getMean() {
+            return count == 0 ? Double.NaN : sum / count;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(java.util.Locale.ROOT, "count=%d, min=%.1f, max=%.1f, mean=%.2f", count, getMin(), getMax(), getMean());
+        }
+    }
+}
@@ -1,43 +1,149 @@
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+
+import java.io.IOException;
+import java.io.StringReader;
 import java.sql.*;
-import java.text.ParseException;
+import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.function.Consumer;
 /**
  * Data Access Object (DAO) for managing health data records in the database.
 */
 public class HealthDataDao {
-    private Connection connection;
+    private static final int DEFAULT_BATCH_SIZE = 500;
+    private static final int DEFAULT_LATEST_CACHE_SIZE = 100000;
+    private static final String INSERT_SQL = "INSERT INTO health_data (user_id, weight, height, steps, heart_rate, date, source) VALUES (?,?,?,?,?,?,?)";
+    private static final String COPY_SQL = "COPY health_data (user_id, weight, height, steps, heart_rate, date, source) FROM STDIN WITH (FORMAT csv)";
+
+    private ConnectionPool pool;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private final LatestHealthDataCache latestCache;
+    private final BatchInserter<HealthData> inserter;
+
+    /**
+     * Constructs a HealthDataDao that borrows connections from the specified pool.
+     *
+     * @param pool The connection pool to borrow connections from.
+    */
+    public HealthDataDao(ConnectionPool pool) {
+        this(pool, new LatestHealthDataCache(DEFAULT_LATEST_CACHE_SIZE));
+    }
 
     /**
-     * Constructs a HealthDataDao with the specified database connection.
+     * Constructs a HealthDataDao that serves latest-reading lookups through the specified cache.
      *
-     * @param connection The database connection to use.
+     * @param pool        The connection pool to borrow connections from.
+     * @param latestCache The in-memory cache of each user's latest health data.
     */
-    public HealthDataDao(Connection connection) {
-        this.connection = connection;
+    public HealthDataDao(ConnectionPool pool, LatestHealthDataCache latestCache) {
+        this.pool = pool;
+        this.latestCache = latestCache;
+        this.inserter = new BatchInserter<>(pool, INSERT_SQL,
+                healthData -> healthData.getDate() == null ? "Missing date" : null, HealthDataDao::bindHealthData);
+    }
+
+    /**
+     * Retrieves the in-memory cache of each user's latest health data.
+     *
+     * @return The latest health data cache.
+    */
+    public LatestHealthDataCache getLatestCache() {
+        return latestCache;
     }
 
     /**
      * Creates a new health data record in the database.
+     * A reading with the same user, date and source as a stored one violates the table's unique constraint and is not inserted.
      *
      * @param healthData The HealthData object to be inserted.
      * @return True if the operation was successful, false otherwise.
     */
     public boolean createHealthData(HealthData healthData) {
-        String sql = "INSERT INTO health_data (user_id, weight, height, steps, heart_rate, date) VALUES (?,?,?,?,?,?)";
-        try (PreparedStatement statement = connection.prepareStatement(sql)) {
-            statement.setInt(1, healthData.getUserId());
-            statement.setDouble(2, healthData.getWeight());
-            statement.setDouble(3, healthData.getHeight());
-            statement.setInt(4, healthData.getSteps());
-            statement.setInt(5, healthData.getHeartRate());
-            statement.setDate(6, DateUtils.stringToSqlDate(healthData.getDate()));
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(INSERT_SQL)) {
+            bindHealthData(statement, healthData);
             int rowsInserted = statement.executeUpdate();
             return rowsInserted > 0;
-        } catch (SQLException | ParseException e) {
+        } catch (SQLException e) {
             e.printStackTrace();
             return false;
+        } finally {
+            latestCache.invalidate(healthData.getUserId());
+        }
+    }
+
+    /**
+     * Retrieves the number of rows written per transaction by the bulk insert methods.
+     *
+     * @return The batch size.
+    */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Sets the number of rows written per transaction by the bulk insert methods.
+     *
+     * @param batchSize The batch size; must be at least 1.
+    */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be at least 1: " + batchSize);
         }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Inserts many health data records using JDBC batching, committing once per chunk of {@link #getBatchSize()} rows.
+     * If a chunk is rejected, it is retried row by row so only the offending rows fail.
+     *
+     * @param healthDataList The HealthData objects to be inserted.
+     * @return The number of rows inserted and the rows that failed.
+    */
+    public BatchResult<HealthData> createHealthDataBatch(Collection<HealthData> healthDataList) {
+        BatchResult<HealthData> result = new BatchResult<>();
+        List<HealthData> chunk = new ArrayList<>(Math.min(batchSize, healthDataList.size()));
+        int chunkStart = 0;
+        for (HealthData healthData : healthDataList) {
+            chunk.add(healthData);
+            if (chunk.size() == batchSize) {
+                insertChunk(chunk, chunkStart, result);
+                chunkStart += chunk.size();
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            insertChunk(chunk, chunkStart, result);
+        }
+        return result;
+    }
+
+    /**
+     * Inserts many health data records with the PostgreSQL COPY protocol, one COPY per chunk of {@link #getBatchSize()} rows.
+     * This is the fastest path for large backfills, but a chunk succeeds or fails as a whole.
+     *
+     * @param healthDataList The HealthData objects to be inserted.
+     * @return The number of rows inserted and the rows that failed.
+    */
+    public BatchResult<HealthData> copyHealthData(Collection<HealthData> healthDataList) {
+        BatchResult<HealthData> result = new BatchResult<>();
+        List<HealthData> chunk = new ArrayList<>(Math.min(batchSize, healthDataList.size()));
+        int chunkStart = 0;
+        for (HealthData healthData : healthDataList) {
+            chunk.add(healthData);
+            if (chunk.size() == batchSize) {
+                copyChunk(chunk, chunkStart, result);
+                chunkStart += chunk.size();
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            copyChunk(chunk, chunkStart, result);
+        }
+        return result;
     }
 
     /**
@@ -49,7 +155,8 @@ public class HealthDataDao {
     public HealthData getHealthDataById(int id) {
         HealthData healthData = null;
         String sql = "SELECT * FROM health_data WHERE id = ?";
-        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
             statement.setInt(1, id);
             try (ResultSet resultSet = statement.executeQuery()) {
                 if (resultSet.next()) {
@@ -71,7 +178,8 @@ public class HealthDataDao {
     public List<HealthData> getHealthDataByUserId(int userId) {
         List<HealthData> healthDataList = new ArrayList<>();
         String sql = "SELECT * FROM health_data WHERE user_id = ?";
-        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
             statement.setInt(1, userId);
             try (ResultSet resultSet = statement.executeQuery()) {
                 while (resultSet.next()) {
@@ -85,19 +193,107 @@ public class HealthDataDao {
     }
 
     /**
-     * Retrieves the latest health data record for a specific user from the database.
+     * Retrieves one page of a user's health data within a date range, ordered by date and then ID.
+     * Pages are keyed on (date, id) rather than offset, so every page costs the same however deep it is.
+     *
+     * @param userId    The ID of the user whose health data is to be retrieved.
+     * @param from      The first date to include.
+     * @param to        The last date to include.
+     * @param afterDate The date of the last record of the previous page, or null for the first page.
+     * @param afterId   The ID of the last record of the previous page; ignored for the first page.
+     * @param limit     The maximum number of records to return.
+     * @return A list of at most limit HealthData objects, or an empty list if there are no more records.
+     * @throws IllegalArgumentException If limit is not positive.
+    */
+    public List<HealthData> getHealthData(int userId, LocalDate from, LocalDate to, LocalDate afterDate, int afterId, int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("limit must be positive: " + limit);
+        }
+        List<HealthData> healthDataList = new ArrayList<>();
+        // The cursor is bound as values rather than looked up by ID, so it still works if that row has since been deleted.
+        String sql = "SELECT * FROM health_data WHERE user_id = ? AND date >= ? AND date <= ? " +
+                     (afterDate != null ? "AND (date, id) > (?, ?) " : "") +
+                     "ORDER BY date, id LIMIT ?";
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+            int parameter = 1;
+            statement.setInt(parameter++, userId);
+            statement.setObject(parameter++, from);
+            statement.setObject(parameter++, to);
+            if (afterDate != null) {
+                statement.setObject(parameter++, afterDate);
+                statement.setInt(parameter++, afterId);
+            }
+            statement.setInt(parameter, limit);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    healthDataList.add(extractHealthDataFromResultSet(resultSet));
+                }
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return healthDataList;
+    }
+
+    /**
+     * Streams a user's health data within a date range, ordered by date and then ID, through a server-side cursor.
+     * Only one fetch of rows is held in memory at a time, regardless of how long the history is.
+     *
+     * @param userId    The ID of the user whose health data is to be retrieved.
+     * @param from      The first date to include.
+     * @param to        The last date to include.
+     * @param fetchSize The number of rows fetched from the server per round trip.
+     * @param consumer  Receives each HealthData object in order.
+     * @return The number of records streamed, or -1 if the query failed.
+    */
+    public long forEachHealthData(int userId, LocalDate from, LocalDate to, int fetchSize, Consumer<HealthData> consumer) {
+        String sql = "SELECT * FROM health_data WHERE user_id = ? AND date >= ? AND date <= ? ORDER BY date, id";
+        long count = 0;
+        try (Connection connection = pool.getConnection()) {
+            // The driver only uses a cursor when autocommit is off.
+            connection.setAutoCommit(false);
+            try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                statement.setFetchSize(fetchSize);
+                statement.setInt(1, userId);
+                statement.setObject(2, from);
+                statement.setObject(3, to);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        consumer.accept(extractHealthDataFromResultSet(resultSet));
+                        count++;
+                    }
+                }
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return -1;
+        }
+        return count;
+    }
+
+    /**
+     * Retrieves the latest health data record for a specific user, from memory if possible and otherwise
+     * from the health_data_latest table, which is kept current by a trigger on health_data.
      *
      * @param userId The ID of the user whose latest health data is to be retrieved.
      * @return The latest HealthData object associated with the user, or null if not found.
     */
     public HealthData getLatestHealthDataForUser(int userId) {
-        HealthData latestHealthData = null;
-        String sql = "SELECT * FROM health_data WHERE user_id = ? ORDER BY date DESC LIMIT 1";
-        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+        HealthData latestHealthData = latestCache.get(userId);
+        if (latestHealthData != null) {
+            return latestHealthData;
+        }
+        long loadToken = latestCache.startLoad(userId);
+        String sql = "SELECT * FROM health_data_latest WHERE user_id = ?";
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
             statement.setInt(1, userId);
             try (ResultSet resultSet = statement.executeQuery()) {
                 if (resultSet.next()) {
                     latestHealthData = extractHealthDataFromResultSet(resultSet);
+                    latestCache.put(latestHealthData, loadToken);
                 }
             }
         } catch (SQLException e) {
@@ -106,6 +302,36 @@ public class HealthDataDao {
         return latestHealthData;
     }
 
+    /**
+     * Streams the latest health data record of every user, in user ID order, through a server-side cursor.
+     * Only one fetch of rows is held in memory at a time, regardless of how many users there are.
+     *
+     * @param fetchSize The number of rows fetched from the server per round trip.
+     * @param consumer  Receives each user's latest health data record.
+     * @return The number of records streamed, or -1 if the query failed.
+    */
+    public long forEachLatestHealthData(int fetchSize, Consumer<HealthData> consumer) {
+        String sql = "SELECT * FROM health_data_latest ORDER BY user_id";
+        long count = 0;
+        try (Connection connection = pool.getConnection()) {
+            // The driver only uses a cursor when autocommit is off.
+            connection.setAutoCommit(false);
+            try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                statement.setFetchSize(fetchSize);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        consumer.accept(extractHealthDataFromResultSet(resultSet));
+                        count++;
+                    }
+                }
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return -1;
+        }
+        return count;
+    }
 
     /**
      * Updates an existing health data record in the database.
@@ -114,17 +340,17 @@ public class HealthDataDao {
      * @return True if the operation was successful, false otherwise.
     */
     public boolean updateHealthData(HealthData healthData) {
-        String sql = "UPDATE health_data SET weight = ?, height = ?, steps = ?, heart_rate = ?, date = ? WHERE id = ?";
-        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+        String sql = "UPDATE health_data SET weight = ?, height = ?, steps = ?, heart_rate = ?, date = ? WHERE id = ? RETURNING user_id";
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
             statement.setDouble(1, healthData.getWeight());
             statement.setDouble(2, healthData.getHeight());
             statement.setInt(3, healthData.getSteps());
             statement.setInt(4, healthData.getHeartRate());
-            statement.setDate(5, DateUtils.stringToSqlDate(healthData.getDate()));
+            statement.setObject(5, healthData.getDate());
             statement.setInt(6, healthData.getId());
-            int rowsUpdated = statement.executeUpdate();
-            return rowsUpdated > 0;
-        } catch (SQLException | ParseException e) {
+            return invalidateReturnedUsers(statement) > 0;
+        } catch (SQLException e) {
             e.printStackTrace();
             return false;
         }
@@ -137,17 +363,124 @@ public class HealthDataDao {
      * @return True if the operation was successful, false otherwise.
     */
     public boolean deleteHealthData(int id) {
-        String sql = "DELETE FROM health_data WHERE id = ?";
-        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+        String sql = "DELETE FROM health_data WHERE id = ? RETURNING user_id";
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
             statement.setInt(1, id);
-            int rowsDeleted = statement.executeUpdate();
-            return rowsDeleted > 0;
+            return invalidateReturnedUsers(statement) > 0;
         } catch (SQLException e) {
             e.printStackTrace();
             return false;
         }
     }
 
+    /**
+     * Inserts one chunk through the shared {@link BatchInserter}, then drops the chunk's users from the latest cache.
+    */
+    private void insertChunk(List<HealthData> chunk, int chunkStart, BatchResult<HealthData> result) {
+        try {
+            inserter.insertChunk(chunk, chunkStart, result);
+        } finally {
+            invalidateUsers(chunk);
+        }
+    }
+
+    /**
+     * Streams one chunk to the server as CSV through COPY.
+    */
+    private void copyChunk(List<HealthData> chunk, int chunkStart, BatchResult<HealthData> result) {
+        StringBuilder csv = new StringBuilder(chunk.size() * 48);
+        List<Integer> validRows = new ArrayList<>(chunk.size());
+        for (int i = 0; i < chunk.size(); i++) {
+            HealthData healthData = chunk.get(i);
+            if (healthData.getDate() == null) {
+                result.addFailure(chunkStart + i, healthData, "Missing date");
+                continue;
+            }
+            csv.append(healthData.getUserId()).append(',')
+               .append(healthData.getWeight()).append(',')
+               .append(healthData.getHeight()).append(',')
+               .append(healthData.getSteps()).append(',')
+               .append(healthData.getHeartRate()).append(',')
+               .append(DateUtils.format(healthData.getDate())).append(',');
+            appendCsvString(csv, sourceOf(healthData)).append('\n');
+            validRows.add(i);
+        }
+        if (validRows.isEmpty()) {
+            return;
+        }
+
+        try (Connection connection = pool.getConnection()) {
+            CopyManager copyManager = connection.unwrap(PGConnection.class).getCopyAPI();
+            long rowsCopied = copyManager.copyIn(COPY_SQL, new StringReader(csv.toString()));
+            result.addInserted((int) rowsCopied);
+        } catch (SQLException | IOException e) {
+            e.printStackTrace();
+            for (int row : validRows) {
+                result.addFailure(chunkStart + row, chunk.get(row), "COPY chunk failed: " + e.getMessage());
+            }
+        } finally {
+            invalidateUsers(chunk);
+        }
+    }
+
+    /**
+     * Runs a write that returns the user_id of each affected row and drops those users from the latest cache.
+     *
+     * @return The number of affected rows.
+    */
+    private int invalidateReturnedUsers(PreparedStatement statement) throws SQLException {
+        int rows = 0;
+        try (ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                latestCache.invalidate(resultSet.getInt("user_id"));
+                rows++;
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Drops every user in a chunk from the latest cache after the chunk has been written.
+    */
+    private void invalidateUsers(List<HealthData> chunk) {
+        for (HealthData healthData : chunk) {
+            latestCache.invalidate(healthData.getUserId());
+        }
+    }
+
+    /**
+     * Binds the insert parameters for a health data record.
+    */
+    private static void bindHealthData(PreparedStatement statement, HealthData healthData) throws SQLException {
+        statement.setInt(1, healthData.getUserId());
+        statement.setDouble(2, healthData.getWeight());
+        statement.setDouble(3, healthData.getHeight());
+        statement.setInt(4, healthData.getSteps());
+        statement.setInt(5, healthData.getHeartRate());
+        statement.setObject(6, healthData.getDate());
+        statement.setString(7, sourceOf(healthData));
+    }
+
+    private static String sourceOf(HealthData healthData) {
+        return healthData.getSource() == null ? HealthData.DEFAULT_SOURCE : healthData.getSource();
+    }
+
+    /**
+     * Appends a value as a quoted CSV field, doubling any quotes inside it.
+    */
+    private static StringBuilder appendCsvString(StringBuilder csv, String value) {
+        csv.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                csv.append('"');
+            }
+            csv.append(c);
+        }
+        return csv.append('"');
+    }
+
     /**
      * Helper method to convert a ResultSet row into a HealthData object.
      *
@@ -155,7 +488,7 @@ public class HealthDataDao {
      * @return A HealthData object created from the ResultSet data.
      * @throws SQLException If an SQL exception occurs while accessing the ResultSet.
     */
-    private HealthData extractHealthDataFromResultSet(ResultSet resultSet) throws SQLException {
+    static HealthData extractHealthDataFromResultSet(ResultSet resultSet) throws SQLException {
         return new HealthData(
             resultSet.getInt("id"),
             resultSet.getInt("user_id"),
@@ -163,7 +496,8 @@ public class HealthDataDao {
             resultSet.getDouble("height"),
             resultSet.getInt("steps"),
             resultSet.getInt("heart_rate"),
-            DateUtils.dateToString(resultSet.getDate("date"))
+            resultSet.getObject("date", LocalDate.class),
+            resultSet.getString("source")
         );
     }
 }
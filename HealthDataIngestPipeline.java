@@ -0,0 +1,328 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A write-behind front door for health readings.
+ * Producers hand readings to {@link #submit(HealthData)} without waiting for the database;
+ * a single flusher thread drains the bounded queue and writes the readings in bulk through {@link HealthDataDao#createHealthDataBatch}.
+ * Anomaly detection runs after the write, so an anomaly is reported up to maxBatchDelayMillis plus one batch write
+ * after its reading was submitted. This is deliberate: only the batch result tells which readings were stored, and a
+ * reading that was rejected as a duplicate or failed to write must neither count in the user's baseline nor raise an
+ * alert that has already been sent. Lower maxBatchDelayMillis where alerts need to arrive sooner.
+*/
+public class HealthDataIngestPipeline implements AutoCloseable {
+    private static final long WAKE_UP_CHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+    /**
+     * What submit() does when the queue is full.
+    */
+    public enum BackpressurePolicy {
+        /** Wait until the flusher frees up space. */
+        BLOCK,
+        /** Discard the reading and return false. */
+        DROP,
+        /** Throw a RejectedExecutionException. */
+        REJECT
+    }
+
+    private final HealthDataDao healthDataDao;
+    private final BlockingQueue<HealthData> queue;
+    private final int maxBatchSize;
+    private final long maxBatchDelayMillis;
+    private final BackpressurePolicy backpressurePolicy;
+    private final Thread flusher;
+    private final Object progressLock = new Object();
+    private volatile HealthAnomalyDetector anomalyDetector;
+    private volatile HealthDataValidationStage validationStage;
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong persisted = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private volatile long processed;
+    private volatile long flushRequestedUpTo;
+    private volatile boolean closed;
+
+    /**
+     * Constructs a HealthDataIngestPipeline and starts its flusher thread.
+     *
+     * @param healthDataDao       The DAO used to write readings.
+     * @param queueCapacity       The maximum number of readings waiting to be written.
+     * @param maxBatchSize        The number of queued readings that triggers a write.
+     * @param maxBatchDelayMillis The longest a queued reading waits before a partial batch is written.
+     * @param backpressurePolicy  What to do when the queue is full.
+    */
+    public HealthDataIngestPipeline(HealthDataDao healthDataDao, int queueCapacity, int maxBatchSize,
+                                    long maxBatchDelayMillis, BackpressurePolicy backpressurePolicy) {
+        this.healthDataDao = healthDataDao;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.maxBatchSize = maxBatchSize;
+        this.maxBatchDelayMillis = maxBatchDelayMillis;
+        this.backpressurePolicy = backpressurePolicy;
+        this.flusher = new Thread(this::runFlusher, "health-data-flusher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /**
+     * Retrieves the detector that checks readings once they are written.
+     *
+     * @return The anomaly detector, or null if readings are not checked.
+    */
+    public HealthAnomalyDetector getAnomalyDetector() {
+        return anomalyDetector;
+    }
+
+    /**
+     * Checks each reading for anomalies on the flusher thread once it has been written, which adds the batch delay and
+     * write time to how long an alert takes; see the class description.
+     * Readings that are rejected or fail to write, such as a device retry the validation stage takes for a duplicate,
+     * are not checked, so they never count twice in a user's baseline.
+     *
+     * @param anomalyDetector The anomaly detector, or null to stop checking readings.
+    */
+    public void setAnomalyDetector(HealthAnomalyDetector anomalyDetector) {
+        this.anomalyDetector = anomalyDetector;
+    }
+
+    /**
+     * Retrieves the stage that validates and de-duplicates each batch before it is written.
+     *
+     * @return The validation stage, or null if batches go straight to the DAO.
+    */
+    public HealthDataValidationStage getValidationStage() {
+        return validationStage;
+    }
+
+    /**
+     * Sends each batch through a validation stage, which rejects out-of-range and duplicate readings and writes the rest.
+     * Rejected readings are counted as failed.
+     *
+     * @param validationStage The validation stage, or null to write batches straight to the DAO.
+    */
+    public void setValidationStage(HealthDataValidationStage validationStage) {
+        this.validationStage = validationStage;
+    }
+
+    /**
+     * Queues a reading to be written in the background.
+     * A reading that is queued while the pipeline closes is either written by close() or taken back and rejected,
+     * so a reading this method accepts is never left behind in the queue.
+     *
+     * @param healthData The reading to write.
+     * @return True if the reading was queued, false if it was dropped because the queue is full.
+     * @throws RejectedExecutionException If the queue is full under the REJECT policy, or the pipeline is closed,
+     *                                    including while a BLOCK submit is waiting for space.
+    */
+    public boolean submit(HealthData healthData) {
+        if (closed) {
+            throw new RejectedExecutionException("Ingest pipeline is closed");
+        }
+        boolean queued;
+        switch (backpressurePolicy) {
+            case BLOCK:
+                try {
+                    // Waits in slices rather than in put(), so a submitter blocked on a full queue notices close().
+                    while (!queue.offer(healthData, WAKE_UP_CHECK_NANOS, TimeUnit.NANOSECONDS)) {
+                        if (closed) {
+                            throw new RejectedExecutionException("Ingest pipeline is closed");
+                        }
+                    }
+                    queued = true;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    queued = false;
+                }
+                break;
+            case REJECT:
+                if (!queue.offer(healthData)) {
+                    rejected.incrementAndGet();
+                    throw new RejectedExecutionException("Ingest queue is full (" + queue.size() + " readings waiting)");
+                }
+                queued = true;
+                break;
+            default:
+                queued = queue.offer(healthData);
+                break;
+        }
+        // close() may have started after the check above. If the reading is still queued, the flusher and close()
+        // may both have finished already, so take it back; otherwise one of them has it and will write it.
+        if (queued && closed && queue.remove(healthData)) {
+            throw new RejectedExecutionException("Ingest pipeline is closed");
+        }
+        if (queued) {
+            submitted.incrementAndGet();
+        } else {
+            dropped.incrementAndGet();
+        }
+        return queued;
+    }
+
+    /**
+     * Blocks until every reading submitted before this call has been written or has failed.
+     *
+     * @throws InterruptedException If the calling thread is interrupted while waiting.
+    */
+    public void flush() throws InterruptedException {
+        long target = submitted.get();
+        synchronized (progressLock) {
+            flushRequestedUpTo = Math.max(flushRequestedUpTo, target);
+            while (processed < target && flusher.isAlive()) {
+                progressLock.wait(maxBatchDelayMillis);
+            }
+        }
+    }
+
+    /**
+     * Stops accepting readings, writes everything still queued and stops the flusher thread.
+     * Readings that a racing submit() queued after the flusher stopped are written on the calling thread.
+    */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        List<HealthData> batch = new ArrayList<>(maxBatchSize);
+        while (queue.drainTo(batch, maxBatchSize) > 0) {
+            write(batch);
+            batch.clear();
+        }
+    }
+
+    /**
+     * Retrieves the number of readings accepted by submit().
+     *
+     * @return The submitted count.
+    */
+    public long getSubmittedCount() {
+        return submitted.get();
+    }
+
+    /**
+     * Retrieves the number of readings discarded because the queue was full.
+     *
+     * @return The dropped count.
+    */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Retrieves the number of readings refused because the queue was full.
+     *
+     * @return The rejected count.
+    */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * Retrieves the number of readings written to the database.
+     *
+     * @return The persisted count.
+    */
+    public long getPersistedCount() {
+        return persisted.get();
+    }
+
+    /**
+     * Retrieves the number of readings that could not be written.
+     *
+     * @return The failed count.
+    */
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    /**
+     * Retrieves the number of readings waiting to be written.
+     *
+     * @return The queue depth.
+    */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    @Override
+    public String toString() {
+        return "HealthDataIngestPipeline[submitted=" + submitted + ", persisted=" + persisted + ", failed=" + failed
+                + ", dropped=" + dropped + ", rejected=" + rejected + ", queued=" + queue.size() + "]";
+    }
+
+    /**
+     * The flusher loop: waits for a full batch or the batch delay, whichever comes first, then writes what it has.
+     * The wait is sliced so a flush() or close() request is noticed within a few milliseconds.
+    */
+    private void runFlusher() {
+        List<HealthData> batch = new ArrayList<>(maxBatchSize);
+        while (true) {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxBatchDelayMillis);
+            try {
+                while (batch.size() < maxBatchSize && !closed && flushRequestedUpTo <= processed) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    HealthData healthData = queue.poll(Math.min(remaining, WAKE_UP_CHECK_NANOS), TimeUnit.NANOSECONDS);
+                    if (healthData != null) {
+                        batch.add(healthData);
+                        queue.drainTo(batch, maxBatchSize - batch.size());
+                    }
+                }
+            } catch (InterruptedException e) {
+                closed = true;
+            }
+            queue.drainTo(batch, maxBatchSize - batch.size());
+            if (!batch.isEmpty()) {
+                write(batch);
+                batch.clear();
+            }
+            if (closed && queue.isEmpty()) {
+                synchronized (progressLock) {
+                    progressLock.notifyAll();
+                }
+                return;
+            }
+        }
+    }
+
+    private void write(List<HealthData> batch) {
+        try {
+            HealthDataValidationStage stage = validationStage;
+            BatchResult<HealthData> result = stage != null ? stage.createHealthDataBatch(batch)
+                    : healthDataDao.createHealthDataBatch(batch);
+            persisted.addAndGet(result.getInsertedCount());
+            failed.addAndGet(result.getFailures().size());
+            boolean[] notWritten = new boolean[batch.size()];
+            for (BatchResult.Failure<HealthData> failure : result.getFailures()) {
+                notWritten[failure.getIndex()] = true;
+                System.err.println("Failed to write health data for user " + failure.getRecord().getUserId() + ": " + failure.getReason());
+            }
+            HealthAnomalyDetector detector = anomalyDetector;
+            if (detector != null) {
+                for (int i = 0; i < batch.size(); i++) {
+                    if (!notWritten[i]) {
+                        detector.check(batch.get(i));
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            failed.addAndGet(batch.size());
+        }
+        synchronized (progressLock) {
+            processed += batch.size();
+            progressLock.notifyAll();
+        }
+    }
+}
@@ -0,0 +1,280 @@
+import java.sql.*;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Maintains the monthly partitions of the health_data table: creates them ahead of time and
+ * retires old ones by detaching them, instead of deleting rows one by one.
+ * A long-running process keeps partitions ahead of the calendar with {@link #startMaintenance}.
+ *
+ * Usage: java HealthDataPartitionManager ensure [monthsAhead]
+ *        java HealthDataPartitionManager retain &lt;monthsToKeep&gt; [archive]
+*/
+public class HealthDataPartitionManager implements AutoCloseable {
+    private static final String ARCHIVE_SCHEMA = "health_data_archive";
+    private static final Pattern PARTITION_NAME = Pattern.compile("health_data_p(\\d{4})_(\\d{2})");
+
+    private ConnectionPool pool;
+    private ScheduledExecutorService maintenance;
+
+    /**
+     * Constructs a HealthDataPartitionManager.
+     *
+     * @param pool The connection pool to borrow connections from.
+    */
+    public HealthDataPartitionManager(ConnectionPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Creates any missing monthly partitions from the given month through monthsAhead months past the current one.
+     * Every earlier month that has rows in the default partition is covered too, and its rows are moved into the
+     * new partition, so that month can later be retired like any other. Moving detaches the default partition for
+     * the length of the transaction, which blocks other writers to health_data until it commits.
+     *
+     * @param from        The first month to cover.
+     * @param monthsAhead The number of months after the current month to create in advance.
+     * @return The number of partitions created.
+    */
+    public int ensurePartitions(YearMonth from, int monthsAhead) {
+        YearMonth last = YearMonth.now().plusMonths(monthsAhead);
+        int created = 0;
+        for (YearMonth month : defaultPartitionMonths()) {
+            if (month.isBefore(from) && createPartition(month)) {
+                created++;
+            }
+        }
+        for (YearMonth month = from; !month.isAfter(last); month = month.plusMonths(1)) {
+            if (createPartition(month)) {
+                created++;
+            }
+        }
+        return created;
+    }
+
+    /**
+     * Creates upcoming partitions in the background at a fixed interval, so a process that runs across a month
+     * boundary never starts writing the new month into health_data_default. The first run is one interval from now;
+     * call {@link #ensurePartitions} first when partitions are needed before that.
+     *
+     * @param monthsAhead    The number of months after the current month to keep created.
+     * @param intervalMillis The delay between the end of one run and the start of the next.
+    */
+    public synchronized void startMaintenance(int monthsAhead, long intervalMillis) {
+        if (maintenance != null) {
+            return;
+        }
+        maintenance = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "health-data-partition-maintenance");
+            thread.setDaemon(true);
+            return thread;
+        });
+        maintenance.scheduleWithFixedDelay(() -> ensurePartitions(YearMonth.now(), monthsAhead),
+                intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the background maintenance, if it was started.
+    */
+    @Override
+    public synchronized void close() {
+        if (maintenance != null) {
+            maintenance.shutdownNow();
+            maintenance = null;
+        }
+    }
+
+    /**
+     * Detaches every monthly partition older than the retention window, then drops it or moves it to the
+     * archive schema. Rows that live in the default partition are not affected; {@link #ensurePartitions}
+     * moves them into a monthly partition first.
+     * Detaching fires no row triggers, so in the same transaction the derived tables are brought in line with the
+     * rows that remain: daily and weekly rollups that covered only the retired month are deleted, the weeks that
+     * straddle its boundaries are recomputed, and every user whose latest reading was retired gets their newest
+     * remaining reading in health_data_latest, or no row. Processes that cached such a user's latest reading
+     * in a LatestHealthDataCache keep it until that user is next written.
+     *
+     * @param oldestMonthToKeep The oldest month whose partition is kept.
+     * @param archive           True to keep detached partitions in the archive schema, false to drop them.
+     * @return The number of partitions retired.
+    */
+    public int applyRetention(YearMonth oldestMonthToKeep, boolean archive) {
+        int retired = 0;
+        for (String partition : listPartitions()) {
+            if (!partitionMonth(partition).isBefore(oldestMonthToKeep)) {
+                continue;
+            }
+            try (Connection connection = pool.getConnection();
+                 Statement statement = connection.createStatement()) {
+                connection.setAutoCommit(false);
+                statement.execute("ALTER TABLE health_data DETACH PARTITION " + partition);
+                retireDerivedRows(statement, partition, partitionMonth(partition));
+                if (archive) {
+                    statement.execute("CREATE SCHEMA IF NOT EXISTS " + ARCHIVE_SCHEMA);
+                    statement.execute("ALTER TABLE " + partition + " SET SCHEMA " + ARCHIVE_SCHEMA);
+                } else {
+                    statement.execute("DROP TABLE " + partition);
+                }
+                connection.commit();
+                retired++;
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+        return retired;
+    }
+
+    /**
+     * Lists the monthly partitions currently attached to health_data, oldest first.
+     *
+     * @return The partition table names.
+    */
+    public List<String> listPartitions() {
+        List<String> partitions = new ArrayList<>();
+        String sql = "SELECT c.relname FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid " +
+                     "WHERE i.inhparent = 'health_data'::regclass ORDER BY c.relname";
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql);
+             ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                String name = resultSet.getString("relname");
+                if (PARTITION_NAME.matcher(name).matches()) {
+                    partitions.add(name);
+                }
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return partitions;
+    }
+
+    /**
+     * Lists the months that have rows in the default partition, oldest first.
+    */
+    private List<YearMonth> defaultPartitionMonths() {
+        List<YearMonth> months = new ArrayList<>();
+        String sql = "SELECT DISTINCT date_trunc('month', date)::date AS month FROM health_data_default ORDER BY month";
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql);
+             ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                months.add(YearMonth.from(resultSet.getObject("month", LocalDate.class)));
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return months;
+    }
+
+    /**
+     * Creates the partition for one month if it does not exist yet, moving that month's rows out of the default partition.
+    */
+    private boolean createPartition(YearMonth month) {
+        String partition = partitionName(month);
+        LocalDate start = month.atDay(1);
+        LocalDate end = month.plusMonths(1).atDay(1);
+        try (Connection connection = pool.getConnection()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement exists = connection.prepareStatement("SELECT to_regclass(?) IS NOT NULL")) {
+                exists.setString(1, partition);
+                try (ResultSet resultSet = exists.executeQuery()) {
+                    resultSet.next();
+                    if (resultSet.getBoolean(1)) {
+                        return false;
+                    }
+                }
+            }
+            boolean hasDefaultRows;
+            try (PreparedStatement defaultRows = connection.prepareStatement(
+                    "SELECT EXISTS (SELECT 1 FROM health_data_default WHERE date >= ? AND date < ?)")) {
+                defaultRows.setObject(1, start);
+                defaultRows.setObject(2, end);
+                try (ResultSet resultSet = defaultRows.executeQuery()) {
+                    resultSet.next();
+                    hasDefaultRows = resultSet.getBoolean(1);
+                }
+            }
+            String bounds = "FOR VALUES FROM ('" + start + "') TO ('" + end + "')";
+            try (Statement statement = connection.createStatement()) {
+                if (hasDefaultRows) {
+                    // A partition cannot be attached while the default holds rows in its range, so the rows are moved
+                    // between detached tables. Neither table has the health_data triggers while detached, so the
+                    // rollups and latest readings, which already count these rows, are left alone.
+                    statement.execute("CREATE TABLE " + partition + " (LIKE health_data INCLUDING DEFAULTS)");
+                    statement.execute("ALTER TABLE health_data DETACH PARTITION health_data_default");
+                    int moved = statement.executeUpdate("WITH moved AS (DELETE FROM health_data_default " +
+                            "WHERE date >= '" + start + "' AND date < '" + end + "' RETURNING *) " +
+                            "INSERT INTO " + partition + " SELECT * FROM moved");
+                    statement.execute("ALTER TABLE health_data ATTACH PARTITION " + partition + " " + bounds);
+                    statement.execute("ALTER TABLE health_data ATTACH PARTITION health_data_default DEFAULT");
+                    System.out.println("Moved " + moved + " rows for " + month + " from health_data_default into " + partition);
+                } else {
+                    statement.execute("CREATE TABLE " + partition + " PARTITION OF health_data " + bounds);
+                }
+            }
+            connection.commit();
+            return true;
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Removes a detached partition's readings from the rollups and latest readings, which its triggers no longer maintain.
+    */
+    private static void retireDerivedRows(Statement statement, String partition, YearMonth month) throws SQLException {
+        LocalDate start = month.atDay(1);
+        LocalDate end = month.plusMonths(1).atDay(1);
+        String range = "'" + start + "' AND period_start < '" + end + "'";
+        statement.executeUpdate("DELETE FROM health_data_rollup WHERE granularity = 'D' AND period_start >= " + range);
+        statement.executeUpdate("DELETE FROM health_data_rollup WHERE granularity = 'W' AND period_start >= " + range
+                + " AND period_start + 7 <= '" + end + "'");
+        // health_data_rollup_refresh recomputes the week containing a date from the rows still in health_data.
+        statement.execute("SELECT health_data_rollup_refresh(u.user_id, w.week) "
+                + "FROM (SELECT DISTINCT user_id FROM " + partition + ") u "
+                + "CROSS JOIN (VALUES (date_trunc('week', DATE '" + start + "')::date), "
+                + "(date_trunc('week', DATE '" + end + "' - 1)::date)) w(week)");
+        // Dates map to exactly one partition, so a latest reading dated in this month is one of the retired rows.
+        statement.execute("SELECT health_data_latest_refresh(user_id) FROM health_data_latest "
+                + "WHERE date >= '" + start + "' AND date < '" + end + "'");
+    }
+
+    private static String partitionName(YearMonth month) {
+        return String.format("health_data_p%04d_%02d", month.getYear(), month.getMonthValue());
+    }
+
+    private static YearMonth partitionMonth(String partition) {
+        Matcher matcher = PARTITION_NAME.matcher(partition);
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Not a monthly health_data partition: " + partition);
+        }
+        return YearMonth.of(Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2)));
+    }
+
+    public static void main(String[] args) {
+        HealthDataPartitionManager manager = new HealthDataPartitionManager(DatabaseConnection.getPool());
+        try {
+            if (args.length >= 2 && args[0].equals("retain")) {
+                YearMonth oldestMonthToKeep = YearMonth.now().minusMonths(Integer.parseInt(args[1]) - 1);
+                boolean archive = args.length > 2 && args[2].equals("archive");
+                int retired = manager.applyRetention(oldestMonthToKeep, archive);
+                System.out.println((archive ? "Archived " : "Dropped ") + retired + " partitions older than " + oldestMonthToKeep);
+            } else if (args.length >= 1 && args[0].equals("ensure")) {
+                int monthsAhead = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+                System.out.println("Created " + manager.ensurePartitions(YearMonth.now(), monthsAhead) + " partitions");
+            } else {
+                System.out.println("Usage: HealthDataPartitionManager ensure [monthsAhead] | retain <monthsToKeep> [archive]");
+            }
+        } finally {
+            DatabaseConnection.shutdown();
+        }
+    }
+}
@@ -0,0 +1,136 @@
+import java.time.LocalDate;
+
+/**
+ * Aggregated health data for one user over one day or one week.
+*/
+public class HealthDataRollup {
+    private final int userId;
+    private final LocalDate periodStart;
+    private final int readingCount;
+    private final int minHeartRate;
+    private final int maxHeartRate;
+    private final double averageHeartRate;
+    private final long totalSteps;
+    private final double firstWeight;
+    private final double lastWeight;
+    private final double lastHeight;
+
+    /**
+     * Constructs a HealthDataRollup.
+     *
+     * @param userId           The identifier of the user.
+     * @param periodStart      The first day of the period.
+     * @param readingCount     The number of health data records in the period.
+     * @param minHeartRate     The lowest heart rate recorded in the period.
+     * @param maxHeartRate     The highest heart rate recorded in the period.
+     * @param averageHeartRate The mean heart rate over the period.
+     * @param totalSteps       The total number of steps recorded in the period.
+     * @param firstWeight      The earliest weight recorded in the period.
+     * @param lastWeight       The latest weight recorded in the period.
+     * @param lastHeight       The latest height recorded in the period.
+    */
+    public HealthDataRollup(int userId, LocalDate periodStart, int readingCount, int minHeartRate, int maxHeartRate,
+                            double averageHeartRate, long totalSteps, double firstWeight, double lastWeight, double lastHeight) {
+        this.userId = userId;
+        this.periodStart = periodStart;
+        this.readingCount = readingCount;
+        this.minHeartRate = minHeartRate;
+        this.maxHeartRate = maxHeartRate;
+        this.averageHeartRate = averageHeartRate;
+        this.totalSteps = totalSteps;
+        this.firstWeight = firstWeight;
+        this.lastWeight = lastWeight;
+        this.lastHeight = lastHeight;
+    }
+
+    /**
+     * Retrieves the identifier of the user.
+     *
+     * @return The user identifier.
+    */
+    public int getUserId() {
+        return userId;
+    }
+
+    /**
+     * Retrieves the first day of the period. Weekly periods start on Monday.
+     *
+     * @return The period start date.
+    */
+    public LocalDate getPeriodStart() {
+        return periodStart;
+    }
+
+    /**
+     * Retrieves the number of health data records in the period.
+     *
+     * @return The reading count.
+    */
+    public int getReadingCount() {
+        return readingCount;
+    }
+
+    /**
+     * Retrieves the lowest heart rate recorded in the period.
+     *
+     * @return The minimum heart rate.
+    */
+    public int getMinHeartRate() {
+        return minHeartRate;
+    }
+
+    /**
+     * Retrieves the highest heart rate recorded in the period.
+     *
+     * @return The maximum heart rate.
+    */
+    public int getMaxHeartRate() {
+        return maxHeartRate;
+    }
+
+    /**
+     * Retrieves the mean heart rate over the period.
+     *
+     * @return The average heart rate.
+    */
+    public double getAverageHeartRate() {
+        return averageHeartRate;
+    }
+
+    /**
+     * Retrieves the total number of steps recorded in the period.
+     *
+     * @return The step total.
+    */
+    public long getTotalSteps() {
+        return totalSteps;
+    }
+
+    /**
+     * Retrieves the latest weight recorded in the period.
+     *
+     * @return The last weight.
+    */
+    public double getLastWeight() {
+        return lastWeight;
+    }
+
+    /**
+     * Retrieves the change in weight from the first to the last record of the period.
+     *
+     * @return The weight change.
+    */
+    public double getWeightChange() {
+        return lastWeight - firstWeight;
+    }
+
+    /**
+     * Calculates the Body Mass Index (BMI) from the latest weight and height of the period,
+     * the same way as {@link HealthData#getBMI()}.
+     *
+     * @return The calculated BMI.
+    */
+    public double getBMI() {
+        return lastWeight / lastHeight;
+    }
+}
@@ -0,0 +1,95 @@
+import java.sql.*;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Data Access Object (DAO) for the daily and weekly health data rollups.
+ * Trend queries read from the small health_data_rollup table, which a database trigger keeps up to date
+ * as health data is inserted, updated or deleted, instead of scanning raw health_data rows.
+*/
+public class HealthDataRollupDao {
+    private static final String DAILY = "D";
+    private static final String WEEKLY = "W";
+
+    private ConnectionPool pool;
+
+    /**
+     * Constructs a HealthDataRollupDao that borrows connections from the specified pool.
+     *
+     * @param pool The connection pool to borrow connections from.
+    */
+    public HealthDataRollupDao(ConnectionPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Retrieves a user's daily rollups within a date range.
+     *
+     * @param userId The ID of the user.
+     * @param from   The first day to include.
+     * @param to     The last day to include.
+     * @return A list of daily HealthDataRollup objects in date order. Days without readings are omitted.
+    */
+    public List<HealthDataRollup> getDailyRollups(int userId, LocalDate from, LocalDate to) {
+        return getRollups(userId, DAILY, from, to);
+    }
+
+    /**
+     * Retrieves a user's weekly rollups for the weeks overlapping a date range. Weeks start on Monday.
+     *
+     * @param userId The ID of the user.
+     * @param from   A day in the first week to include.
+     * @param to     A day in the last week to include.
+     * @return A list of weekly HealthDataRollup objects in date order. Weeks without readings are omitted.
+    */
+    public List<HealthDataRollup> getWeeklyRollups(int userId, LocalDate from, LocalDate to) {
+        return getRollups(userId, WEEKLY, from.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY)), to);
+    }
+
+    private List<HealthDataRollup> getRollups(int userId, String granularity, LocalDate from, LocalDate to) {
+        List<HealthDataRollup> rollups = new ArrayList<>();
+        String sql = "SELECT * FROM health_data_rollup WHERE user_id = ? AND granularity = ? " +
+                     "AND period_start >= ? AND period_start <= ? ORDER BY period_start";
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setInt(1, userId);
+            statement.setString(2, granularity);
+            statement.setObject(3, from);
+            statement.setObject(4, to);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    rollups.add(extractRollupFromResultSet(resultSet));
+                }
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return rollups;
+    }
+
+    /**
+     * Helper method to convert a ResultSet row into a HealthDataRollup object.
+     *
+     * @param resultSet The ResultSet containing the rollup information.
+     * @return A HealthDataRollup object created from the ResultSet data.
+     * @throws SQLException If an SQL exception occurs while accessing the ResultSet.
+    */
+    private HealthDataRollup extractRollupFromResultSet(ResultSet resultSet) throws SQLException {
+        int readingCount = resultSet.getInt("reading_count");
+        return new HealthDataRollup(
+            resultSet.getInt("user_id"),
+            resultSet.getObject("period_start", LocalDate.class),
+            readingCount,
+            resultSet.getInt("min_heart_rate"),
+            resultSet.getInt("max_heart_rate"),
+            (double) resultSet.getLong("sum_heart_rate") / readingCount,
+            resultSet.getLong("total_steps"),
+            resultSet.getDouble("first_weight"),
+            resultSet.getDouble("last_weight"),
+            resultSet.getDouble("last_height")
+        );
+    }
+}
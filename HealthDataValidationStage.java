@@ -0,0 +1,503 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Checks health readings before they reach {@link HealthDataDao}: values must fall within the configured ranges,
+ * and a reading must not repeat one already stored for the same user, date and source, such as a device retrying an upload.
+ * Repeats are caught in memory where possible. A recent-key set holds exact keys, and a Bloom filter remembers every key
+ * it has seen, so a key the filter has never seen is known to be new without asking the database. Only the keys the
+ * filter might have seen are looked up, once per batch. The table's unique constraint on (user_id, date, source)
+ * backs this up, for example for keys written before the application started.
+ * Only keys that were actually written stay in the recent set, so a retry after a failed write is looked up rather than rejected.
+ * Readings deleted or moved to another date elsewhere must be passed to {@link #forget} for the same reason.
+*/
+public class HealthDataValidationStage {
+    private static final int DEFAULT_EXPECTED_KEYS = 1_000_000;
+    private static final int DEFAULT_RECENT_KEYS = 100_000;
+    private static final int BLOOM_HASHES = 7;
+    private static final int BLOOM_BITS_PER_KEY = 10;
+    // The filter is split into 512-bit blocks, one cache line each, and all of a key's bits go in one block,
+    // so a lookup costs a single cache miss however large the filter is.
+    private static final int BLOOM_BLOCK_LONGS = 8;
+    private static final int WARM_UP_FETCH_SIZE = 10000;
+    private static final String DUPLICATE = "duplicate";
+    private static final String MISSING_DATE = "missing-date";
+    private static final String EXISTING_KEYS_SQL =
+        "SELECT h.user_id, h.date, h.source FROM health_data h " +
+        "JOIN unnest(?::int[], ?::date[], ?::varchar[]) AS k(user_id, date, source) " +
+        "ON h.user_id = k.user_id AND h.date = k.date AND h.source = k.source";
+
+    /**
+     * An allowed range for one value of a reading.
+    */
+    public static class RangeRule {
+        private final String name;
+        private final ToDoubleFunction<HealthData> value;
+        private final double min;
+        private final double max;
+
+        /**
+         * Constructs a RangeRule.
+         *
+         * @param name  A short identifier for the rule, used in reject reasons and counts.
+         * @param value Extracts the value to check from a reading.
+         * @param min   The lowest allowed value.
+         * @param max   The highest allowed value.
+        */
+        public RangeRule(String name, ToDoubleFunction<HealthData> value, double min, double max) {
+            this.name = name;
+            this.value = value;
+            this.min = min;
+            this.max = max;
+        }
+
+        /**
+         * Retrieves the identifier of the rule.
+         *
+         * @return The rule name.
+        */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Checks whether a reading's value is within the allowed range.
+         *
+         * @param healthData The reading to check.
+         * @return True if the value is allowed, false otherwise.
+        */
+        public boolean accepts(HealthData healthData) {
+            double checked = value.applyAsDouble(healthData);
+            return checked >= min && checked <= max;
+        }
+
+        /**
+         * Describes why a reading broke the rule.
+         *
+         * @param healthData The rejected reading.
+         * @return The reject reason.
+        */
+        public String describe(HealthData healthData) {
+            return name + ": " + value.applyAsDouble(healthData) + " is outside " + min + " - " + max;
+        }
+    }
+
+    /**
+     * The default ranges: values no person or device should report, rather than values that are merely unhealthy.
+    */
+    public static final List<RangeRule> DEFAULT_RULES = List.of(
+        new RangeRule("weight", HealthData::getWeight, 2, 500),
+        new RangeRule("height", HealthData::getHeight, 0.3, 2.6),
+        new RangeRule("steps", HealthData::getSteps, 0, 100000),
+        new RangeRule("heart-rate", HealthData::getHeartRate, 20, 250),
+        new RangeRule("date", healthData -> healthData.getDate().toEpochDay(),
+                LocalDate.of(1900, 1, 1).toEpochDay(), LocalDate.of(2100, 1, 1).toEpochDay())
+    );
+
+    private final HealthDataDao healthDataDao;
+    private final ConnectionPool pool;
+    private final List<RangeRule> rules;
+    private final int expectedKeys;
+    private final long[] bloomBits;
+    private final Set<Key> recentKeys;
+    private long bloomKeyCount;
+
+    private final Map<String, LongAdder> rejectCounts = new ConcurrentHashMap<>();
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder provedNew = new LongAdder();
+    private final LongAdder databaseChecks = new LongAdder();
+    private final LongAdder databaseCheckedKeys = new LongAdder();
+    private final LongAdder bloomResets = new LongAdder();
+
+    /**
+     * Constructs a HealthDataValidationStage with the default rules and capacities.
+     *
+     * @param healthDataDao The DAO that accepted readings are written through.
+     * @param pool          The connection pool used to look up keys the Bloom filter cannot rule out.
+    */
+    public HealthDataValidationStage(HealthDataDao healthDataDao, ConnectionPool pool) {
+        this(healthDataDao, pool, DEFAULT_RULES, DEFAULT_EXPECTED_KEYS, DEFAULT_RECENT_KEYS);
+    }
+
+    /**
+     * Constructs a HealthDataValidationStage.
+     *
+     * @param healthDataDao The DAO that accepted readings are written through.
+     * @param pool          The connection pool used to look up keys the Bloom filter cannot rule out.
+     * @param rules         The ranges readings must fall within.
+     * @param expectedKeys  The number of keys the Bloom filter holds before it is cleared, at about a 1% false positive rate.
+     * @param recentKeys    The number of most recently accepted keys remembered exactly.
+    */
+    public HealthDataValidationStage(HealthDataDao healthDataDao, ConnectionPool pool, List<RangeRule> rules,
+                                     int expectedKeys, int recentKeys) {
+        this.healthDataDao = healthDataDao;
+        this.pool = pool;
+        this.rules = List.copyOf(rules);
+        this.expectedKeys = expectedKeys;
+        int bits = Integer.highestOneBit(Math.max(1024, expectedKeys * BLOOM_BITS_PER_KEY - 1)) << 1;
+        this.bloomBits = new long[bits / Long.SIZE];
+        this.recentKeys = Collections.newSetFromMap(new LinkedHashMap<Key, Boolean>(recentKeys * 4 / 3 + 1) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Boolean> eldest) {
+                return size() > recentKeys;
+            }
+        });
+    }
+
+    /**
+     * Loads the keys of readings stored since a date into the Bloom filter, so retries of readings written
+     * before the application started are also caught before they reach the database.
+     *
+     * @param from The earliest reading date to load.
+     * @return The number of keys loaded, or -1 if the query failed.
+    */
+    public long warmUp(LocalDate from) {
+        String sql = "SELECT user_id, date, source FROM health_data WHERE date >= ?";
+        long count = 0;
+        try (Connection connection = pool.getConnection()) {
+            // The driver only uses a cursor when autocommit is off.
+            connection.setAutoCommit(false);
+            try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                statement.setFetchSize(WARM_UP_FETCH_SIZE);
+                statement.setObject(1, from);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        Key key = new Key(resultSet.getInt(1), resultSet.getObject(2, LocalDate.class), resultSet.getString(3));
+                        synchronized (this) {
+                            bloomAdd(key.hash);
+                        }
+                        count++;
+                    }
+                }
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return -1;
+        }
+        return count;
+    }
+
+    /**
+     * Validates a reading and writes it if it passes.
+     *
+     * @param healthData The reading to write.
+     * @return True if the reading was written, false if it was rejected or could not be written.
+    */
+    public boolean createHealthData(HealthData healthData) {
+        return createHealthDataBatch(List.of(healthData)).getInsertedCount() == 1;
+    }
+
+    /**
+     * Validates a batch of readings and writes the ones that pass through {@link HealthDataDao#createHealthDataBatch}.
+     * A reading that repeats an earlier reading in the same batch is rejected as well.
+     *
+     * @param healthDataList The readings to write.
+     * @return The number of rows inserted, and the readings that were rejected or failed, indexed by their position in healthDataList.
+    */
+    public BatchResult<HealthData> createHealthDataBatch(Collection<HealthData> healthDataList) {
+        BatchResult<HealthData> result = new BatchResult<>();
+        List<HealthData> readings = new ArrayList<>(healthDataList);
+        Key[] keys = new Key[readings.size()];
+        String[] failures = new String[readings.size()];
+        for (int i = 0; i < readings.size(); i++) {
+            failures[i] = checkRanges(readings.get(i));
+            if (failures[i] == null) {
+                HealthData healthData = readings.get(i);
+                keys[i] = new Key(healthData.getUserId(), healthData.getDate(), healthData.getSource());
+            }
+        }
+
+        // Keys the Bloom filter might have seen, and are not in the recent set, need a database lookup.
+        boolean[] mightBeStored = new boolean[keys.length];
+        int[] uncertain = new int[keys.length];
+        int uncertainCount = 0;
+        synchronized (this) {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != null && bloomMightContain(keys[i].hash)) {
+                    mightBeStored[i] = true;
+                    if (!recentKeys.contains(keys[i])) {
+                        uncertain[uncertainCount++] = i;
+                    }
+                }
+            }
+        }
+        Set<Key> existing = uncertainCount == 0 ? Collections.emptySet() : findExisting(keys, uncertain, uncertainCount);
+
+        List<HealthData> acceptedReadings = new ArrayList<>(readings.size());
+        int[] acceptedIndexes = new int[readings.size()];
+        int provedNewCount = 0;
+        synchronized (this) {
+            for (int i = 0; i < keys.length; i++) {
+                Key key = keys[i];
+                if (key == null) {
+                    continue;
+                }
+                if (existing.contains(key) || !recentKeys.add(key)) {
+                    reject(DUPLICATE);
+                    failures[i] = "Duplicate reading for user " + key.userId + " on " + key.date + " from " + key.source;
+                    continue;
+                }
+                if (!mightBeStored[i]) {
+                    provedNewCount++;
+                }
+                bloomAdd(key.hash);
+                acceptedIndexes[acceptedReadings.size()] = i;
+                acceptedReadings.add(readings.get(i));
+            }
+        }
+        provedNew.add(provedNewCount);
+        accepted.add(acceptedReadings.size());
+        if (!acceptedReadings.isEmpty()) {
+            BatchResult<HealthData> written;
+            try {
+                written = healthDataDao.createHealthDataBatch(acceptedReadings);
+            } catch (RuntimeException e) {
+                // Nothing is known to be stored, so a retry of any of these readings must not be taken for a duplicate.
+                synchronized (this) {
+                    for (int i = 0; i < acceptedReadings.size(); i++) {
+                        recentKeys.remove(keys[acceptedIndexes[i]]);
+                    }
+                }
+                throw e;
+            }
+            result.addInserted(written.getInsertedCount());
+            if (!written.getFailures().isEmpty()) {
+                // A row that was not written must not stay in the recent set, or its retry would be rejected without
+                // a lookup. The Bloom filter keeps the key, which only costs that retry a database check.
+                synchronized (this) {
+                    for (BatchResult.Failure<HealthData> failure : written.getFailures()) {
+                        int i = acceptedIndexes[failure.getIndex()];
+                        recentKeys.remove(keys[i]);
+                        failures[i] = failure.getReason();
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < failures.length; i++) {
+            if (failures[i] != null) {
+                result.addFailure(i, readings.get(i), failures[i]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Deletes a reading through {@link HealthDataDao#deleteHealthData} and forgets its key, so the reading can be uploaded again.
+     *
+     * @param healthData The reading to delete; its ID, user, date and source must be set.
+     * @return True if the reading was deleted, false otherwise.
+    */
+    public boolean deleteHealthData(HealthData healthData) {
+        boolean deleted = healthDataDao.deleteHealthData(healthData.getId());
+        if (deleted) {
+            forget(healthData);
+        }
+        return deleted;
+    }
+
+    /**
+     * Forgets the key of a reading that is no longer stored, such as one deleted or moved to another date without
+     * going through this stage. Until it is forgotten, a new upload with the same key is rejected as a duplicate.
+     *
+     * @param healthData The reading whose user, date and source make up the key.
+    */
+    public void forget(HealthData healthData) {
+        if (healthData.getDate() == null) {
+            return;
+        }
+        Key key = new Key(healthData.getUserId(), healthData.getDate(), healthData.getSource());
+        synchronized (this) {
+            recentKeys.remove(key);
+        }
+    }
+
+    /**
+     * Retrieves the number of rejected readings by reason: the name of the broken rule, "missing-date" or "duplicate".
+     *
+     * @return The reject counts, sorted by reason.
+    */
+    public Map<String, Long> getRejectCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> entry : rejectCounts.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().sum());
+        }
+        return counts;
+    }
+
+    /**
+     * Retrieves the total number of rejected readings.
+     *
+     * @return The reject count.
+    */
+    public long getRejectedCount() {
+        long total = 0;
+        for (LongAdder count : rejectCounts.values()) {
+            total += count.sum();
+        }
+        return total;
+    }
+
+    /**
+     * Retrieves the number of readings that passed validation and were handed to the DAO.
+     *
+     * @return The accepted count.
+    */
+    public long getAcceptedCount() {
+        return accepted.sum();
+    }
+
+    /**
+     * Retrieves the number of database lookups made for keys the Bloom filter could not rule out.
+     *
+     * @return The number of lookup queries.
+    */
+    public long getDatabaseCheckCount() {
+        return databaseChecks.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "HealthDataValidationStage[accepted=" + accepted + ", provedNewInMemory=" + provedNew
+                + ", databaseChecks=" + databaseChecks + " (" + databaseCheckedKeys + " keys), bloomResets=" + bloomResets
+                + ", rejected=" + getRejectCounts() + "]";
+    }
+
+    private String checkRanges(HealthData healthData) {
+        if (healthData.getDate() == null) {
+            reject(MISSING_DATE);
+            return "Missing date";
+        }
+        for (RangeRule rule : rules) {
+            if (!rule.accepts(healthData)) {
+                reject(rule.getName());
+                return rule.describe(healthData);
+            }
+        }
+        return null;
+    }
+
+    private void reject(String reason) {
+        rejectCounts.computeIfAbsent(reason, r -> new LongAdder()).increment();
+    }
+
+    /**
+     * Looks up which of the given keys are already stored, in a single query.
+     * If the lookup fails the keys are treated as new and the unique constraint has the final say.
+    */
+    private Set<Key> findExisting(Key[] keys, int[] indexes, int count) {
+        int[] userIds = new int[count];
+        String[] dates = new String[count];
+        String[] sources = new String[count];
+        for (int i = 0; i < count; i++) {
+            Key key = keys[indexes[i]];
+            userIds[i] = key.userId;
+            dates[i] = DateUtils.format(key.date);
+            sources[i] = key.source;
+        }
+        Set<Key> existing = new HashSet<>();
+        databaseChecks.increment();
+        databaseCheckedKeys.add(count);
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(EXISTING_KEYS_SQL)) {
+            statement.setObject(1, userIds);
+            statement.setObject(2, dates);
+            statement.setObject(3, sources);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    existing.add(new Key(resultSet.getInt(1), resultSet.getObject(2, LocalDate.class), resultSet.getString(3)));
+                }
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return existing;
+    }
+
+    private boolean bloomMightContain(long hash) {
+        int block = bloomBlock(hash);
+        long bits = hash * 0x9E3779B97F4A7C15L;
+        for (int i = 0; i < BLOOM_HASHES; i++, bits >>>= 9) {
+            int bit = (int) bits & 511;
+            if ((bloomBits[block + (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void bloomAdd(long hash) {
+        if (bloomKeyCount >= expectedKeys) {
+            // A full filter answers "maybe" for almost everything; start over and let the recent set and
+            // the unique constraint cover the keys it forgets.
+            Arrays.fill(bloomBits, 0);
+            bloomKeyCount = 0;
+            bloomResets.increment();
+        }
+        int block = bloomBlock(hash);
+        long bits = hash * 0x9E3779B97F4A7C15L;
+        for (int i = 0; i < BLOOM_HASHES; i++, bits >>>= 9) {
+            int bit = (int) bits & 511;
+            bloomBits[block + (bit >>> 6)] |= 1L << bit;
+        }
+        bloomKeyCount++;
+    }
+
+    private int bloomBlock(long hash) {
+        int blocks = bloomBits.length / BLOOM_BLOCK_LONGS;
+        return ((int) (hash >>> 32) & (blocks - 1)) * BLOOM_BLOCK_LONGS;
+    }
+
+    /**
+     * The idempotency key of a reading.
+    */
+    private static final class Key {
+        final int userId;
+        final LocalDate date;
+        final String source;
+        /** A well-mixed 64-bit hash; the Bloom filter derives all its bit positions from it. */
+        final long hash;
+
+        Key(int userId, LocalDate date, String source) {
+            this.userId = userId;
+            this.date = date;
+            this.source = source == null ? HealthData.DEFAULT_SOURCE : source;
+            long h = ((long) userId << 32) ^ date.toEpochDay() ^ ((long) this.source.hashCode() * 0x9E3779B97F4A7C15L);
+            h ^= h >>> 33;
+            h *= 0xFF51AFD7ED558CCDL;
+            h ^= h >>> 33;
+            h *= 0xC4CEB9FE1A85EC53L;
+            this.hash = h ^ (h >>> 33);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return userId == other.userId && date.equals(other.date) && source.equals(other.source);
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (hash ^ (hash >>> 32));
+        }
+    }
+}
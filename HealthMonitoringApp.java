@@ -1,18 +1,89 @@
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.YearMonth;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 public class HealthMonitoringApp {
+    // A snapshot older than this is rewritten at startup, so updates and deletes since it was taken show up.
+    private static final long SNAPSHOT_MAX_AGE_MILLIS = 24 * 60 * 60 * 1000L;
+    // A snapshot that needed more catch-up than this is rewritten, so the next start catches up on less.
+    private static final int SNAPSHOT_MAX_CATCH_UP_ROWS = 100000;
+    // Relations removed outside this process keep granting access for up to this long.
+    private static final long RELATION_RECONCILE_MILLIS = 30 * 1000;
+    // Upcoming partitions are checked this often, so a process running across a month boundary keeps one ready.
+    private static final long PARTITION_MAINTENANCE_MILLIS = 60 * 60 * 1000L;
+    private static final int PARTITION_MONTHS_AHEAD = 3;
+    // The analytics store is insert-only between rebuilds, so updated and deleted readings count for up to this long.
+    private static final long ANALYTICS_REBUILD_MILLIS = 6 * 60 * 60 * 1000L;
+
     private static UserDao userDao;
     private static MedicineReminderManager medicineReminderManager;
     private static HealthDataDao healthDataDao;
+    private static RecommendationDao recommendationDao;
+    private static HealthDataRollupDao healthDataRollupDao;
     private static DoctorPortalDao doctorPortalDao;
+    private static LoginService loginService;
+    private static HealthAnomalyDetector anomalyDetector;
+    private static HealthDataValidationStage healthDataValidationStage;
+
+    public static void main(String[] args) throws Exception {
+        ConnectionPool pool = DatabaseConnection.getPool();
+        DaoMetrics daoMetrics = pool.getMetrics();
+        daoMetrics.registerMBean();
+        // Set -Dmetrics.port to serve the metrics at http://localhost:<port>/metrics while the app runs.
+        HttpServer metricsEndpoint = System.getProperty("metrics.port") == null ? null
+                : daoMetrics.startHttpEndpoint(Integer.parseInt(System.getProperty("metrics.port")));
+        SchemaMigrator schemaMigrator = new SchemaMigrator(pool, Paths.get("script", "migrations"));
+        schemaMigrator.migrate();
+        schemaMigrator.verifyQueryPlans();
+        HealthDataPartitionManager partitionManager = new HealthDataPartitionManager(pool);
+        partitionManager.ensurePartitions(YearMonth.now(), PARTITION_MONTHS_AHEAD);
+        partitionManager.startMaintenance(PARTITION_MONTHS_AHEAD, PARTITION_MAINTENANCE_MILLIS);
+
+        // Synthetic load mode: java HealthMonitoringApp load [doctors] [patients] [days] [requestsPerSecond] [durationSeconds] [workerThreads]
+        if (args.length > 0 && args[0].equals("load")) {
+            LoadGenerator.main(Arrays.copyOfRange(args, 1, args.length));
+            System.out.println(daoMetrics);
+            daoMetrics.writePrometheus(Paths.get("dao-metrics.prom"));
+            if (metricsEndpoint != null) {
+                metricsEndpoint.stop(0);
+            }
+            partitionManager.close();
+            DatabaseConnection.shutdown();
+            return;
+        }
 
-    public static void main(String[] args) {
-        DatabaseConnection databaseConnection = new DatabaseConnection();
-        userDao = new UserDao(databaseConnection.getCon());
-        medicineReminderManager = new MedicineReminderManager(databaseConnection.getCon());
-        healthDataDao = new HealthDataDao(databaseConnection.getCon());
-        doctorPortalDao = new DoctorPortalDao();
+        userDao = new UserDao(pool);
+        Path snapshotFile = Paths.get("health-snapshot.bin");
+        HealthSnapshot snapshot = openSnapshot(pool, snapshotFile);
+        // Start from the snapshot's relations. Authorization checks go to the database until the first reconcile,
+        // which starts straight away, has read the table.
+        DoctorPatientIndex relationIndex = DoctorPatientIndex.fromPairs(snapshot.getDoctorPatientPairs());
+        relationIndex.startReconciler(pool, RELATION_RECONCILE_MILLIS);
+        userDao.setRelationIndex(relationIndex);
+        medicineReminderManager = new MedicineReminderManager(pool);
+        healthDataDao = new HealthDataDao(pool);
+        recommendationDao = new RecommendationDao(pool);
+        healthDataRollupDao = new HealthDataRollupDao(pool);
+        doctorPortalDao = new DoctorPortalDao(pool, userDao, healthDataDao);
+        loginService = new LoginService(userDao, new LoginRateLimiter(5, 15 * 60 * 1000, 100000),
+                Runtime.getRuntime().availableProcessors(), 1000);
+        healthDataValidationStage = new HealthDataValidationStage(healthDataDao, pool);
+        // Device retries arrive within days of the original upload, so only recent keys need to be in memory.
+        healthDataValidationStage.warmUp(LocalDate.now().minusDays(30));
+        anomalyDetector = new HealthAnomalyDetector(anomaly -> System.out.println("Anomaly detected: " + anomaly));
+        Path anomalyCheckpoint = Paths.get("anomaly-state.bin");
+        if (Files.exists(anomalyCheckpoint)) {
+            System.out.println("Restored anomaly baselines for " + anomalyDetector.restore(anomalyCheckpoint) + " users");
+        }
 
         // Test register a new user:
         testRegisterUser(); // Commented out because data is already in the database as of writing this comment.
@@ -32,10 +103,13 @@ public class HealthMonitoringApp {
         testGenerateRecommendations(8);
         testGenerateRecommendations(9); 
 
+        // Test recommendation run over every user:
+        testRecommendationJob();
+
         // Test add medicine reminder:
-        testAddMedicineReminder(8, "Panacea", "500kg", "Once a day", "1967-01-04", "2024-04-13");
-        testAddMedicineReminder(2, "Placebo", "500mg", "Twice a day (take with food)", "2024-01-11", "2024-04-12");
-        testAddMedicineReminder(3, "Beta Blockers", "20mg", "Twice a day (take with food)", "2024-01-02", "2024-04-10");
+        testAddMedicineReminder(8, "Panacea", "500kg", "Once a day", LocalDate.of(1967, 1, 4), LocalDate.of(2024, 4, 13));
+        testAddMedicineReminder(2, "Placebo", "500mg", "Twice a day (take with food)", LocalDate.of(2024, 1, 11), LocalDate.of(2024, 4, 12));
+        testAddMedicineReminder(3, "Beta Blockers", "20mg", "Twice a day (take with food)", LocalDate.of(2024, 1, 2), LocalDate.of(2024, 4, 10));
 
         // Test get reminders for a specific user:
         testGetRemindersForUser(2);
@@ -45,8 +119,37 @@ public class HealthMonitoringApp {
         // Test get due reminders for a specific user:
         testGetDueRemindersForUser(3);
 
+        // Test due reminders across all users:
+        testGetAllDueReminders(LocalDate.of(2024, 2, 1));
+
+        // Test in-memory reminder scheduling:
+        testReminderScheduler();
+
         // Test doctor portal:
         testDoctorPortal(1);
+
+        // Test cohort analytics over a doctor's patients:
+        HealthDataColumnStore analyticsStore = loadAnalyticsStore(pool, snapshotFile, snapshot);
+        analyticsStore.startRebuilder(pool, ANALYTICS_REBUILD_MILLIS);
+        testCohortAnalytics(analyticsStore, 1);
+
+        System.out.println(pool);
+        System.out.println(userDao.getUserCache());
+        System.out.println(relationIndex);
+        System.out.println(anomalyDetector);
+        System.out.println(healthDataValidationStage);
+        anomalyDetector.checkpoint(anomalyCheckpoint);
+        System.out.println(loginService);
+        System.out.println(daoMetrics);
+        daoMetrics.writePrometheus(Paths.get("dao-metrics.prom"));
+        if (metricsEndpoint != null) {
+            metricsEndpoint.stop(0);
+        }
+        loginService.close();
+        relationIndex.close();
+        analyticsStore.close();
+        partitionManager.close();
+        DatabaseConnection.shutdown();
     }
 
     public static void testLoginUser(String userEmail, String userPassword) {
@@ -59,7 +162,7 @@ public class HealthMonitoringApp {
     }
 
     public static boolean loginUser(String email, String password) {
-        return userDao.verifyPassword(email, password);
+        return loginService.login(email, password) == LoginService.Result.SUCCESS;
     }
 
     public static void testRegisterUser() {
@@ -89,29 +192,33 @@ public class HealthMonitoringApp {
 
     public static void testAddHealthData() {
         ArrayList<HealthData> healthDataList = new ArrayList<>();
-        healthDataList.add(new HealthData(1, 2, 145, 1.8, 7000, 120, "2024-01-11"));
-        healthDataList.add(new HealthData(2, 2, 115, 1.8, 14000, 76, "2024-04-12"));
-        healthDataList.add(new HealthData(3, 3, 90, 1.67, 11008, 180, "2024-01-02"));
-        healthDataList.add(new HealthData(4, 4, 89, 1.76, 21000, 70, "2023-06-01"));
-        healthDataList.add(new HealthData(5, 6, 100, 1.9, 10001, 53, "2024-04-12"));
-        healthDataList.add(new HealthData(6, 7, 120, 1.9, 10001, 53, "2024-04-12"));
-        healthDataList.add(new HealthData(7, 8, 195, 4.3, 143001, 76, "1957-01-04"));
-
-        for (HealthData healthData : healthDataList) {
-            boolean success = healthDataDao.createHealthData(healthData);
-            if (success) {
-                System.out.println("Health data added successfully: " + healthData);
-            } else {
-                System.out.println("Failed to add health data: " + healthData);
+        healthDataList.add(new HealthData(1, 2, 145, 1.8, 7000, 120, LocalDate.of(2024, 1, 11)));
+        healthDataList.add(new HealthData(2, 2, 115, 1.8, 14000, 76, LocalDate.of(2024, 4, 12)));
+        healthDataList.add(new HealthData(3, 3, 90, 1.67, 11008, 180, LocalDate.of(2024, 1, 2)));
+        healthDataList.add(new HealthData(4, 4, 89, 1.76, 21000, 70, LocalDate.of(2023, 6, 1)));
+        healthDataList.add(new HealthData(5, 6, 100, 1.9, 10001, 53, LocalDate.of(2024, 4, 12)));
+        healthDataList.add(new HealthData(6, 7, 120, 1.9, 10001, 53, LocalDate.of(2024, 4, 12)));
+        healthDataList.add(new HealthData(7, 8, 195, 4.3, 143001, 76, LocalDate.of(1957, 1, 4)));
+
+        BatchResult<HealthData> result = healthDataValidationStage.createHealthDataBatch(healthDataList);
+        System.out.println("Health data added successfully: " + result.getInsertedCount() + " of " + healthDataList.size());
+        boolean[] notAdded = new boolean[healthDataList.size()];
+        for (BatchResult.Failure<HealthData> failure : result.getFailures()) {
+            notAdded[failure.getIndex()] = true;
+            System.out.println("Failed to add health data for user " + failure.getRecord().getUserId() + ": " + failure.getReason());
+        }
+        // Only readings that were stored feed the anomaly baselines, so rejected duplicates and bad values do not skew them.
+        for (int i = 0; i < healthDataList.size(); i++) {
+            if (!notAdded[i]) {
+                anomalyDetector.check(healthDataList.get(i));
             }
         }
+        System.out.println("Rejected by validation: " + healthDataValidationStage.getRejectCounts());
     }
 
     public static void testGenerateRecommendations(int userId) {
         HealthData latestHealthData = healthDataDao.getLatestHealthDataForUser(userId);
         if (latestHealthData != null) {
-            DatabaseConnection databaseConnection = new DatabaseConnection();
-            RecommendationDao recommendationDao = new RecommendationDao(databaseConnection.getCon());
             RecommendationSystem recommendationSystem = new RecommendationSystem(recommendationDao);
             List<String> recommendations = recommendationSystem.generateRecommendations(latestHealthData);
             System.out.println("Recommendations based on latest health data:");
@@ -123,7 +230,13 @@ public class HealthMonitoringApp {
         }
     }
 
-    public static void testAddMedicineReminder(int userId, String medicineName, String dosage, String schedule, String startDate, String endDate) {
+    public static void testRecommendationJob() {
+        RecommendationJob job = new RecommendationJob(healthDataDao, new RecommendationSystem(), recommendationDao, 4, 1000);
+        long usersScored = job.run();
+        System.out.println("Recommendation run scored " + usersScored + " users.");
+    }
+
+    public static void testAddMedicineReminder(int userId, String medicineName, String dosage, String schedule, LocalDate startDate, LocalDate endDate) {
         MedicineReminder reminder = new MedicineReminder(1, userId, medicineName, dosage, schedule, startDate, endDate);
         medicineReminderManager.addMedicineReminder(reminder);
         System.out.println("Medicine reminder added successfully.");
@@ -145,6 +258,77 @@ public class HealthMonitoringApp {
         }
     }
 
+    public static void testGetAllDueReminders(LocalDate date) {
+        System.out.println("Medicine reminders due on " + date + ":");
+        int afterId = 0;
+        List<MedicineReminder> page;
+        do {
+            page = medicineReminderManager.getAllDueReminders(date, 100, afterId);
+            for (MedicineReminder reminder : page) {
+                System.out.println("User " + reminder.getUserId() + ": " + reminder.getMedicineName() + " - " + reminder.getDosage() + " - " + reminder.getSchedule());
+                afterId = reminder.getId();
+            }
+        } while (page.size() == 100);
+    }
+
+    public static void testReminderScheduler() {
+        try (ReminderScheduler scheduler = new ReminderScheduler(medicineReminderManager, (reminder, fireTime) ->
+                System.out.println("Reminder for user " + reminder.getUserId() + " at " + fireTime + ": "
+                        + reminder.getMedicineName() + " - " + reminder.getDosage()))) {
+            try {
+                scheduler.startChangeFeed(DatabaseConnection.getPool());
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+            scheduler.start();
+            System.out.println("Reminder scheduler loaded " + scheduler.getScheduledCount() + " active reminders.");
+            System.out.println(scheduler);
+        }
+    }
+
+    public static HealthSnapshot openSnapshot(ConnectionPool pool, Path snapshotFile) throws Exception {
+        // Reuse a recent snapshot, or build one from the database on first start or when it is too old to trust.
+        if (Files.exists(snapshotFile)) {
+            try {
+                HealthSnapshot snapshot = HealthSnapshot.open(snapshotFile);
+                if (System.currentTimeMillis() - snapshot.getCreatedAtMillis() < SNAPSHOT_MAX_AGE_MILLIS) {
+                    return snapshot;
+                }
+            } catch (IOException e) {
+                System.err.println("Rewriting unreadable snapshot: " + e.getMessage());
+            }
+        }
+        HealthSnapshot snapshot = HealthSnapshot.write(pool, snapshotFile);
+        System.out.println("Wrote " + snapshot);
+        return snapshot;
+    }
+
+    public static HealthDataColumnStore loadAnalyticsStore(ConnectionPool pool, Path snapshotFile, HealthSnapshot snapshot) throws Exception {
+        // Map the snapshot and catch up on newer readings.
+        long start = System.nanoTime();
+        HealthDataColumnStore store = snapshot.toColumnStore(pool);
+        int caughtUp = store.size() - snapshot.getReadingCount();
+        System.out.println("Loaded " + snapshot + " and caught up on " + caughtUp + " readings");
+        System.out.printf("Analytics store ready in %.1f ms (%d KiB)%n", (System.nanoTime() - start) / 1e6, store.getMemoryBytes() / 1024);
+        if (caughtUp > SNAPSHOT_MAX_CATCH_UP_ROWS) {
+            System.out.println("Rewrote " + HealthSnapshot.write(pool, snapshotFile));
+        }
+        return store;
+    }
+
+    public static void testCohortAnalytics(HealthDataColumnStore store, int doctorId) {
+        LocalDate to = LocalDate.now();
+        LocalDate from = to.minusDays(90);
+        int[] patientIds = userDao.getPatientsForDoctor(doctorId).stream().mapToInt(User::getId).toArray();
+        HealthDataColumnStore.Filter cohort = HealthDataColumnStore.Filter.between(from, to).forUsers(patientIds);
+        System.out.println("Heart rate of doctor " + doctorId + "'s patients over 90 days: "
+                + store.aggregate(cohort, HealthDataColumnStore.Column.HEART_RATE));
+        long[] buckets = store.histogram(cohort, HealthDataColumnStore.Column.HEART_RATE, 40, 10, 14);
+        for (int i = 0; i < buckets.length; i++) {
+            System.out.println("  " + (40 + i * 10) + "-" + (49 + i * 10) + " bpm: " + buckets[i]);
+        }
+    }
+
     public static void testDoctorPortal(int doctorId) {
         // Test get doctor by ID
         Doctor doctor = doctorPortalDao.getDoctorById(doctorId);
@@ -169,8 +353,33 @@ public class HealthMonitoringApp {
             for (HealthData healthData : healthDataList) {
                 System.out.println("Date: " + healthData.getDate() + ", Weight: " + healthData.getWeight() + ", Heart Rate: " + healthData.getHeartRate());
             }
+
+            // Test weekly trend for the same patient:
+            List<HealthDataRollup> weeklyRollups = healthDataRollupDao.getWeeklyRollups(patientId, LocalDate.now().minusYears(5), LocalDate.now());
+            System.out.println("Weekly trend for patient:");
+            for (HealthDataRollup rollup : weeklyRollups) {
+                System.out.println(String.format("Week of %s: Avg Heart Rate: %.1f, Steps: %d, Weight Change: %.2f",
+                        rollup.getPeriodStart(), rollup.getAverageHeartRate(), rollup.getTotalSteps(), rollup.getWeightChange()));
+            }
         } else {
             System.out.println("No patients found for doctor.");
         }
+
+        // Test doctor dashboard, one page at a time:
+        System.out.println("Dashboard for doctor:");
+        int afterPatientId = 0;
+        List<PatientSummary> page;
+        do {
+            page = doctorPortalDao.getDashboard(doctorId, afterPatientId, 50);
+            for (PatientSummary summary : page) {
+                User patient = summary.getPatient();
+                HealthData latest = summary.getLatestHealthData();
+                System.out.println(patient.getFirstName() + " " + patient.getLastName()
+                        + (latest == null ? " - no health data" : " - Date: " + latest.getDate() + ", Heart Rate: " + latest.getHeartRate()
+                        + String.format(", BMI: %.1f", summary.getCurrentBMI()))
+                        + ", Active reminders: " + summary.getActiveReminderCount());
+                afterPatientId = patient.getId();
+            }
+        } while (page.size() == 50);
     }
 }
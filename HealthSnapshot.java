@@ -0,0 +1,277 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A compact binary snapshot of the doctor-patient graph and health readings, for fast cold starts.
+ * The snapshot is written and read through memory-mapped files, so a new process can map it and copy the reading columns
+ * in bulk instead of re-reading every row over JDBC, then catch up on the rows added since with {@link #catchUp}.
+ * Both sections are read in one repeatable-read transaction, so they describe the same moment.
+ *
+ * Layout, little-endian:
+ * a 64-byte header (magic, creation time, counts, the reading high-water ID and section offsets);
+ * the doctor-patient pairs, sorted by doctor then patient;
+ * and the reading columns one after another, each 8-byte aligned: ID, user ID, epoch day, weight, height, steps and heart rate.
+ * Users are not included: they are cached on demand together with their password hashes, which do not belong in a file.
+ *
+ * Only inserts are caught up on: readings are matched by ID from a little below the snapshot's high-water mark,
+ * so updates and deletes made after the snapshot are not reflected until the next one is taken.
+*/
+public class HealthSnapshot {
+    private static final long MAGIC = 0x32504e5348544c48L; // "HLTHSNP2" read as little-endian bytes
+    private static final int HEADER_SIZE = 64;
+    private static final int FETCH_SIZE = 10000;
+
+    private final Path file;
+    private final long createdAtMillis;
+    private final int relationCount;
+    private final int readingCount;
+    private final int readingHighWaterId;
+    private final long relationsOffset;
+    private final long readingsOffset;
+
+    private HealthSnapshot(Path file, ByteBuffer header) throws IOException {
+        if (header.getLong(0) != MAGIC) {
+            throw new IOException("Not a health snapshot: " + file);
+        }
+        this.file = file;
+        this.createdAtMillis = header.getLong(8);
+        this.relationCount = header.getInt(16);
+        this.readingCount = header.getInt(20);
+        this.readingHighWaterId = header.getInt(24);
+        this.relationsOffset = header.getLong(32);
+        this.readingsOffset = header.getLong(40);
+    }
+
+    /**
+     * Reads the database into a new snapshot file. The file is written beside its final name and moved into place,
+     * so a reader never maps a partial snapshot.
+     *
+     * @param pool The connection pool to borrow connections from.
+     * @param file The snapshot file to write.
+     * @return The written snapshot.
+     * @throws IOException  If the file cannot be written.
+     * @throws SQLException If the database cannot be read.
+    */
+    public static HealthSnapshot write(ConnectionPool pool, Path file) throws IOException, SQLException {
+        long createdAtMillis = System.currentTimeMillis();
+        int[] relations;
+        HealthDataColumnStore readings = new HealthDataColumnStore();
+        try (Connection connection = pool.getConnection()) {
+            // One snapshot of the database for both sections; autocommit off also lets the driver stream through a cursor.
+            connection.setAutoCommit(false);
+            connection.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+            relations = readRelations(connection);
+            readings.loadNewerThan(connection);
+            connection.commit();
+        }
+        return write(file, createdAtMillis, relations, readings);
+    }
+
+    private static HealthSnapshot write(Path file, long createdAtMillis, int[] relations, HealthDataColumnStore readings)
+            throws IOException {
+        int readingCount = readings.size();
+        long relationsOffset = HEADER_SIZE;
+        long readingsOffset = align(relationsOffset + (long) relations.length * Integer.BYTES);
+        long[] columnOffsets = columnOffsets(readingsOffset, readingCount);
+
+        Path absolute = file.toAbsolutePath();
+        Path temporary = absolute.resolveSibling(absolute.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            List<MappedByteBuffer> sections = new ArrayList<>();
+            ByteBuffer header = mapForWrite(channel, sections, 0, HEADER_SIZE);
+            header.putLong(0, MAGIC)
+                  .putLong(8, createdAtMillis)
+                  .putInt(16, relations.length / 2)
+                  .putInt(20, readingCount)
+                  .putInt(24, readings.getHighWaterId())
+                  .putLong(32, relationsOffset)
+                  .putLong(40, readingsOffset);
+            mapForWrite(channel, sections, relationsOffset, (long) relations.length * Integer.BYTES)
+                    .asIntBuffer().put(relations);
+            mapForWrite(channel, sections, columnOffsets[0], (long) readingCount * Integer.BYTES)
+                    .asIntBuffer().put(readings.idColumn(), 0, readingCount);
+            mapForWrite(channel, sections, columnOffsets[1], (long) readingCount * Integer.BYTES)
+                    .asIntBuffer().put(readings.userIdColumn(), 0, readingCount);
+            mapForWrite(channel, sections, columnOffsets[2], (long) readingCount * Integer.BYTES)
+                    .asIntBuffer().put(readings.epochDayColumn(), 0, readingCount);
+            mapForWrite(channel, sections, columnOffsets[3], (long) readingCount * Float.BYTES)
+                    .asFloatBuffer().put(readings.weightColumn(), 0, readingCount);
+            mapForWrite(channel, sections, columnOffsets[4], (long) readingCount * Float.BYTES)
+                    .asFloatBuffer().put(readings.heightColumn(), 0, readingCount);
+            mapForWrite(channel, sections, columnOffsets[5], (long) readingCount * Integer.BYTES)
+                    .asIntBuffer().put(readings.stepsColumn(), 0, readingCount);
+            mapForWrite(channel, sections, columnOffsets[6], (long) readingCount * Short.BYTES)
+                    .asShortBuffer().put(readings.heartRateColumn(), 0, readingCount);
+            for (MappedByteBuffer section : sections) {
+                section.force();
+            }
+        }
+        Files.move(temporary, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return open(file);
+    }
+
+    /**
+     * Maps the header of a snapshot file. Sections are mapped when they are read.
+     *
+     * @param file The snapshot file.
+     * @return The snapshot.
+     * @throws IOException If the file cannot be read or is not a snapshot.
+    */
+    public static HealthSnapshot open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE) {
+                throw new IOException("Not a health snapshot: " + file);
+            }
+            return new HealthSnapshot(file, map(channel, FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE));
+        }
+    }
+
+    /**
+     * Copies the reading columns into a new analytics store, then appends the readings added since the snapshot was taken.
+     *
+     * @param pool The connection pool to catch up from, or null to skip catching up.
+     * @return The store.
+     * @throws IOException If the snapshot cannot be read.
+    */
+    public HealthDataColumnStore toColumnStore(ConnectionPool pool) throws IOException {
+        int[] id = new int[readingCount];
+        int[] userId = new int[readingCount];
+        int[] epochDay = new int[readingCount];
+        float[] weight = new float[readingCount];
+        float[] height = new float[readingCount];
+        int[] steps = new int[readingCount];
+        short[] heartRate = new short[readingCount];
+        long[] columnOffsets = columnOffsets(readingsOffset, readingCount);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            map(channel, FileChannel.MapMode.READ_ONLY, columnOffsets[0], (long) readingCount * Integer.BYTES).asIntBuffer().get(id);
+            map(channel, FileChannel.MapMode.READ_ONLY, columnOffsets[1], (long) readingCount * Integer.BYTES).asIntBuffer().get(userId);
+            map(channel, FileChannel.MapMode.READ_ONLY, columnOffsets[2], (long) readingCount * Integer.BYTES).asIntBuffer().get(epochDay);
+            map(channel, FileChannel.MapMode.READ_ONLY, columnOffsets[3], (long) readingCount * Float.BYTES).asFloatBuffer().get(weight);
+            map(channel, FileChannel.MapMode.READ_ONLY, columnOffsets[4], (long) readingCount * Float.BYTES).asFloatBuffer().get(height);
+            map(channel, FileChannel.MapMode.READ_ONLY, columnOffsets[5], (long) readingCount * Integer.BYTES).asIntBuffer().get(steps);
+            map(channel, FileChannel.MapMode.READ_ONLY, columnOffsets[6], (long) readingCount * Short.BYTES).asShortBuffer().get(heartRate);
+        }
+        HealthDataColumnStore store = HealthDataColumnStore.fromColumns(id, userId, epochDay, weight, height, steps, heartRate,
+                readingCount, readingHighWaterId);
+        if (pool != null) {
+            catchUp(pool, store);
+        }
+        return store;
+    }
+
+    /**
+     * Appends the readings added since the snapshot was taken; see {@link HealthDataColumnStore#loadNewerThan}.
+     *
+     * @param pool  The connection pool to borrow a connection from.
+     * @param store The store to bring up to date.
+     * @return The number of readings appended, or -1 if the query failed.
+    */
+    public long catchUp(ConnectionPool pool, HealthDataColumnStore store) {
+        return store.loadNewerThan(pool);
+    }
+
+    /**
+     * Reads the doctor-patient pairs.
+     *
+     * @return The pairs as doctor ID, patient ID, doctor ID, patient ID, and so on, sorted by doctor then patient.
+     * @throws IOException If the snapshot cannot be read.
+    */
+    public int[] getDoctorPatientPairs() throws IOException {
+        int[] pairs = new int[relationCount * 2];
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            map(channel, FileChannel.MapMode.READ_ONLY, relationsOffset, (long) pairs.length * Integer.BYTES).asIntBuffer().get(pairs);
+        }
+        return pairs;
+    }
+
+    /**
+     * Retrieves the highest health data ID in the snapshot; readings above it were added after the snapshot was taken.
+     *
+     * @return The reading high-water ID.
+    */
+    public int getReadingHighWaterId() {
+        return readingHighWaterId;
+    }
+
+    public int getRelationCount() {
+        return relationCount;
+    }
+
+    public int getReadingCount() {
+        return readingCount;
+    }
+
+    public long getCreatedAtMillis() {
+        return createdAtMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "HealthSnapshot[" + file + ", relations=" + relationCount
+                + ", readings=" + readingCount + ", readingHighWaterId=" + readingHighWaterId + "]";
+    }
+
+    private static int[] readRelations(Connection connection) throws SQLException {
+        int[] pairs = new int[1024];
+        int size = 0;
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT doctor_id, patient_id FROM doctor_patient ORDER BY doctor_id, patient_id")) {
+            statement.setFetchSize(FETCH_SIZE);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    if (size + 2 > pairs.length) {
+                        pairs = Arrays.copyOf(pairs, pairs.length * 2);
+                    }
+                    pairs[size++] = resultSet.getInt(1);
+                    pairs[size++] = resultSet.getInt(2);
+                }
+            }
+        }
+        return Arrays.copyOf(pairs, size);
+    }
+
+    /**
+     * Computes where each reading column starts, followed by the end of the file.
+    */
+    private static long[] columnOffsets(long readingsOffset, int readingCount) {
+        int[] widths = { Integer.BYTES, Integer.BYTES, Integer.BYTES, Float.BYTES, Float.BYTES, Integer.BYTES, Short.BYTES };
+        long[] offsets = new long[widths.length + 1];
+        offsets[0] = readingsOffset;
+        for (int i = 0; i < widths.length; i++) {
+            offsets[i + 1] = align(offsets[i] + (long) readingCount * widths[i]);
+        }
+        return offsets;
+    }
+
+    private static long align(long offset) {
+        return (offset + 7) & ~7L;
+    }
+
+    private static MappedByteBuffer mapForWrite(FileChannel channel, List<MappedByteBuffer> sections, long offset, long size)
+            throws IOException {
+        MappedByteBuffer buffer = map(channel, FileChannel.MapMode.READ_WRITE, offset, size);
+        sections.add(buffer);
+        return buffer;
+    }
+
+    private static MappedByteBuffer map(FileChannel channel, FileChannel.MapMode mode, long offset, long size) throws IOException {
+        MappedByteBuffer buffer = channel.map(mode, offset, size);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return buffer;
+    }
+}
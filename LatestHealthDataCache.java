@@ -0,0 +1,188 @@
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * An in-memory copy of each user's latest health data record, keyed by user ID.
+ * Writes invalidate the affected users; the next read reloads them from the health_data_latest table.
+ * Once the cache holds maxEntries users, caching another one evicts a user that has not been read recently,
+ * chosen by a clock sweep over the entries.
+*/
+public class LatestHealthDataCache {
+    // Write versions are kept per stripe of user IDs rather than per user, so they take fixed memory however many users write.
+    private static final int VERSION_STRIPE_BITS = 12;
+
+    private final int maxEntries;
+    private final Map<Integer, Entry> latestByUser = new ConcurrentHashMap<>();
+    private final AtomicLongArray versions = new AtomicLongArray(1 << VERSION_STRIPE_BITS);
+    private final Object clockLock = new Object();
+    private Iterator<Map.Entry<Integer, Entry>> clockHand;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Constructs a LatestHealthDataCache.
+     *
+     * @param maxEntries The maximum number of users to keep; 0 disables caching.
+    */
+    public LatestHealthDataCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Retrieves a user's cached latest health data.
+     *
+     * @param userId The ID of the user.
+     * @return A copy of the cached record, or null if it is not cached.
+    */
+    public HealthData get(int userId) {
+        Entry entry = latestByUser.get(userId);
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        entry.referenced = true;
+        hits.incrementAndGet();
+        return copy(entry.healthData);
+    }
+
+    /**
+     * Marks the start of a database load for one user. Pass the returned value to {@link #put(HealthData, long)} once
+     * the load completes, so a load that raced with a write for that user does not put an outdated record back into the cache.
+     * Writes for other users do not affect the load, apart from the occasional user that shares its version stripe.
+     *
+     * @param userId The ID of the user being loaded.
+     * @return A token identifying the user's current version.
+    */
+    public long startLoad(int userId) {
+        return versions.get(stripe(userId));
+    }
+
+    /**
+     * Caches a user's latest health data loaded from the database, unless the user was written while it was loading.
+     *
+     * @param healthData The record that was loaded.
+     * @param loadToken  The value returned by {@link #startLoad(int)} before the load began.
+    */
+    public void put(HealthData healthData, long loadToken) {
+        int userId = healthData.getUserId();
+        int stripe = stripe(userId);
+        if (maxEntries <= 0 || versions.get(stripe) != loadToken) {
+            return;
+        }
+        if (!latestByUser.containsKey(userId)) {
+            while (latestByUser.size() >= maxEntries && evictOne()) {
+                evictions.incrementAndGet();
+            }
+        }
+        Entry entry = new Entry(copy(healthData));
+        latestByUser.put(userId, entry);
+        // Undo the put if a write slipped in between the token check and the put.
+        if (versions.get(stripe) != loadToken) {
+            latestByUser.remove(userId, entry);
+        }
+    }
+
+    /**
+     * Removes a user whose health data changed.
+     *
+     * @param userId The ID of the user.
+    */
+    public void invalidate(int userId) {
+        versions.incrementAndGet(stripe(userId));
+        latestByUser.remove(userId);
+    }
+
+    /**
+     * Retrieves the number of lookups served from memory.
+     *
+     * @return The hit count.
+    */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Retrieves the number of lookups that had to go to the database.
+     *
+     * @return The miss count.
+    */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Retrieves the number of users evicted to make room for others.
+     *
+     * @return The eviction count.
+    */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * Retrieves the number of users currently cached.
+     *
+     * @return The cache size.
+    */
+    public int size() {
+        return latestByUser.size();
+    }
+
+    @Override
+    public String toString() {
+        return "LatestHealthDataCache[size=" + latestByUser.size() + ", hits=" + hits + ", misses=" + misses
+                + ", evictions=" + evictions + "]";
+    }
+
+    /**
+     * Advances the clock hand to the first entry that has not been read since the hand last passed it and evicts it,
+     * clearing the read mark of every entry it passes on the way.
+     *
+     * @return True if an entry was evicted, false if the cache is empty.
+    */
+    private boolean evictOne() {
+        synchronized (clockLock) {
+            // Two full turns always find an entry, since the first turn clears every read mark.
+            for (int step = 0, limit = 2 * latestByUser.size() + 1; step < limit; step++) {
+                if (clockHand == null || !clockHand.hasNext()) {
+                    clockHand = latestByUser.entrySet().iterator();
+                    if (!clockHand.hasNext()) {
+                        return false;
+                    }
+                }
+                Map.Entry<Integer, Entry> candidate = clockHand.next();
+                if (candidate.getValue().referenced) {
+                    candidate.getValue().referenced = false;
+                } else if (latestByUser.remove(candidate.getKey(), candidate.getValue())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static int stripe(int userId) {
+        return (userId * 0x9E3779B9) >>> (Integer.SIZE - VERSION_STRIPE_BITS);
+    }
+
+    private static HealthData copy(HealthData healthData) {
+        return new HealthData(healthData.getId(), healthData.getUserId(), healthData.getWeight(), healthData.getHeight(),
+                healthData.getSteps(), healthData.getHeartRate(), healthData.getDate(), healthData.getSource());
+    }
+
+    /**
+     * A cached record and whether it has been read since the clock hand last passed it.
+    */
+    private static class Entry {
+        private final HealthData healthData;
+        private volatile boolean referenced;
+
+        Entry(HealthData healthData) {
+            this.healthData = healthData;
+        }
+    }
+}
@@ -0,0 +1,314 @@
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Synthetic multi-tenant load for capacity planning.
+ * Seeds a set of doctors and patients with several days of readings and reminders, then replays a mixed workload of logins,
+ * ingest, latest-reading reads, doctor dashboards and recommendation runs at a fixed target rate.
+ * Requests are issued open-loop: latency is measured from when each request was due to start, not from when a worker
+ * picked it up, so queueing delay under overload shows up in the percentiles instead of being hidden.
+ *
+ * Usage: java HealthMonitoringApp load [doctors] [patients] [days] [requestsPerSecond] [durationSeconds] [workerThreads]
+*/
+public class LoadGenerator {
+    private static final String PASSWORD = "LoadTestPassword";
+    private static final int SEED_CHUNK_SIZE = 10000;
+    private static final long DRAIN_TIMEOUT_SECONDS = 60;
+
+    /**
+     * The operations in the workload, with their share of the request mix in percent.
+    */
+    enum Operation {
+        LOGIN(10),
+        INGEST(30),
+        LATEST_READING(40),
+        DOCTOR_DASHBOARD(15),
+        RECOMMENDATION(5);
+
+        private final int weight;
+
+        Operation(int weight) {
+            this.weight = weight;
+        }
+    }
+
+    private final ConnectionPool pool;
+    private final int doctorCount;
+    private final int patientCount;
+    private final int days;
+    private final UserDao userDao;
+    private final HealthDataDao healthDataDao;
+    private final MedicineReminderManager medicineReminderManager;
+    private final DoctorPortalDao doctorPortalDao;
+    private final RecommendationSystem recommendationSystem;
+    private final LoginService loginService;
+    private final Map<Operation, LatencyHistogram> latencies = new EnumMap<>(Operation.class);
+    private final Map<Operation, AtomicLong> errors = new EnumMap<>(Operation.class);
+    private final AtomicLong ingestSequence = new AtomicLong();
+
+    private int[] doctorIds;
+    private int[] patientIds;
+    private String[] patientEmails;
+
+    /**
+     * Constructs a LoadGenerator.
+     *
+     * @param pool         The connection pool the DAOs borrow connections from.
+     * @param doctorCount  The number of doctors to create.
+     * @param patientCount The number of patients to create; patients are spread evenly over the doctors.
+     * @param days         The number of days of readings to create per patient.
+    */
+    public LoadGenerator(ConnectionPool pool, int doctorCount, int patientCount, int days) {
+        this.pool = pool;
+        this.doctorCount = doctorCount;
+        this.patientCount = patientCount;
+        this.days = days;
+        this.userDao = new UserDao(pool);
+        this.healthDataDao = new HealthDataDao(pool);
+        this.medicineReminderManager = new MedicineReminderManager(pool);
+        this.doctorPortalDao = new DoctorPortalDao(pool, userDao, healthDataDao);
+        this.recommendationSystem = new RecommendationSystem(new RecommendationDao(pool));
+        this.loginService = new LoginService(userDao, new LoginRateLimiter(5, 15 * 60 * 1000, patientCount + 1000),
+                Runtime.getRuntime().availableProcessors(), 10000);
+        for (Operation operation : Operation.values()) {
+            latencies.put(operation, new LatencyHistogram());
+            errors.put(operation, new AtomicLong());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int doctors = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        int patients = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int days = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+        double requestsPerSecond = args.length > 3 ? Double.parseDouble(args[3]) : 200;
+        int durationSeconds = args.length > 4 ? Integer.parseInt(args[4]) : 60;
+        int workerThreads = args.length > 5 ? Integer.parseInt(args[5]) : 64;
+
+        LoadGenerator generator = new LoadGenerator(DatabaseConnection.getPool(), doctors, patients, days);
+        try {
+            generator.seed();
+            generator.run(requestsPerSecond, durationSeconds, workerThreads);
+            generator.printReport(durationSeconds);
+        } finally {
+            generator.close();
+        }
+    }
+
+    /**
+     * Creates the doctors, patients, doctor-patient relations, readings and reminders.
+     * Every run uses fresh email addresses, so runs can repeat against the same database.
+    */
+    public void seed() throws Exception {
+        String runId = Long.toString(System.currentTimeMillis(), 36);
+        long startNanos = System.nanoTime();
+        ExecutorService seeders = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            doctorIds = createUsers(seeders, runId, "doctor", doctorCount, true, null);
+            patientEmails = new String[patientCount];
+            patientIds = createUsers(seeders, runId, "patient", patientCount, false, patientEmails);
+        } finally {
+            seeders.shutdown();
+        }
+        for (int i = 0; i < patientIds.length; i++) {
+            userDao.addDoctorPatientRelation(doctorIds[i % doctorIds.length], patientIds[i]);
+        }
+
+        LocalDate today = LocalDate.now();
+        List<HealthData> readings = new ArrayList<>(SEED_CHUNK_SIZE);
+        List<MedicineReminder> reminders = new ArrayList<>(patientIds.length);
+        long readingCount = 0;
+        for (int patientId : patientIds) {
+            for (int day = days; day > 0; day--) {
+                readings.add(randomReading(patientId, today.minusDays(day)));
+                if (readings.size() == SEED_CHUNK_SIZE) {
+                    readingCount += healthDataDao.copyHealthData(readings).getInsertedCount();
+                    readings.clear();
+                }
+            }
+            reminders.add(new MedicineReminder(0, patientId, "Metformin", "500mg", "Twice a day (take with food)",
+                    today.minusDays(days), today.plusDays(30)));
+        }
+        readingCount += healthDataDao.copyHealthData(readings).getInsertedCount();
+        int reminderCount = medicineReminderManager.addMedicineReminders(reminders).getInsertedCount();
+
+        System.out.printf(Locale.ROOT, "Seeded %d doctors, %d patients, %d readings and %d reminders in %.1f s%n",
+                doctorIds.length, patientIds.length, readingCount, reminderCount, (System.nanoTime() - startNanos) / 1e9);
+    }
+
+    /**
+     * Replays the mixed workload at a fixed rate for the specified duration.
+     *
+     * @param requestsPerSecond The target request rate.
+     * @param durationSeconds   How long to issue requests for.
+     * @param workerThreads     The number of worker threads, used when virtual threads are not available.
+    */
+    public void run(double requestsPerSecond, int durationSeconds, int workerThreads) throws InterruptedException {
+        ExecutorService workers = newWorkerExecutor(workerThreads);
+        long intervalNanos = (long) (1e9 / requestsPerSecond);
+        long startNanos = System.nanoTime();
+        long endNanos = startNanos + TimeUnit.SECONDS.toNanos(durationSeconds);
+        try {
+            for (long request = 0; ; request++) {
+                long intendedStartNanos = startNanos + request * intervalNanos;
+                if (intendedStartNanos >= endNanos) {
+                    break;
+                }
+                long sleepNanos = intendedStartNanos - System.nanoTime();
+                if (sleepNanos > 0) {
+                    LockSupport.parkNanos(sleepNanos);
+                }
+                Operation operation = pickOperation();
+                workers.execute(() -> execute(operation, intendedStartNanos));
+            }
+        } finally {
+            workers.shutdown();
+            if (!workers.awaitTermination(DRAIN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                System.out.println("Requests still running after " + DRAIN_TIMEOUT_SECONDS + " s; abandoning them.");
+                workers.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Prints the latency percentiles and error count of each operation.
+     *
+     * @param durationSeconds The length of the run, used to compute throughput.
+    */
+    public void printReport(int durationSeconds) {
+        System.out.printf(Locale.ROOT, "%-18s %9s %8s %10s %10s %10s %10s %10s%n",
+                "operation", "requests", "errors", "req/s", "p50 ms", "p99 ms", "p999 ms", "max ms");
+        for (Operation operation : Operation.values()) {
+            LatencyHistogram histogram = latencies.get(operation);
+            System.out.printf(Locale.ROOT, "%-18s %9d %8d %10.1f %10.2f %10.2f %10.2f %10.2f%n",
+                    operation, histogram.getCount(), errors.get(operation).get(), (double) histogram.getCount() / durationSeconds,
+                    histogram.getValueAtPercentile(50) / 1e6, histogram.getValueAtPercentile(99) / 1e6,
+                    histogram.getValueAtPercentile(99.9) / 1e6, histogram.getMaxNanos() / 1e6);
+        }
+        System.out.println(pool);
+        System.out.println(loginService);
+    }
+
+    /**
+     * Stops the login service's worker threads.
+    */
+    public void close() {
+        loginService.close();
+    }
+
+    private void execute(Operation operation, long intendedStartNanos) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        boolean succeeded;
+        try {
+            switch (operation) {
+                case LOGIN: {
+                    int patient = random.nextInt(patientIds.length);
+                    succeeded = loginService.login(patientEmails[patient], PASSWORD) == LoginService.Result.SUCCESS;
+                    break;
+                }
+                case INGEST: {
+                    // Each request simulates a different device, so today's readings do not collide on (user_id, date, source).
+                    HealthData reading = randomReading(randomPatient(random), LocalDate.now());
+                    reading.setSource("load-device-" + ingestSequence.incrementAndGet());
+                    succeeded = healthDataDao.createHealthData(reading);
+                    break;
+                }
+                case LATEST_READING:
+                    succeeded = healthDataDao.getLatestHealthDataForUser(randomPatient(random)) != null;
+                    break;
+                case DOCTOR_DASHBOARD:
+                    succeeded = !doctorPortalDao.getDashboard(doctorIds[random.nextInt(doctorIds.length)], 0, 50).isEmpty();
+                    break;
+                default: {
+                    HealthData latest = healthDataDao.getLatestHealthDataForUser(randomPatient(random));
+                    succeeded = latest != null;
+                    if (succeeded) {
+                        recommendationSystem.generateRecommendations(latest);
+                    }
+                    break;
+                }
+            }
+        } catch (RuntimeException e) {
+            succeeded = false;
+        }
+        latencies.get(operation).record(System.nanoTime() - intendedStartNanos);
+        if (!succeeded) {
+            errors.get(operation).incrementAndGet();
+        }
+    }
+
+    private int[] createUsers(ExecutorService seeders, String runId, String role, int count, boolean isDoctor, String[] emails)
+            throws Exception {
+        List<Callable<Integer>> tasks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String email = "load-" + runId + "-" + role + "-" + i + "@example.com";
+            if (emails != null) {
+                emails[i] = email;
+            }
+            String lastName = role + i;
+            tasks.add(() -> {
+                userDao.createUser(new User(0, "Load", lastName, email, PASSWORD, isDoctor));
+                User user = userDao.getUserByEmail(email);
+                if (user == null) {
+                    throw new IllegalStateException("Could not create load test user " + email);
+                }
+                return user.getId();
+            });
+        }
+        int[] ids = new int[count];
+        int i = 0;
+        for (Future<Integer> id : seeders.invokeAll(tasks)) {
+            ids[i++] = id.get();
+        }
+        return ids;
+    }
+
+    private int randomPatient(ThreadLocalRandom random) {
+        return patientIds[random.nextInt(patientIds.length)];
+    }
+
+    private static Operation pickOperation() {
+        int roll = ThreadLocalRandom.current().nextInt(100);
+        for (Operation operation : Operation.values()) {
+            roll -= operation.weight;
+            if (roll < 0) {
+                return operation;
+            }
+        }
+        return Operation.LATEST_READING;
+    }
+
+    private static HealthData randomReading(int userId, LocalDate date) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        double height = 1.5 + random.nextDouble(0.5);
+        return new HealthData(0, userId, 50 + random.nextDouble(70), height,
+                random.nextInt(2000, 20000), random.nextInt(50, 130), date);
+    }
+
+    /**
+     * Uses a virtual thread per request on runtimes that have them, and a fixed pool of platform threads otherwise.
+     * The connection pool bounds database concurrency either way.
+    */
+    private static ExecutorService newWorkerExecutor(int workerThreads) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(workerThreads, runnable -> {
+                Thread thread = new Thread(runnable, "load-generator-worker");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+}
@@ -0,0 +1,127 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Tracks failed logins per email and blocks an email once it fails too often within a time window,
+ * so repeated guesses are refused before any password hash is computed.
+ * Entries are kept in the order their windows started, so expired entries are dropped from the head as failures
+ * arrive, and once maxTrackedEmails are tracked the entry whose window started first is evicted, which is also
+ * the one closest to expiring. Every operation is a few map steps under one lock, next to a password hash of
+ * several milliseconds.
+*/
+public class LoginRateLimiter {
+    private final int maxFailures;
+    private final long windowMillis;
+    private final int maxTrackedEmails;
+    // Guarded by itself; in window start order because an entry is moved to the tail when its window restarts.
+    private final LinkedHashMap<String, Attempts> attemptsByEmail;
+
+    /**
+     * Constructs a LoginRateLimiter.
+     *
+     * @param maxFailures      The number of failures within the window after which an email is blocked.
+     * @param windowMillis     The length of the window, which is also how long a block lasts.
+     * @param maxTrackedEmails The most emails tracked at once; past this the oldest window is forgotten.
+    */
+    public LoginRateLimiter(int maxFailures, long windowMillis, int maxTrackedEmails) {
+        this.maxFailures = maxFailures;
+        this.windowMillis = windowMillis;
+        this.maxTrackedEmails = maxTrackedEmails;
+        this.attemptsByEmail = new LinkedHashMap<String, Attempts>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Attempts> eldest) {
+                return size() > LoginRateLimiter.this.maxTrackedEmails;
+            }
+        };
+    }
+
+    /**
+     * Checks whether logins for an email are currently blocked.
+     *
+     * @param email The email being logged in.
+     * @return True if the email has failed too often recently, false otherwise.
+    */
+    public boolean isBlocked(String email) {
+        long now = System.currentTimeMillis();
+        synchronized (attemptsByEmail) {
+            Attempts attempts = attemptsByEmail.get(key(email));
+            return attempts != null && !attempts.isExpired(now) && attempts.failures >= maxFailures;
+        }
+    }
+
+    /**
+     * Records a failed login for an email.
+     *
+     * @param email The email that failed to log in.
+    */
+    public void recordFailure(String email) {
+        long now = System.currentTimeMillis();
+        String key = key(email);
+        synchronized (attemptsByEmail) {
+            purgeExpired(now);
+            Attempts attempts = attemptsByEmail.get(key);
+            if (attempts == null || attempts.isExpired(now)) {
+                // Re-inserting moves the entry to the tail, keeping the map in window start order.
+                attemptsByEmail.remove(key);
+                attempts = new Attempts(now);
+                attemptsByEmail.put(key, attempts);
+            }
+            attempts.failures++;
+        }
+    }
+
+    /**
+     * Clears the failure history of an email after a successful login.
+     *
+     * @param email The email that logged in.
+    */
+    public void recordSuccess(String email) {
+        String key = key(email);
+        synchronized (attemptsByEmail) {
+            attemptsByEmail.remove(key);
+        }
+    }
+
+    /**
+     * Retrieves the number of emails being tracked.
+     *
+     * @return The tracked email count.
+    */
+    public int getTrackedCount() {
+        synchronized (attemptsByEmail) {
+            return attemptsByEmail.size();
+        }
+    }
+
+    /**
+     * Drops expired entries from the head of the map, stopping at the first entry still in its window.
+    */
+    private void purgeExpired(long now) {
+        Iterator<Attempts> iterator = attemptsByEmail.values().iterator();
+        while (iterator.hasNext() && iterator.next().isExpired(now)) {
+            iterator.remove();
+        }
+    }
+
+    private static String key(String email) {
+        return email == null ? "" : email.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * The failures recorded for one email in the current window.
+    */
+    private class Attempts {
+        private final long windowStartMillis;
+        private int failures;
+
+        private Attempts(long windowStartMillis) {
+            this.windowStartMillis = windowStartMillis;
+        }
+
+        private boolean isExpired(long now) {
+            return now - windowStartMillis > windowMillis;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs logins on a dedicated, bounded executor so BCrypt verification cannot take over every core.
+ * Logins are refused up front when the email is rate limited or when the executor's queue is full.
+*/
+public class LoginService implements AutoCloseable {
+
+    /**
+     * The outcome of a login attempt.
+    */
+    public enum Result {
+        /** The email and password matched. */
+        SUCCESS,
+        /** The email was unknown or the password did not match. */
+        INVALID_CREDENTIALS,
+        /** The email failed too often recently and was refused without checking the password. */
+        RATE_LIMITED,
+        /** The authentication executor was full and the attempt was refused without checking the password. */
+        OVERLOADED
+    }
+
+    private final UserDao userDao;
+    private final LoginRateLimiter rateLimiter;
+    private final ThreadPoolExecutor executor;
+
+    private final AtomicLong successes = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong rateLimited = new AtomicLong();
+    private final AtomicLong overloaded = new AtomicLong();
+
+    /**
+     * Constructs a LoginService.
+     *
+     * @param userDao       The UserDao used to verify passwords.
+     * @param rateLimiter   The per-email failure limiter.
+     * @param threads       The number of threads allowed to run BCrypt at once.
+     * @param queueCapacity The number of logins allowed to wait for a thread before new ones are refused.
+    */
+    public LoginService(UserDao userDao, LoginRateLimiter rateLimiter, int threads, int queueCapacity) {
+        this.userDao = userDao;
+        this.rateLimiter = rateLimiter;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "login-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Starts a login attempt on the authentication executor.
+     *
+     * @param email    The email of the user logging in.
+     * @param password The password to verify.
+     * @return A future that completes with the outcome of the attempt.
+    */
+    public CompletableFuture<Result> loginAsync(String email, String password) {
+        if (rateLimiter.isBlocked(email)) {
+            rateLimited.incrementAndGet();
+            return CompletableFuture.completedFuture(Result.RATE_LIMITED);
+        }
+        try {
+            return CompletableFuture.supplyAsync(() -> verify(email, password), executor);
+        } catch (RejectedExecutionException e) {
+            overloaded.incrementAndGet();
+            return CompletableFuture.completedFuture(Result.OVERLOADED);
+        }
+    }
+
+    /**
+     * Performs a login attempt and waits for the outcome.
+     *
+     * @param email    The email of the user logging in.
+     * @param password The password to verify.
+     * @return The outcome of the attempt.
+    */
+    public Result login(String email, String password) {
+        return loginAsync(email, password).join();
+    }
+
+    /**
+     * Retrieves the number of successful logins.
+     *
+     * @return The success count.
+    */
+    public long getSuccessCount() {
+        return successes.get();
+    }
+
+    /**
+     * Retrieves the number of logins that failed verification.
+     *
+     * @return The failure count.
+    */
+    public long getFailureCount() {
+        return failures.get();
+    }
+
+    /**
+     * Retrieves the number of logins refused by the rate limiter.
+     *
+     * @return The rate limited count.
+    */
+    public long getRateLimitedCount() {
+        return rateLimited.get();
+    }
+
+    /**
+     * Retrieves the number of logins refused because the executor was full.
+     *
+     * @return The overloaded count.
+    */
+    public long getOverloadedCount() {
+        return overloaded.get();
+    }
+
+    /**
+     * Stops the authentication executor after the queued logins finish.
+    */
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    @Override
+    public String toString() {
+        return "LoginService[successes=" + successes + ", failures=" + failures + ", rateLimited=" + rateLimited
+                + ", overloaded=" + overloaded + ", queued=" + executor.getQueue().size() + "]";
+    }
+
+    private Result verify(String email, String password) {
+        if (userDao.verifyPassword(email, password)) {
+            rateLimiter.recordSuccess(email);
+            successes.incrementAndGet();
+            return Result.SUCCESS;
+        }
+        rateLimiter.recordFailure(email);
+        failures.incrementAndGet();
+        return Result.INVALID_CREDENTIALS;
+    }
+}
@@ -1,3 +1,5 @@
+import java.time.LocalDate;
+
 /**
  * Represents a medicine reminder for a user.
 */
@@ -7,8 +9,8 @@ public class MedicineReminder {
     private String medicineName;
     private String dosage;
     private String schedule;
-    private String startDate;
-    private String endDate;
+    private LocalDate startDate;
+    private LocalDate endDate;
 
     /**
      * Constructs a MedicineReminder object with the specified attributes.
@@ -21,7 +23,7 @@ public class MedicineReminder {
      * @param startDate    The start date for the reminder.
      * @param endDate      The end date for the reminder.
     */
-    public MedicineReminder(int id, int userId, String medicineName, String dosage, String schedule, String startDate, String endDate) {
+    public MedicineReminder(int id, int userId, String medicineName, String dosage, String schedule, LocalDate startDate, LocalDate endDate) {
         this.id = id;
         this.userId = userId;
         this.medicineName = medicineName;
@@ -81,7 +83,7 @@ public class MedicineReminder {
      *
      * @return The start date.
     */
-    public String getStartDate() {
+    public LocalDate getStartDate() {
         return startDate;
     }
 
@@ -90,7 +92,7 @@ public class MedicineReminder {
      *
      * @return The end date.
     */
-    public String getEndDate() {
+    public LocalDate getEndDate() {
         return endDate;
     }
 
@@ -144,7 +146,7 @@ public class MedicineReminder {
      *
      * @param startDate The start date.
     */
-    public void setStartDate(String startDate) {
+    public void setStartDate(LocalDate startDate) {
         this.startDate = startDate;
     }
 
@@ -153,7 +155,7 @@ public class MedicineReminder {
      *
      * @param endDate The end date.
     */
-    public void setEndDate(String endDate) {
+    public void setEndDate(LocalDate endDate) {
         this.endDate = endDate;
     }
 }
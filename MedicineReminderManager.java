@@ -1,20 +1,50 @@
 import java.sql.*;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.function.Consumer;
 /**
  * Manages medicine reminders stored in the database.
 */
 public class MedicineReminderManager {
-    private Connection connection;
+    public static final int DEFAULT_BATCH_SIZE = 500;
+    /** The channel the medicine_reminders trigger announces changes on; see {@link ReminderChangeFeed}. */
+    public static final String CHANGE_CHANNEL = "medicine_reminder_changes";
+
+    private static final String INSERT_SQL =
+            "INSERT INTO medicine_reminders (user_id, medicine_name, dosage, schedule, start_date, end_date) " +
+            "VALUES (?, ?, ?, ?, ?, ?)";
+    private static final String UPDATE_SQL =
+            "UPDATE medicine_reminders SET user_id = ?, medicine_name = ?, dosage = ?, schedule = ?, start_date = ?, end_date = ? " +
+            "WHERE id = ?";
+    private static final String DUE_SQL =
+            "SELECT * FROM medicine_reminders WHERE start_date <= ? AND end_date >= ?";
+
+    private ConnectionPool pool;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private final BatchInserter<MedicineReminder> inserter;
+    private volatile ReminderChangeListener changeListener;
+
+    /**
+     * Constructs a MedicineReminderManager that borrows connections from the specified pool.
+     *
+     * @param pool The connection pool to borrow connections from.
+    */
+    public MedicineReminderManager(ConnectionPool pool) {
+        this.pool = pool;
+        this.inserter = new BatchInserter<>(pool, INSERT_SQL,
+                reminder -> reminder.getStartDate() == null || reminder.getEndDate() == null ? "Missing start or end date" : null,
+                MedicineReminderManager::bindMedicineReminder);
+    }
 
     /**
-     * Constructs a MedicineReminderManager with the specified database connection.
+     * Sets a listener that is notified after reminders are added, updated or deleted, so an in-memory schedule can follow them.
      *
-     * @param connection The database connection to use.
+     * @param changeListener The listener to notify, or null to remove it.
     */
-    public MedicineReminderManager(Connection connection) {
-        this.connection = connection;
+    public void setChangeListener(ReminderChangeListener changeListener) {
+        this.changeListener = changeListener;
     }
 
     /**
@@ -23,19 +53,114 @@ public class MedicineReminderManager {
      * @param reminder The MedicineReminder object to be added.
     */
     public void addMedicineReminder(MedicineReminder reminder) {
-        String sql = "INSERT INTO medicine_reminders (user_id, medicine_name, dosage, schedule, start_date, end_date) " +
-                     "VALUES (?, ?, ?, ?, ?, ?)";
-        try (PreparedStatement statement = connection.prepareStatement(sql)) {
-            statement.setInt(1, reminder.getUserId());
-            statement.setString(2, reminder.getMedicineName());
-            statement.setString(3, reminder.getDosage());
-            statement.setString(4, reminder.getSchedule());
-            statement.setDate(5, Date.valueOf(reminder.getStartDate()));
-            statement.setDate(6, Date.valueOf(reminder.getEndDate()));
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(INSERT_SQL)) {
+            bindMedicineReminder(statement, reminder);
             statement.executeUpdate();
         } catch (SQLException e) {
             e.printStackTrace();
+            return;
+        }
+        notifyChangeListener();
+    }
+
+    /**
+     * Updates an existing medicine reminder in the database.
+     *
+     * @param reminder The MedicineReminder object with updated information.
+     * @return True if the reminder was updated, false if it does not exist or the update failed.
+    */
+    public boolean updateMedicineReminder(MedicineReminder reminder) {
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(UPDATE_SQL)) {
+            bindMedicineReminder(statement, reminder);
+            statement.setInt(7, reminder.getId());
+            if (statement.executeUpdate() == 0) {
+                return false;
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return false;
+        }
+        ReminderChangeListener listener = changeListener;
+        if (listener != null) {
+            listener.onReminderUpdated(reminder);
+        }
+        return true;
+    }
+
+    /**
+     * Deletes a medicine reminder from the database.
+     *
+     * @param reminderId The ID of the reminder to delete.
+     * @return True if the reminder was deleted, false if it does not exist or the delete failed.
+    */
+    public boolean deleteMedicineReminder(int reminderId) {
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement("DELETE FROM medicine_reminders WHERE id = ?")) {
+            statement.setInt(1, reminderId);
+            if (statement.executeUpdate() == 0) {
+                return false;
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return false;
+        }
+        ReminderChangeListener listener = changeListener;
+        if (listener != null) {
+            listener.onReminderDeleted(reminderId);
+        }
+        return true;
+    }
+
+    /**
+     * Retrieves the number of rows sent to the database per transaction by {@link #addMedicineReminders(Collection)}.
+     *
+     * @return The batch size.
+    */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Sets the number of rows sent to the database per transaction by {@link #addMedicineReminders(Collection)}.
+     *
+     * @param batchSize The batch size; must be positive.
+    */
+    public void setBatchSize(int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
         }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Adds many medicine reminders, such as a pharmacy feed import, as JDBC batches of {@link #getBatchSize()} rows
+     * with one transaction per batch. If a batch fails, it is retried row by row so one bad reminder
+     * does not reject the rest of its batch.
+     *
+     * @param reminders The MedicineReminder objects to be added.
+     * @return The number of reminders added and the reminders that failed.
+    */
+    public BatchResult<MedicineReminder> addMedicineReminders(Collection<MedicineReminder> reminders) {
+        BatchResult<MedicineReminder> result = new BatchResult<>();
+        List<MedicineReminder> chunk = new ArrayList<>(Math.min(batchSize, reminders.size()));
+        int chunkStart = 0;
+        for (MedicineReminder reminder : reminders) {
+            chunk.add(reminder);
+            if (chunk.size() == batchSize) {
+                inserter.insertChunk(chunk, chunkStart, result);
+                chunkStart += chunk.size();
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            inserter.insertChunk(chunk, chunkStart, result);
+        }
+        if (result.getInsertedCount() > 0) {
+            notifyChangeListener();
+        }
+        return result;
     }
 
     /**
@@ -47,7 +172,8 @@ public class MedicineReminderManager {
     public List<MedicineReminder> getMedicineRemindersForUser(int userId) {
         List<MedicineReminder> userReminders = new ArrayList<>();
         String sql = "SELECT * FROM medicine_reminders WHERE user_id = ?";
-        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
             statement.setInt(1, userId);
             try (ResultSet resultSet = statement.executeQuery()) {
                 while (resultSet.next()) {
@@ -60,6 +186,31 @@ public class MedicineReminderManager {
         return userReminders;
     }
 
+    /**
+     * Retrieves medicine reminders by ID in a single query.
+     *
+     * @param ids The IDs of the reminders.
+     * @return The reminders that exist, in no particular order; IDs that are not found are left out.
+     *         Null if the query failed.
+    */
+    public List<MedicineReminder> getMedicineRemindersByIds(Collection<Integer> ids) {
+        List<MedicineReminder> reminders = new ArrayList<>(ids.size());
+        String sql = "SELECT * FROM medicine_reminders WHERE id = ANY(?)";
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setArray(1, connection.createArrayOf("integer", ids.toArray()));
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    reminders.add(extractMedicineReminderFromResultSet(resultSet));
+                }
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return null;
+        }
+        return reminders;
+    }
+
     /**
      * Retrieves medicine reminders that are due for a specific user from the database.
      *
@@ -70,10 +221,44 @@ public class MedicineReminderManager {
         List<MedicineReminder> dueReminders = new ArrayList<>();
         LocalDate now = LocalDate.now();
         String sql = "SELECT * FROM medicine_reminders WHERE user_id = ? AND start_date <= ? AND end_date >= ?";
-        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
             statement.setInt(1, userId);
-            statement.setDate(2, Date.valueOf(now));
-            statement.setDate(3, Date.valueOf(now));
+            statement.setObject(2, now);
+            statement.setObject(3, now);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    dueReminders.add(extractMedicineReminderFromResultSet(resultSet));
+                }
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return dueReminders;
+    }
+
+    /**
+     * Retrieves one page of the reminders due on a date across all users, in ID order.
+     * Pass the ID of the last reminder of a page as afterId to fetch the next page.
+     *
+     * @param date    The date the reminders must be due on.
+     * @param limit   The maximum number of reminders to return.
+     * @param afterId Only reminders with a greater ID are returned; 0 starts from the first reminder.
+     * @return A list of at most limit MedicineReminder objects.
+     * @throws IllegalArgumentException If limit is not positive.
+    */
+    public List<MedicineReminder> getAllDueReminders(LocalDate date, int limit, int afterId) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("limit must be positive: " + limit);
+        }
+        List<MedicineReminder> dueReminders = new ArrayList<>();
+        String sql = DUE_SQL + " AND id > ? ORDER BY id LIMIT ?";
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setObject(1, date);
+            statement.setObject(2, date);
+            statement.setInt(3, afterId);
+            statement.setInt(4, limit);
             try (ResultSet resultSet = statement.executeQuery()) {
                 while (resultSet.next()) {
                     dueReminders.add(extractMedicineReminderFromResultSet(resultSet));
@@ -85,6 +270,91 @@ public class MedicineReminderManager {
         return dueReminders;
     }
 
+    /**
+     * Streams every reminder due on a date across all users, in ID order, through a server-side cursor.
+     *
+     * @param date      The date the reminders must be due on.
+     * @param fetchSize The number of rows to fetch from the database at a time.
+     * @param consumer  The consumer to pass each reminder to.
+     * @return The number of reminders streamed, or -1 if the query failed.
+    */
+    public long forEachDueReminder(LocalDate date, int fetchSize, Consumer<MedicineReminder> consumer) {
+        String sql = DUE_SQL + " ORDER BY id";
+        long count = 0;
+        try (Connection connection = pool.getConnection()) {
+            // The driver only uses a cursor when autocommit is off.
+            connection.setAutoCommit(false);
+            try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                statement.setFetchSize(fetchSize);
+                statement.setObject(1, date);
+                statement.setObject(2, date);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        consumer.accept(extractMedicineReminderFromResultSet(resultSet));
+                        count++;
+                    }
+                }
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return -1;
+        }
+        return count;
+    }
+
+    /**
+     * Streams the reminders that are still active on a date, in ID order, through a server-side cursor.
+     * Passing an ID below the highest seen so far as afterId loads the reminders added since; IDs are handed out
+     * before the rows commit, so a reminder can appear below an ID that was already loaded.
+     *
+     * @param date      The date the reminders must still be active on.
+     * @param afterId   Only reminders with a greater ID are loaded; 0 loads all of them.
+     * @param fetchSize The number of rows to fetch from the database at a time.
+     * @param consumer  The consumer to pass each reminder to.
+     * @return The number of reminders streamed, or -1 if the query failed.
+    */
+    public long forEachActiveMedicineReminder(LocalDate date, int afterId, int fetchSize, Consumer<MedicineReminder> consumer) {
+        String sql = "SELECT * FROM medicine_reminders WHERE id > ? AND end_date >= ? ORDER BY id";
+        long count = 0;
+        try (Connection connection = pool.getConnection()) {
+            // The driver only uses a cursor when autocommit is off.
+            connection.setAutoCommit(false);
+            try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                statement.setFetchSize(fetchSize);
+                statement.setInt(1, afterId);
+                statement.setObject(2, date);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        consumer.accept(extractMedicineReminderFromResultSet(resultSet));
+                        count++;
+                    }
+                }
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return -1;
+        }
+        return count;
+    }
+
+    private static void bindMedicineReminder(PreparedStatement statement, MedicineReminder reminder) throws SQLException {
+        statement.setInt(1, reminder.getUserId());
+        statement.setString(2, reminder.getMedicineName());
+        statement.setString(3, reminder.getDosage());
+        statement.setString(4, reminder.getSchedule());
+        statement.setObject(5, reminder.getStartDate());
+        statement.setObject(6, reminder.getEndDate());
+    }
+
+    private void notifyChangeListener() {
+        ReminderChangeListener listener = changeListener;
+        if (listener != null) {
+            listener.onRemindersAdded();
+        }
+    }
+
     /**
      * Helper method to convert a ResultSet row into a MedicineReminder object.
      *
@@ -99,8 +369,8 @@ public class MedicineReminderManager {
             resultSet.getString("medicine_name"),
             resultSet.getString("dosage"),
             resultSet.getString("schedule"),
-            DateUtils.sqlDateToString(resultSet.getDate("start_date")),
-            DateUtils.sqlDateToString(resultSet.getDate("end_date"))
+            resultSet.getObject("start_date", LocalDate.class),
+            resultSet.getObject("end_date", LocalDate.class)
         );
     }
 }
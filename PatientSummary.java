@@ -0,0 +1,57 @@
+/**
+ * One row of a doctor's dashboard: a patient, their latest health data and how many medicine reminders are active.
+*/
+public class PatientSummary {
+    private final User patient;
+    private final HealthData latestHealthData;
+    private final int activeReminderCount;
+
+    /**
+     * Constructs a PatientSummary.
+     *
+     * @param patient             The patient.
+     * @param latestHealthData    The patient's most recent health data record, or null if they have none.
+     * @param activeReminderCount The number of the patient's medicine reminders active today.
+    */
+    public PatientSummary(User patient, HealthData latestHealthData, int activeReminderCount) {
+        this.patient = patient;
+        this.latestHealthData = latestHealthData;
+        this.activeReminderCount = activeReminderCount;
+    }
+
+    /**
+     * Retrieves the patient.
+     *
+     * @return The patient.
+    */
+    public User getPatient() {
+        return patient;
+    }
+
+    /**
+     * Retrieves the patient's most recent health data record.
+     *
+     * @return The latest health data, or null if the patient has none.
+    */
+    public HealthData getLatestHealthData() {
+        return latestHealthData;
+    }
+
+    /**
+     * Retrieves the patient's current BMI, calculated from their latest health data.
+     *
+     * @return The current BMI, or NaN if the patient has no health data.
+    */
+    public double getCurrentBMI() {
+        return latestHealthData == null ? Double.NaN : latestHealthData.getBMI();
+    }
+
+    /**
+     * Retrieves the number of the patient's medicine reminders active today.
+     *
+     * @return The active reminder count.
+    */
+    public int getActiveReminderCount() {
+        return activeReminderCount;
+    }
+}
@@ -1,41 +1,76 @@
 import java.sql.*;
-import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.time.LocalDate;
 
 /**
  * Data Access Object (DAO) for managing recommendations in the database.
 */
 public class RecommendationDao {
-    private Connection connection;
+    private static final int MAX_ROWS_PER_INSERT = 1000;
+
+    private ConnectionPool pool;
 
     /**
-     * Constructs a RecommendationDao with the specified database connection.
+     * Constructs a RecommendationDao that borrows connections from the specified pool.
      *
-     * @param connection The database connection.
+     * @param pool The connection pool to borrow connections from.
     */
-    public RecommendationDao(Connection connection) {
-        this.connection = connection;
+    public RecommendationDao(ConnectionPool pool) {
+        this.pool = pool;
     }
 
     /**
-     * Saves recommendations for a user in the database.
+     * Saves recommendations for a user in the database with a single multi-row insert.
      *
      * @param userId         The ID of the user.
      * @param recommendations The list of recommendations to save.
     */
     public void saveRecommendations(int userId, List<String> recommendations) {
-        String sql = "INSERT INTO recommendations (user_id, recommendation_text, date) VALUES (?, ?, ?)";
-        try (PreparedStatement statement = connection.prepareStatement(sql)) {
-            for (String recommendation : recommendations) {
-                statement.setInt(1, userId);
-                statement.setString(2, recommendation);
-                statement.setDate(3, DateUtils.stringToSqlDate(LocalDate.now().toString()));
-                statement.executeUpdate();
+        saveRecommendationsBatch(Map.of(userId, recommendations));
+    }
+
+    /**
+     * Saves recommendations for many users in one transaction, using multi-row inserts of up to
+     * {@value #MAX_ROWS_PER_INSERT} rows each.
+     *
+     * @param recommendationsByUser The recommendations to save, keyed by user ID.
+     * @return True if every recommendation was saved, false otherwise.
+    */
+    public boolean saveRecommendationsBatch(Map<Integer, List<String>> recommendationsByUser) {
+        List<Integer> userIds = new ArrayList<>();
+        List<String> texts = new ArrayList<>();
+        for (Map.Entry<Integer, List<String>> entry : recommendationsByUser.entrySet()) {
+            for (String recommendation : entry.getValue()) {
+                userIds.add(entry.getKey());
+                texts.add(recommendation);
+            }
+        }
+        if (texts.isEmpty()) {
+            return true;
+        }
+
+        LocalDate today = LocalDate.now();
+        try (Connection connection = pool.getConnection()) {
+            connection.setAutoCommit(false);
+            for (int start = 0; start < texts.size(); start += MAX_ROWS_PER_INSERT) {
+                int end = Math.min(start + MAX_ROWS_PER_INSERT, texts.size());
+                try (PreparedStatement statement = connection.prepareStatement(buildInsertSql(end - start))) {
+                    int parameter = 1;
+                    for (int i = start; i < end; i++) {
+                        statement.setInt(parameter++, userIds.get(i));
+                        statement.setString(parameter++, texts.get(i));
+                        statement.setObject(parameter++, today);
+                    }
+                    statement.executeUpdate();
+                }
             }
-        } catch (SQLException | ParseException e) {
+            connection.commit();
+            return true;
+        } catch (SQLException e) {
             e.printStackTrace();
+            return false;
         }
     }
 
@@ -48,7 +83,8 @@ public class RecommendationDao {
     public List<String> getRecommendationsByUserId(int userId) {
         List<String> recommendations = new ArrayList<>();
         String sql = "SELECT recommendation_text FROM recommendations WHERE user_id = ?";
-        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
             statement.setInt(1, userId);
             try (ResultSet resultSet = statement.executeQuery()) {
                 while (resultSet.next()) {
@@ -69,7 +105,8 @@ public class RecommendationDao {
     */
     public boolean deleteRecommendationsByUserId(int userId) {
         String sql = "DELETE FROM recommendations WHERE user_id = ?";
-        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
             statement.setInt(1, userId);
             int rowsDeleted = statement.executeUpdate();
             return rowsDeleted > 0;
@@ -78,4 +115,15 @@ public class RecommendationDao {
             return false;
         }
     }
+
+    /**
+     * Builds an INSERT statement with the given number of value rows.
+    */
+    private static String buildInsertSql(int rows) {
+        StringBuilder sql = new StringBuilder("INSERT INTO recommendations (user_id, recommendation_text, date) VALUES ");
+        for (int i = 0; i < rows; i++) {
+            sql.append(i == 0 ? "(?, ?, ?)" : ", (?, ?, ?)");
+        }
+        return sql.toString();
+    }
 }
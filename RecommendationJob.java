@@ -0,0 +1,151 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A population-wide recommendation run: scores the latest health data of every user and stores the results.
+ * The latest readings are streamed through a cursor in chunks, each chunk is evaluated and written on a ForkJoinPool,
+ * and the number of chunks in flight is capped so memory stays bounded however many users there are.
+ * The connection pool should allow at least parallelism + 1 connections: one for the cursor and one per writer.
+*/
+public class RecommendationJob {
+    private static final int FETCH_SIZE = 1000;
+    private static final long PROGRESS_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    private final HealthDataDao healthDataDao;
+    private final RecommendationSystem recommendationSystem;
+    private final RecommendationDao recommendationDao;
+    private final int parallelism;
+    private final int chunkSize;
+
+    private final AtomicLong usersScored = new AtomicLong();
+    private final AtomicLong recommendationsWritten = new AtomicLong();
+    private final AtomicLong failedChunks = new AtomicLong();
+    private volatile long startNanos;
+    private volatile long lastProgressNanos;
+
+    /**
+     * Constructs a RecommendationJob.
+     *
+     * @param healthDataDao        The DAO used to read the latest health data.
+     * @param recommendationSystem The system used to evaluate recommendations.
+     * @param recommendationDao    The DAO used to store recommendations.
+     * @param parallelism          The number of chunks evaluated and written concurrently.
+     * @param chunkSize            The number of users per chunk.
+    */
+    public RecommendationJob(HealthDataDao healthDataDao, RecommendationSystem recommendationSystem,
+                             RecommendationDao recommendationDao, int parallelism, int chunkSize) {
+        this.healthDataDao = healthDataDao;
+        this.recommendationSystem = recommendationSystem;
+        this.recommendationDao = recommendationDao;
+        this.parallelism = parallelism;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Runs the job to completion, printing progress and throughput as it goes.
+     *
+     * @return The number of users scored.
+    */
+    public long run() {
+        ForkJoinPool workers = new ForkJoinPool(parallelism);
+        Semaphore inFlight = new Semaphore(parallelism * 2);
+        startNanos = System.nanoTime();
+        lastProgressNanos = startNanos;
+        List<List<HealthData>> pending = new ArrayList<>(1);
+        pending.add(new ArrayList<>(chunkSize));
+
+        try {
+            long streamed = healthDataDao.forEachLatestHealthData(FETCH_SIZE, healthData -> {
+                List<HealthData> chunk = pending.get(0);
+                chunk.add(healthData);
+                if (chunk.size() == chunkSize) {
+                    submit(workers, inFlight, chunk);
+                    pending.set(0, new ArrayList<>(chunkSize));
+                }
+            });
+            if (!pending.get(0).isEmpty()) {
+                submit(workers, inFlight, pending.get(0));
+            }
+            inFlight.acquireUninterruptibly(parallelism * 2);
+            if (streamed < 0) {
+                System.out.println("Recommendation run stopped early because the latest health data could not be read.");
+            }
+        } finally {
+            workers.shutdown();
+        }
+
+        printProgress(true);
+        return usersScored.get();
+    }
+
+    /**
+     * Retrieves the number of users scored so far.
+     *
+     * @return The users scored count.
+    */
+    public long getUsersScored() {
+        return usersScored.get();
+    }
+
+    /**
+     * Retrieves the number of recommendations written so far.
+     *
+     * @return The recommendations written count.
+    */
+    public long getRecommendationsWritten() {
+        return recommendationsWritten.get();
+    }
+
+    /**
+     * Retrieves the number of chunks whose recommendations could not be written.
+     *
+     * @return The failed chunk count.
+    */
+    public long getFailedChunks() {
+        return failedChunks.get();
+    }
+
+    /**
+     * Hands a chunk to the workers, blocking the cursor while too many chunks are already in flight.
+    */
+    private void submit(ForkJoinPool workers, Semaphore inFlight, List<HealthData> chunk) {
+        inFlight.acquireUninterruptibly();
+        workers.execute(() -> {
+            try {
+                Map<Integer, List<String>> recommendations = recommendationSystem.evaluateAll(chunk);
+                if (!recommendations.isEmpty()) {
+                    if (recommendationDao.saveRecommendationsBatch(recommendations)) {
+                        recommendationsWritten.addAndGet(recommendations.values().stream().mapToLong(List::size).sum());
+                    } else {
+                        failedChunks.incrementAndGet();
+                    }
+                }
+                usersScored.addAndGet(chunk.size());
+                printProgress(false);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                failedChunks.incrementAndGet();
+            } finally {
+                inFlight.release();
+            }
+        });
+    }
+
+    private void printProgress(boolean force) {
+        long now = System.nanoTime();
+        long last = lastProgressNanos;
+        if (!force && now - last < PROGRESS_INTERVAL_NANOS) {
+            return;
+        }
+        lastProgressNanos = now;
+        double seconds = Math.max(now - startNanos, 1) / 1_000_000_000.0;
+        long users = usersScored.get();
+        System.out.printf("Recommendation run: %d users scored, %d recommendations written, %d failed chunks, %.0f users/sec%n",
+                users, recommendationsWritten.get(), failedChunks.get(), users / seconds);
+    }
+}
@@ -0,0 +1,51 @@
+import java.util.function.Predicate;
+
+/**
+ * A single entry in the recommendation rule table: a condition on a health data record and the advice to give when it holds.
+*/
+public class RecommendationRule {
+    private final String name;
+    private final Predicate<HealthData> condition;
+    private final String recommendation;
+
+    /**
+     * Constructs a RecommendationRule.
+     *
+     * @param name           A short identifier for the rule.
+     * @param condition      The condition that triggers the rule.
+     * @param recommendation The recommendation text produced when the condition holds.
+    */
+    public RecommendationRule(String name, Predicate<HealthData> condition, String recommendation) {
+        this.name = name;
+        this.condition = condition;
+        this.recommendation = recommendation;
+    }
+
+    /**
+     * Retrieves the identifier of the rule.
+     *
+     * @return The rule name.
+    */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Retrieves the recommendation text produced by the rule.
+     *
+     * @return The recommendation text.
+    */
+    public String getRecommendation() {
+        return recommendation;
+    }
+
+    /**
+     * Checks whether the rule applies to a health data record.
+     *
+     * @param healthData The health data to check.
+     * @return True if the rule's condition holds, false otherwise.
+    */
+    public boolean matches(HealthData healthData) {
+        return condition.test(healthData);
+    }
+}
@@ -1,8 +1,12 @@
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * A recommendation system that generates health recommendations based on provided health data.
+ * Evaluation is a pure function of the rule table; persistence is a separate step.
  */
 public class RecommendationSystem {
     private static final int MIN_HEART_RATE = 60;
@@ -12,59 +16,130 @@ public class RecommendationSystem {
     private static final double BMI_OVERWEIGHT = 25.0;
     private static final double BMI_OBESE = 30.0;
 
+    /**
+     * The default rule table. Rules are evaluated in order and every matching rule contributes its recommendation.
+    */
+    public static final List<RecommendationRule> DEFAULT_RULES = List.of(
+        new RecommendationRule("heart-rate-low",
+            healthData -> healthData.getHeartRate() < MIN_HEART_RATE,
+            "Your heart rate is lower than the recommended range. " +
+                "Consider increasing your physical activity to improve your cardiovascular health."),
+        new RecommendationRule("heart-rate-high",
+            healthData -> healthData.getHeartRate() > MAX_HEART_RATE,
+            "Your heart rate is above the recommended range. " +
+                "If this is your resting heart rate you should consult your physician."),
+        new RecommendationRule("steps-low",
+            healthData -> healthData.getSteps() < MIN_STEPS,
+            "You're not reaching the recommended daily step count. " +
+                "Try to incorporate more walking or other physical activities into your daily routine."),
+        new RecommendationRule("bmi-overweight",
+            healthData -> healthData.getBMI() > BMI_OVERWEIGHT && healthData.getBMI() < BMI_OBESE,
+            "Your body mass index (BMI) is above the healthy recommended range (18.5 - 25.0). " +
+                "You should try to incorporate more physical activity into your daily routine."),
+        new RecommendationRule("bmi-obese",
+            healthData -> healthData.getBMI() >= BMI_OBESE,
+            "Your body mass index (BMI) is above the healthy recommended range (18.5 - 25.0). " +
+                "You should consider consulting your physician."),
+        new RecommendationRule("bmi-underweight",
+            healthData -> healthData.getBMI() <= BMI_UNDERWEIGHT,
+            "Your body mass index (BMI) is below the healthy recommended range (18.5 - 25.0). " +
+                "You should consider a change in diet; your physician would be able to help with that.")
+    );
+
+    private final List<RecommendationRule> rules;
     private RecommendationDao recommendationDao;
 
+    /**
+     * Constructs a RecommendationSystem that only evaluates rules and does not store anything.
+    */
+    public RecommendationSystem() {
+        this(DEFAULT_RULES, null);
+    }
+
     /**
      * Constructs a RecommendationSystem with the specified RecommendationDao.
      *
      * @param recommendationDao The RecommendationDao to use for storing recommendations.
     */
     public RecommendationSystem(RecommendationDao recommendationDao) {
+        this(DEFAULT_RULES, recommendationDao);
+    }
+
+    /**
+     * Constructs a RecommendationSystem with a custom rule table.
+     *
+     * @param rules             The rules to evaluate, in order.
+     * @param recommendationDao The RecommendationDao to use for storing recommendations, or null to skip storing.
+    */
+    public RecommendationSystem(List<RecommendationRule> rules, RecommendationDao recommendationDao) {
+        this.rules = List.copyOf(rules);
         this.recommendationDao = recommendationDao;
     }
 
     /**
-     * Generates health recommendations based on the provided health data.
+     * Evaluates the rule table against a health data record without storing anything.
      *
-     * @param healthData The health data used to generate recommendations.
-     * @return A list of generated recommendations.
+     * @param healthData The health data to evaluate.
+     * @return The recommendations of every matching rule, in rule order.
     */
-    public List<String> generateRecommendations(HealthData healthData) {
+    public List<String> evaluate(HealthData healthData) {
         List<String> recommendations = new ArrayList<>();
-
-        // Analyze heart rate:
-        int heartRate = healthData.getHeartRate();
-        if (heartRate < MIN_HEART_RATE) {
-            recommendations.add("Your heart rate is lower than the recommended range. " +
-                    "Consider increasing your physical activity to improve your cardiovascular health.");
-        } else if (heartRate > MAX_HEART_RATE) {
-            recommendations.add("Your heart rate is above the recommended range. " +
-                    "If this is your resting heart rate you should consult your physician.");
+        for (RecommendationRule rule : rules) {
+            if (rule.matches(healthData)) {
+                recommendations.add(rule.getRecommendation());
+            }
         }
+        return recommendations;
+    }
 
-        // Analyze steps:
-        int steps = healthData.getSteps();
-        if (steps < MIN_STEPS) {
-            recommendations.add("You're not reaching the recommended daily step count. " +
-                    "Try to incorporate more walking or other physical activities into your daily routine.");
+    /**
+     * Evaluates the rule table against many health data records without storing anything.
+     * When a user appears more than once, the recommendations for all of their records are combined.
+     *
+     * @param healthDataList The health data to evaluate.
+     * @return The recommendations keyed by user ID, in input order. Users with no recommendations are omitted.
+    */
+    public Map<Integer, List<String>> evaluateAll(Collection<HealthData> healthDataList) {
+        Map<Integer, List<String>> recommendationsByUser = new LinkedHashMap<>();
+        for (HealthData healthData : healthDataList) {
+            List<String> recommendations = evaluate(healthData);
+            if (!recommendations.isEmpty()) {
+                recommendationsByUser.computeIfAbsent(healthData.getUserId(), userId -> new ArrayList<>()).addAll(recommendations);
+            }
         }
+        return recommendationsByUser;
+    }
 
-        // Analyze BMI:
-        double bodyMassIndex = healthData.getBMI();
-        if (bodyMassIndex > BMI_OVERWEIGHT && bodyMassIndex < BMI_OBESE) {
-            recommendations.add("Your body mass index (BMI) is above the healthy recommended range (18.5 - 25.0). " +
-                    "You should try to incorporate more physical activity into your daily routine.");
-        } else if (bodyMassIndex >= BMI_OBESE) {
-            recommendations.add("Your body mass index (BMI) is above the healthy recommended range (18.5 - 25.0). " +
-                    "You should consider consulting your physician.");
-        } else if (bodyMassIndex <= BMI_UNDERWEIGHT) {
-            recommendations.add("Your body mass index (BMI) is below the healthy recommended range (18.5 - 25.0). " +
-                    "You should consider a change in diet; your physician would be able to help with that.");
-        }
+    /**
+     * Generates health recommendations based on the provided health data and stores them.
+     *
+     * @param healthData The health data used to generate recommendations.
+     * @return A list of generated recommendations.
+    */
+    public List<String> generateRecommendations(HealthData healthData) {
+        List<String> recommendations = evaluate(healthData);
 
         // Store recommendations in the database:
-        recommendationDao.saveRecommendations(healthData.getUserId(), recommendations);
+        if (recommendationDao != null && !recommendations.isEmpty()) {
+            recommendationDao.saveRecommendations(healthData.getUserId(), recommendations);
+        }
 
         return recommendations;
     }
+
+    /**
+     * Generates health recommendations for many health data records and stores them in bulk.
+     *
+     * @param healthDataList The health data used to generate recommendations.
+     * @return The generated recommendations keyed by user ID.
+    */
+    public Map<Integer, List<String>> generateRecommendations(Collection<HealthData> healthDataList) {
+        Map<Integer, List<String>> recommendationsByUser = evaluateAll(healthDataList);
+
+        if (recommendationDao != null && !recommendationsByUser.isEmpty()) {
+            recommendationDao.saveRecommendationsBatch(recommendationsByUser);
+        }
+
+        return recommendationsByUser;
+    }
 }
@@ -0,0 +1,16 @@
+import java.time.LocalDateTime;
+
+/**
+ * Receives medicine reminders from a {@link ReminderScheduler} when they are due.
+*/
+@FunctionalInterface
+public interface ReminderCallback {
+    /**
+     * Called on the scheduler thread when a reminder is due. Implementations should return quickly
+     * and hand slow work, such as sending a notification, to another thread.
+     *
+     * @param reminder The reminder that is due.
+     * @param fireTime The scheduled time the reminder was due at.
+    */
+    void onReminderDue(MedicineReminder reminder, LocalDateTime fireTime);
+}
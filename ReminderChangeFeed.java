@@ -0,0 +1,138 @@
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Follows changes to medicine_reminders made by any process, through the notifications the table's trigger sends
+ * on {@link MedicineReminderManager#CHANGE_CHANNEL}. Each poll loads all the inserted and updated reminders it was told
+ * about in one query and passes deletes straight on, so following a change costs one read rather than a table scan.
+ * The feed holds its own unpooled connection; if that connection is lost, notifications sent meanwhile are lost too,
+ * so after reconnecting the listener is told to reload everything.
+*/
+public class ReminderChangeFeed implements AutoCloseable {
+    private static final int POLL_MILLIS = 1000;
+    private static final long RECONNECT_DELAY_MILLIS = 5000;
+
+    private final ConnectionPool pool;
+    private final MedicineReminderManager reminderManager;
+    private final ReminderChangeListener listener;
+    private final Thread poller;
+    private volatile Connection connection;
+    private volatile boolean closed;
+
+    /**
+     * Constructs a ReminderChangeFeed and starts listening. Changes committed after this returns are delivered.
+     *
+     * @param pool            The pool whose database to listen to.
+     * @param reminderManager The manager used to load changed reminders.
+     * @param listener        The listener to deliver changes to, on the feed's thread.
+     * @throws SQLException If the first connection cannot be opened.
+    */
+    public ReminderChangeFeed(ConnectionPool pool, MedicineReminderManager reminderManager, ReminderChangeListener listener)
+            throws SQLException {
+        this.pool = pool;
+        this.reminderManager = reminderManager;
+        this.listener = listener;
+        this.connection = listen();
+        this.poller = new Thread(this::run, "reminder-change-feed");
+        this.poller.setDaemon(true);
+        this.poller.start();
+    }
+
+    /**
+     * Stops listening and closes the feed's connection.
+    */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            poller.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Connection listen() throws SQLException {
+        Connection listening = pool.openUnpooledConnection();
+        try (Statement statement = listening.createStatement()) {
+            statement.execute("LISTEN " + MedicineReminderManager.CHANGE_CHANNEL);
+        } catch (SQLException e) {
+            listening.close();
+            throw e;
+        }
+        return listening;
+    }
+
+    private void run() {
+        while (!closed) {
+            try {
+                if (connection == null) {
+                    connection = listen();
+                    listener.onChangesMissed();
+                }
+                PGNotification[] notifications = connection.unwrap(PGConnection.class).getNotifications(POLL_MILLIS);
+                if (notifications != null && notifications.length > 0) {
+                    deliver(notifications);
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
+                closeConnection();
+                try {
+                    Thread.sleep(RECONNECT_DELAY_MILLIS);
+                } catch (InterruptedException interrupted) {
+                    break;
+                }
+            }
+        }
+        closeConnection();
+    }
+
+    private void deliver(PGNotification[] notifications) {
+        Set<Integer> changed = new LinkedHashSet<>();
+        for (PGNotification notification : notifications) {
+            String payload = notification.getParameter();
+            int separator = payload.indexOf(':');
+            int reminderId = Integer.parseInt(payload.substring(separator + 1));
+            if (payload.startsWith("delete")) {
+                changed.remove(reminderId);
+                listener.onReminderDeleted(reminderId);
+            } else {
+                changed.add(reminderId);
+            }
+        }
+        if (changed.isEmpty()) {
+            return;
+        }
+        List<MedicineReminder> reminders = reminderManager.getMedicineRemindersByIds(changed);
+        if (reminders == null) {
+            listener.onChangesMissed();
+            return;
+        }
+        for (MedicineReminder reminder : reminders) {
+            changed.remove(reminder.getId());
+            listener.onReminderUpdated(reminder);
+        }
+        // Deleted again before it could be loaded; its delete notification is still on its way.
+        for (int reminderId : changed) {
+            listener.onReminderDeleted(reminderId);
+        }
+    }
+
+    private void closeConnection() {
+        Connection current = connection;
+        connection = null;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,30 @@
+/**
+ * Receives changes made through a {@link MedicineReminderManager}, or announced by the database
+ * through a {@link ReminderChangeFeed}, so an in-memory schedule can follow them.
+*/
+public interface ReminderChangeListener {
+    /**
+     * Called after one or more reminders are added. The new rows can be loaded by ID.
+    */
+    void onRemindersAdded();
+
+    /**
+     * Called after a reminder is changed.
+     *
+     * @param reminder The reminder as it is now stored.
+    */
+    void onReminderUpdated(MedicineReminder reminder);
+
+    /**
+     * Called after a reminder is deleted.
+     *
+     * @param reminderId The ID of the deleted reminder.
+    */
+    void onReminderDeleted(int reminderId);
+
+    /**
+     * Called when changes may have been missed, such as after the change feed lost its connection.
+     * The listener should reload every reminder.
+    */
+    void onChangesMissed();
+}
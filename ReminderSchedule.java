@@ -0,0 +1,144 @@
+import java.time.LocalTime;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Turns the free-text schedule of a medicine reminder, such as "Once a day" or "Twice a day (take with food)",
+ * into the times of day at which the reminder should fire.
+*/
+public class ReminderSchedule {
+    private static final int MAX_CACHED_SCHEDULES = 10000;
+    private static final LocalTime DEFAULT_TIME = LocalTime.of(9, 0);
+    private static final Pattern CLOCK_TIME = Pattern.compile("\\b(\\d{1,2})(?::(\\d{2}))?\\s*(am|pm)\\b|\\b(\\d{1,2}):(\\d{2})\\b");
+    private static final Pattern EVERY_N_HOURS = Pattern.compile("every\\s+(\\d{1,2})\\s+hours?");
+    private static final Pattern TIMES_A_DAY = Pattern.compile("\\b(once|twice|thrice|one|two|three|four|1|2|3|4)(\\s+times?)?\\s+(a|per)\\s+day\\b");
+
+    // Most reminders share a handful of schedule strings, so each distinct string is parsed once.
+    private static final Map<String, List<LocalTime>> PARSED = new ConcurrentHashMap<>();
+
+    /**
+     * Retrieves the times of day described by a schedule.
+     * Explicit clock times ("8am", "20:30") win; otherwise "every N hours" and "N times a day" are spread over the waking day,
+     * and anything unrecognized fires once a day.
+     *
+     * @param schedule The free-text schedule.
+     * @return The times of day in ascending order; never empty.
+    */
+    public static List<LocalTime> parse(String schedule) {
+        String key = schedule == null ? "" : schedule.trim().toLowerCase(Locale.ROOT);
+        List<LocalTime> times = PARSED.get(key);
+        if (times == null) {
+            times = List.copyOf(doParse(key));
+            if (PARSED.size() < MAX_CACHED_SCHEDULES) {
+                PARSED.put(key, times);
+            }
+        }
+        return times;
+    }
+
+    private static TreeSet<LocalTime> doParse(String schedule) {
+        TreeSet<LocalTime> times = new TreeSet<>();
+
+        Matcher clock = CLOCK_TIME.matcher(schedule);
+        while (clock.find()) {
+            LocalTime time = toTime(clock);
+            if (time != null) {
+                times.add(time);
+            }
+        }
+        if (!times.isEmpty()) {
+            return times;
+        }
+
+        Matcher everyNHours = EVERY_N_HOURS.matcher(schedule);
+        if (everyNHours.find()) {
+            int hours = Integer.parseInt(everyNHours.group(1));
+            if (hours >= 1 && hours <= 24) {
+                for (int offset = 0; offset < 24; offset += hours) {
+                    times.add(LocalTime.of((8 + offset) % 24, 0));
+                }
+                return times;
+            }
+        }
+
+        Matcher timesADay = TIMES_A_DAY.matcher(schedule);
+        int count = timesADay.find() ? countOf(timesADay.group(1)) : 1;
+        switch (count) {
+            case 2:
+                times.add(LocalTime.of(9, 0));
+                times.add(LocalTime.of(21, 0));
+                break;
+            case 3:
+                times.add(LocalTime.of(8, 0));
+                times.add(LocalTime.of(14, 0));
+                times.add(LocalTime.of(20, 0));
+                break;
+            case 4:
+                times.add(LocalTime.of(8, 0));
+                times.add(LocalTime.of(12, 0));
+                times.add(LocalTime.of(16, 0));
+                times.add(LocalTime.of(20, 0));
+                break;
+            default:
+                times.add(onceADayTime(schedule));
+                break;
+        }
+        return times;
+    }
+
+    private static LocalTime onceADayTime(String schedule) {
+        if (schedule.contains("bedtime") || schedule.contains("night")) {
+            return LocalTime.of(22, 0);
+        }
+        if (schedule.contains("evening")) {
+            return LocalTime.of(20, 0);
+        }
+        if (schedule.contains("morning")) {
+            return LocalTime.of(8, 0);
+        }
+        return DEFAULT_TIME;
+    }
+
+    private static int countOf(String word) {
+        switch (word) {
+            case "twice":
+            case "two":
+            case "2":
+                return 2;
+            case "thrice":
+            case "three":
+            case "3":
+                return 3;
+            case "four":
+            case "4":
+                return 4;
+            default:
+                return 1;
+        }
+    }
+
+    private static LocalTime toTime(Matcher clock) {
+        int hour;
+        int minute;
+        if (clock.group(3) != null) {
+            hour = Integer.parseInt(clock.group(1));
+            minute = clock.group(2) == null ? 0 : Integer.parseInt(clock.group(2));
+            if (hour < 1 || hour > 12) {
+                return null;
+            }
+            hour = hour % 12 + (clock.group(3).equals("pm") ? 12 : 0);
+        } else {
+            hour = Integer.parseInt(clock.group(4));
+            minute = Integer.parseInt(clock.group(5));
+        }
+        if (hour > 23 || minute > 59) {
+            return null;
+        }
+        return LocalTime.of(hour, minute);
+    }
+}
@@ -0,0 +1,457 @@
+import java.sql.SQLException;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Fires medicine reminders at the times given by their schedules, instead of polling the database per user.
+ * Active reminders are loaded once and kept in a priority queue ordered by next fire time; a single dispatcher thread
+ * sleeps until the head is due, hands it to the {@link ReminderCallback} and queues its next occurrence.
+ * Reminders the {@link MedicineReminderManager} updates or deletes are rescheduled or cancelled straight away.
+ * Changes made by any process, including other instances, arrive through a {@link ReminderChangeFeed} once
+ * {@link #startChangeFeed} is called; each poll of the feed costs one read of just the changed rows.
+ * Without the feed, reminders this process adds trigger an incremental load of the newest rows.
+ * A full reload every {@link #RECONCILE_MILLIS}, and whenever the feed may have missed changes, is the safety net.
+ * Reminders are dropped once their end date has passed.
+*/
+public class ReminderScheduler implements AutoCloseable {
+    private static final int FETCH_SIZE = 1000;
+    // Re-checks the clock at least this often, so a system clock change cannot leave the dispatcher asleep.
+    private static final long MAX_SLEEP_MILLIS = 60000;
+    // IDs are handed out before the rows commit, so an incremental load re-reads this far below the highest ID seen.
+    private static final int CATCH_UP_ID_MARGIN = 1000;
+    /** How often every active reminder is reloaded, in case a change was missed by both the manager and the feed. */
+    public static final long RECONCILE_MILLIS = 6 * 60 * 60 * 1000;
+
+    private final MedicineReminderManager reminderManager;
+    private final ReminderCallback callback;
+    private final Clock clock;
+    private final Thread dispatcher;
+    private final ReminderChangeListener changeListener = new ReminderChangeListener() {
+        @Override
+        public void onRemindersAdded() {
+            if (changeFeed == null) {
+                requestRefresh();
+            }
+        }
+
+        @Override
+        public void onReminderUpdated(MedicineReminder reminder) {
+            scheduleIfChanged(reminder, LocalDateTime.now(clock));
+        }
+
+        @Override
+        public void onReminderDeleted(int reminderId) {
+            cancel(reminderId);
+        }
+
+        @Override
+        public void onChangesMissed() {
+            requestReconcile();
+        }
+    };
+    private volatile ReminderChangeFeed changeFeed;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition wakeUp = lock.newCondition();
+    private final PriorityQueue<ScheduledReminder> queue = new PriorityQueue<>();
+    // The reminder each ID is currently scheduled for; queue entries whose reminder is no longer here are skipped.
+    private final Map<Integer, MedicineReminder> active = new HashMap<>();
+    private final AtomicLong fired = new AtomicLong();
+    private final AtomicLong callbackFailures = new AtomicLong();
+    private int highestLoadedId;
+    private boolean refreshRequested;
+    private long nextReconcileMillis;
+    private boolean closed;
+
+    /**
+     * Constructs a ReminderScheduler that uses the system clock and time zone.
+     *
+     * @param reminderManager The manager to load reminders from.
+     * @param callback        The callback to hand due reminders to.
+    */
+    public ReminderScheduler(MedicineReminderManager reminderManager, ReminderCallback callback) {
+        this(reminderManager, callback, Clock.systemDefaultZone());
+    }
+
+    /**
+     * Constructs a ReminderScheduler.
+     *
+     * @param reminderManager The manager to load reminders from.
+     * @param callback        The callback to hand due reminders to.
+     * @param clock           The clock, and time zone, that schedules are interpreted in.
+    */
+    public ReminderScheduler(MedicineReminderManager reminderManager, ReminderCallback callback, Clock clock) {
+        this.reminderManager = reminderManager;
+        this.callback = callback;
+        this.clock = clock;
+        this.dispatcher = new Thread(this::runDispatcher, "reminder-scheduler");
+        this.dispatcher.setDaemon(true);
+    }
+
+    /**
+     * Loads the active reminders, starts the dispatcher thread and subscribes to reminders added, updated or deleted later.
+    */
+    public void start() {
+        reminderManager.setChangeListener(changeListener);
+        reconcile();
+        dispatcher.start();
+    }
+
+    /**
+     * Follows changes made by any process through the database's change notifications.
+     * Called before {@link #start()}, no change falls between the initial load and the first notification;
+     * called afterwards, a full reload is queued to cover that gap.
+     *
+     * @param pool The pool whose database to listen to; the feed opens its own connection outside the pool.
+     * @throws SQLException If the feed cannot connect.
+    */
+    public synchronized void startChangeFeed(ConnectionPool pool) throws SQLException {
+        if (changeFeed != null) {
+            return;
+        }
+        changeFeed = new ReminderChangeFeed(pool, reminderManager, changeListener);
+        if (dispatcher.isAlive()) {
+            requestReconcile();
+        }
+    }
+
+    /**
+     * Loads the reminders added since the last load and schedules their next occurrences.
+     * Reminders just below the highest ID loaded so far are read again, in case they committed after a higher ID;
+     * those already scheduled unchanged are left alone.
+     *
+     * @return The number of reminders read, or -1 if the query failed.
+    */
+    public synchronized long refresh() {
+        int afterId;
+        lock.lock();
+        try {
+            afterId = Math.max(0, highestLoadedId - CATCH_UP_ID_MARGIN);
+        } finally {
+            lock.unlock();
+        }
+        LocalDateTime now = LocalDateTime.now(clock);
+        return reminderManager.forEachActiveMedicineReminder(now.toLocalDate(), afterId, FETCH_SIZE,
+                reminder -> scheduleIfChanged(reminder, now));
+    }
+
+    /**
+     * Reloads every active reminder: new and changed reminders are rescheduled, and scheduled reminders that
+     * no longer exist or have ended are cancelled. Runs on the dispatcher thread every {@link #RECONCILE_MILLIS},
+     * and when the change feed may have missed changes.
+     *
+     * @return The number of reminders read, or -1 if the query failed.
+    */
+    public synchronized long reconcile() {
+        LocalDateTime now = LocalDateTime.now(clock);
+        Set<Integer> stored = new HashSet<>();
+        long count = reminderManager.forEachActiveMedicineReminder(now.toLocalDate(), 0, FETCH_SIZE, reminder -> {
+            stored.add(reminder.getId());
+            scheduleIfChanged(reminder, now);
+        });
+        lock.lock();
+        try {
+            nextReconcileMillis = clock.millis() + RECONCILE_MILLIS;
+            if (count >= 0) {
+                active.keySet().retainAll(stored);
+            }
+        } finally {
+            lock.unlock();
+        }
+        return count;
+    }
+
+    /**
+     * Asks the dispatcher thread to load newly added reminders. Returns immediately.
+    */
+    public void requestRefresh() {
+        lock.lock();
+        try {
+            refreshRequested = true;
+            wakeUp.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Asks the dispatcher thread to reload every active reminder. Returns immediately.
+    */
+    public void requestReconcile() {
+        lock.lock();
+        try {
+            nextReconcileMillis = 0;
+            wakeUp.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Schedules a reminder, replacing any earlier version with the same ID.
+     *
+     * @param reminder The reminder to schedule.
+    */
+    public void schedule(MedicineReminder reminder) {
+        schedule(reminder, LocalDateTime.now(clock));
+    }
+
+    /**
+     * Stops firing a reminder.
+     *
+     * @param reminderId The ID of the reminder.
+     * @return True if the reminder was scheduled.
+    */
+    public boolean cancel(int reminderId) {
+        lock.lock();
+        try {
+            return active.remove(reminderId) != null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Retrieves the number of reminders with an upcoming occurrence.
+     *
+     * @return The scheduled reminder count.
+    */
+    public int getScheduledCount() {
+        lock.lock();
+        try {
+            return active.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Retrieves the number of reminders handed to the callback.
+     *
+     * @return The fired count.
+    */
+    public long getFiredCount() {
+        return fired.get();
+    }
+
+    /**
+     * Retrieves the number of times the callback threw an exception.
+     *
+     * @return The callback failure count.
+    */
+    public long getCallbackFailureCount() {
+        return callbackFailures.get();
+    }
+
+    /**
+     * Stops the dispatcher thread. Reminders that have not fired yet are discarded.
+    */
+    @Override
+    public void close() {
+        reminderManager.setChangeListener(null);
+        ReminderChangeFeed feed = changeFeed;
+        if (feed != null) {
+            feed.close();
+        }
+        lock.lock();
+        try {
+            closed = true;
+            wakeUp.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            dispatcher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ReminderScheduler[scheduled=" + getScheduledCount() + ", fired=" + fired
+                + ", callbackFailures=" + callbackFailures + "]";
+    }
+
+    private void scheduleIfChanged(MedicineReminder reminder, LocalDateTime now) {
+        lock.lock();
+        try {
+            MedicineReminder current = active.get(reminder.getId());
+            if (current != null && sameSchedule(current, reminder)) {
+                highestLoadedId = Math.max(highestLoadedId, reminder.getId());
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        schedule(reminder, now);
+    }
+
+    private void schedule(MedicineReminder reminder, LocalDateTime now) {
+        List<LocalTime> times = ReminderSchedule.parse(reminder.getSchedule());
+        LocalDateTime next = nextFireTime(reminder, times, now);
+        lock.lock();
+        try {
+            highestLoadedId = Math.max(highestLoadedId, reminder.getId());
+            if (next == null) {
+                active.remove(reminder.getId());
+                return;
+            }
+            active.put(reminder.getId(), reminder);
+            ScheduledReminder entry = new ScheduledReminder(reminder, times);
+            entry.setFireTime(next, toEpochMillis(next));
+            queue.add(entry);
+            if (queue.peek() == entry) {
+                wakeUp.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void runDispatcher() {
+        while (true) {
+            ScheduledReminder due = null;
+            boolean reconcileDue = false;
+            lock.lock();
+            try {
+                while (!closed && !refreshRequested && due == null && !reconcileDue) {
+                    ScheduledReminder head = queue.peek();
+                    long now = clock.millis();
+                    long sleepMillis = Math.min(nextReconcileMillis - now, MAX_SLEEP_MILLIS);
+                    if (sleepMillis <= 0) {
+                        reconcileDue = true;
+                    } else if (head == null) {
+                        wakeUp.await(sleepMillis, TimeUnit.MILLISECONDS);
+                    } else if (head.fireAtMillis > now) {
+                        wakeUp.await(Math.min(head.fireAtMillis - now, sleepMillis), TimeUnit.MILLISECONDS);
+                    } else {
+                        queue.poll();
+                        if (active.get(head.reminder.getId()) == head.reminder) {
+                            due = head;
+                        }
+                    }
+                }
+                if (closed) {
+                    return;
+                }
+                if (due == null && !reconcileDue) {
+                    refreshRequested = false;
+                }
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+
+            if (due != null) {
+                fire(due);
+            } else if (reconcileDue) {
+                reconcile();
+            } else {
+                refresh();
+            }
+        }
+    }
+
+    private void fire(ScheduledReminder due) {
+        try {
+            callback.onReminderDue(due.reminder, due.fireTime);
+        } catch (RuntimeException e) {
+            callbackFailures.incrementAndGet();
+            e.printStackTrace();
+        }
+        fired.incrementAndGet();
+
+        // Occurrences missed while the dispatcher was busy or paused are skipped rather than fired in a burst.
+        LocalDateTime now = LocalDateTime.now(clock);
+        LocalDateTime next = nextFireTime(due.reminder, due.times, now.isAfter(due.fireTime) ? now : due.fireTime);
+        lock.lock();
+        try {
+            if (active.get(due.reminder.getId()) != due.reminder) {
+                return;
+            }
+            if (next == null) {
+                active.remove(due.reminder.getId());
+            } else {
+                due.setFireTime(next, toEpochMillis(next));
+                queue.add(due);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Finds the first time after the specified moment at which a reminder fires, within its start and end dates.
+     *
+     * @return The next fire time, or null if the reminder has ended.
+    */
+    private static LocalDateTime nextFireTime(MedicineReminder reminder, List<LocalTime> times, LocalDateTime after) {
+        LocalDate startDate = reminder.getStartDate();
+        LocalDate endDate = reminder.getEndDate();
+        LocalDate day = after.toLocalDate().isBefore(startDate) ? startDate : after.toLocalDate();
+        for (; !day.isAfter(endDate); day = day.plusDays(1)) {
+            for (LocalTime time : times) {
+                LocalDateTime candidate = day.atTime(time);
+                if (candidate.isAfter(after)) {
+                    return candidate;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static boolean sameSchedule(MedicineReminder a, MedicineReminder b) {
+        return a.getUserId() == b.getUserId()
+                && Objects.equals(a.getMedicineName(), b.getMedicineName())
+                && Objects.equals(a.getDosage(), b.getDosage())
+                && Objects.equals(a.getSchedule(), b.getSchedule())
+                && Objects.equals(a.getStartDate(), b.getStartDate())
+                && Objects.equals(a.getEndDate(), b.getEndDate());
+    }
+
+    private long toEpochMillis(LocalDateTime dateTime) {
+        return dateTime.atZone(clock.getZone()).toInstant().toEpochMilli();
+    }
+
+    /**
+     * The next occurrence of a reminder, ordered by fire time.
+    */
+    private static class ScheduledReminder implements Comparable<ScheduledReminder> {
+        private final MedicineReminder reminder;
+        private final List<LocalTime> times;
+        private LocalDateTime fireTime;
+        private long fireAtMillis;
+
+        ScheduledReminder(MedicineReminder reminder, List<LocalTime> times) {
+            this.reminder = reminder;
+            this.times = times;
+        }
+
+        /**
+         * Moves the entry to its next occurrence. Only called while the entry is not in the queue.
+        */
+        void setFireTime(LocalDateTime fireTime, long fireAtMillis) {
+            this.fireTime = fireTime;
+            this.fireAtMillis = fireAtMillis;
+        }
+
+        @Override
+        public int compareTo(ScheduledReminder other) {
+            return Long.compare(fireAtMillis, other.fireAtMillis);
+        }
+    }
+}
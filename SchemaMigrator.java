@@ -0,0 +1,202 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Applies versioned schema migrations at startup and checks that the hot queries still use their indexes.
+ * Migrations are SQL files named V&lt;version&gt;__&lt;description&gt;.sql, applied in version order
+ * and recorded in the schema_version table so each one runs exactly once.
+*/
+public class SchemaMigrator {
+    private static final Pattern MIGRATION_FILE = Pattern.compile("V(\\d+)__(\\w+)\\.sql");
+    // Serializes migrations when several application instances start at once.
+    private static final long MIGRATION_LOCK_KEY = 0x4865616c7468L;
+    // A sequential scan node in EXPLAIN (FORMAT JSON) output; [^{}] keeps the match inside one plan node.
+    private static final Pattern SEQ_SCAN_NODE = Pattern.compile("\"Node Type\": \"Seq Scan\",[^{}]*?\"Relation Name\": \"([^\"]+)\"");
+    // A table and, for a partitioned table such as health_data, every partition below it.
+    private static final String TABLE_AND_PARTITIONS_SQL = "WITH RECURSIVE tables(oid) AS ("
+            + "SELECT ?::regclass::oid UNION SELECT i.inhrelid FROM pg_inherits i JOIN tables t ON i.inhparent = t.oid) "
+            + "SELECT c.relname FROM tables t JOIN pg_class c ON c.oid = t.oid";
+
+    /**
+     * The queries that must never fall back to a sequential scan, paired with the table they must not scan.
+    */
+    private static final String[][] HOT_QUERIES = {
+        { "latest health data for user", "SELECT * FROM health_data_latest WHERE user_id = 1", "health_data_latest" },
+        { "health data history for user", "SELECT * FROM health_data WHERE user_id = 1 AND date >= CURRENT_DATE - 30 ORDER BY date, id LIMIT 100", "health_data" },
+        { "health data by idempotency key", "SELECT 1 FROM health_data WHERE user_id = 1 AND date = CURRENT_DATE AND source = 'manual'", "health_data" },
+        { "due medicine reminders for user", "SELECT * FROM medicine_reminders WHERE user_id = 1 AND start_date <= CURRENT_DATE AND end_date >= CURRENT_DATE", "medicine_reminders" },
+        { "page of due medicine reminders", "SELECT * FROM medicine_reminders WHERE start_date <= CURRENT_DATE AND end_date >= CURRENT_DATE AND id > 0 ORDER BY id LIMIT 100", "medicine_reminders" },
+        { "recommendations for user", "SELECT recommendation_text FROM recommendations WHERE user_id = 1", "recommendations" },
+        { "doctors for patient", "SELECT doctor_id FROM doctor_patient WHERE patient_id = 1", "doctor_patient" },
+    };
+
+    private ConnectionPool pool;
+    private Path migrationDirectory;
+
+    /**
+     * Constructs a SchemaMigrator.
+     *
+     * @param pool               The connection pool to borrow connections from.
+     * @param migrationDirectory The directory containing the migration files.
+    */
+    public SchemaMigrator(ConnectionPool pool, Path migrationDirectory) {
+        this.pool = pool;
+        this.migrationDirectory = migrationDirectory;
+    }
+
+    /**
+     * Applies every migration that has not been applied yet, in version order, in a single transaction.
+     *
+     * @return The number of migrations applied.
+     * @throws IllegalStateException If a migration cannot be read or fails to apply; nothing is applied in that case.
+    */
+    public int migrate() {
+        TreeMap<Integer, Path> migrations = findMigrations();
+        try (Connection connection = pool.getConnection()) {
+            connection.setAutoCommit(false);
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("SELECT pg_advisory_xact_lock(" + MIGRATION_LOCK_KEY + ")");
+                statement.execute("CREATE TABLE IF NOT EXISTS schema_version (" +
+                        "version INT PRIMARY KEY, " +
+                        "description VARCHAR(200) NOT NULL, " +
+                        "applied_at TIMESTAMP NOT NULL DEFAULT now())");
+            }
+            Set<Integer> applied = getAppliedVersions(connection);
+
+            int count = 0;
+            for (Integer version : migrations.keySet()) {
+                if (applied.contains(version)) {
+                    continue;
+                }
+                Path file = migrations.get(version);
+                String description = describe(file);
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute(Files.readString(file, StandardCharsets.UTF_8));
+                }
+                try (PreparedStatement statement = connection.prepareStatement(
+                        "INSERT INTO schema_version (version, description) VALUES (?, ?)")) {
+                    statement.setInt(1, version);
+                    statement.setString(2, description);
+                    statement.executeUpdate();
+                }
+                System.out.println("Applied migration V" + version + ": " + description);
+                count++;
+            }
+            connection.commit();
+            return count;
+        } catch (SQLException | IOException e) {
+            throw new IllegalStateException("Schema migration failed; no migrations were applied", e);
+        }
+    }
+
+    /**
+     * Runs EXPLAIN on each hot query with sequential scans disabled and fails if any plan still scans its table,
+     * which means the index it relies on is missing or unusable. The scanned relations are read from the JSON plan and
+     * compared by exact name with the table and its partitions, so a scan of a similarly named table such as
+     * health_data_latest is not mistaken for one of health_data.
+     * Because sequential scans are disabled, this only catches a missing or unusable index. It does not catch a plan
+     * that regresses because of table statistics, since with the default settings the planner may still choose a
+     * sequential scan for a query that has a usable index.
+     *
+     * @throws IllegalStateException If a hot query plan has regressed to a sequential scan.
+    */
+    public void verifyQueryPlans() {
+        List<String> regressions = new ArrayList<>();
+        try (Connection connection = pool.getConnection()) {
+            connection.setAutoCommit(false);
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("SET LOCAL enable_seqscan = off");
+                for (String[] hotQuery : HOT_QUERIES) {
+                    String plan = explain(statement, hotQuery[1]);
+                    Set<String> tables = tableAndPartitions(connection, hotQuery[2]);
+                    Matcher seqScan = SEQ_SCAN_NODE.matcher(plan);
+                    while (seqScan.find()) {
+                        if (tables.contains(seqScan.group(1))) {
+                            regressions.add(hotQuery[0] + " scans " + seqScan.group(1) + ":\n" + plan);
+                            break;
+                        }
+                    }
+                }
+            }
+            connection.rollback();
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not check query plans", e);
+        }
+        if (!regressions.isEmpty()) {
+            throw new IllegalStateException("Hot query plans regressed to a sequential scan:\n" + String.join("\n", regressions));
+        }
+    }
+
+    private static String explain(Statement statement, String sql) throws SQLException {
+        StringBuilder plan = new StringBuilder();
+        try (ResultSet resultSet = statement.executeQuery("EXPLAIN (FORMAT JSON) " + sql)) {
+            while (resultSet.next()) {
+                plan.append(resultSet.getString(1)).append('\n');
+            }
+        }
+        return plan.toString();
+    }
+
+    private static Set<String> tableAndPartitions(Connection connection, String table) throws SQLException {
+        Set<String> tables = new HashSet<>();
+        try (PreparedStatement statement = connection.prepareStatement(TABLE_AND_PARTITIONS_SQL)) {
+            statement.setString(1, table);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    tables.add(resultSet.getString(1));
+                }
+            }
+        }
+        return tables;
+    }
+
+    private static Set<Integer> getAppliedVersions(Connection connection) throws SQLException {
+        Set<Integer> versions = new HashSet<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT version FROM schema_version")) {
+            while (resultSet.next()) {
+                versions.add(resultSet.getInt("version"));
+            }
+        }
+        return versions;
+    }
+
+    /**
+     * Lists the migration files in the migration directory, keyed by version.
+    */
+    private TreeMap<Integer, Path> findMigrations() {
+        TreeMap<Integer, Path> migrations = new TreeMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(migrationDirectory, "V*__*.sql")) {
+            for (Path file : files) {
+                Matcher matcher = MIGRATION_FILE.matcher(file.getFileName().toString());
+                if (!matcher.matches()) {
+                    continue;
+                }
+                int version = Integer.parseInt(matcher.group(1));
+                Path previous = migrations.put(version, file);
+                if (previous != null) {
+                    throw new IllegalStateException("Duplicate migration version " + version + ": " + previous + " and " + file);
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read migrations from " + migrationDirectory, e);
+        }
+        return migrations;
+    }
+
+    private static String describe(Path file) {
+        Matcher matcher = MIGRATION_FILE.matcher(file.getFileName().toString());
+        return matcher.matches() ? matcher.group(2).replace('_', ' ') : file.getFileName().toString();
+    }
+}
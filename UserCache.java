@@ -0,0 +1,247 @@
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, in-process cache of user rows, keyed by both ID and email.
+ * Entries expire after a fixed time to live. Once the cache is full, caching another user evicts one that has not been
+ * read recently, chosen by a clock sweep over the entries, which approximates least recently used without a global lock
+ * on every read.
+ * Cached users are copied on the way in and out, so callers cannot change what other readers see.
+*/
+public class UserCache {
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final Map<Integer, Entry> usersById = new ConcurrentHashMap<>();
+    // May briefly point at an ID whose cached email has changed; lookups check the entry's email before using it.
+    private final Map<String, Integer> idsByEmail = new ConcurrentHashMap<>();
+    private final AtomicLong invalidationSequence = new AtomicLong();
+    private final Object clockLock = new Object();
+    private Iterator<Map.Entry<Integer, Entry>> clockHand;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Constructs a UserCache.
+     *
+     * @param maxEntries The maximum number of users to keep.
+     * @param ttlMillis  How long a cached user stays valid, in milliseconds.
+    */
+    public UserCache(int maxEntries, long ttlMillis) {
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * Retrieves a cached user by ID.
+     *
+     * @param id The ID of the user.
+     * @return A copy of the cached user, or null if it is not cached or has expired.
+    */
+    public User getById(int id) {
+        Entry entry = usersById.get(id);
+        if (entry == null || isExpired(entry)) {
+            if (entry != null) {
+                remove(id, entry);
+            }
+            misses.incrementAndGet();
+            return null;
+        }
+        entry.referenced = true;
+        hits.incrementAndGet();
+        return copy(entry.user);
+    }
+
+    /**
+     * Retrieves a cached user by email.
+     *
+     * @param email The email of the user.
+     * @return A copy of the cached user, or null if it is not cached or has expired.
+    */
+    public User getByEmail(String email) {
+        Integer id = idsByEmail.get(email);
+        if (id == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        Entry entry = usersById.get(id);
+        if (entry == null || isExpired(entry) || !entry.user.getEmail().equals(email)) {
+            if (entry != null) {
+                remove(id, entry);
+            }
+            // The mapping outlived its entry, or the user changed email since it was written.
+            idsByEmail.remove(email, id);
+            misses.incrementAndGet();
+            return null;
+        }
+        entry.referenced = true;
+        hits.incrementAndGet();
+        return copy(entry.user);
+    }
+
+    /**
+     * Marks the start of a database load. Pass the returned value to {@link #put(User, long)} once the load completes,
+     * so a load that raced with an invalidation does not put a stale row back into the cache.
+     *
+     * @return A token identifying the current cache generation.
+    */
+    public long startLoad() {
+        return invalidationSequence.get();
+    }
+
+    /**
+     * Caches a user loaded from the database, unless the cache was invalidated while the load was running.
+     *
+     * @param user      The user that was loaded.
+     * @param loadToken The value returned by {@link #startLoad()} before the load began.
+    */
+    public void put(User user, long loadToken) {
+        if (maxEntries <= 0 || invalidationSequence.get() != loadToken) {
+            return;
+        }
+        int id = user.getId();
+        if (!usersById.containsKey(id)) {
+            while (usersById.size() >= maxEntries && evictOne()) {
+                evictions.incrementAndGet();
+            }
+        }
+        Entry entry = new Entry(copy(user), System.currentTimeMillis() + ttlMillis);
+        Entry previous = usersById.put(id, entry);
+        if (previous != null && !previous.user.getEmail().equals(user.getEmail())) {
+            idsByEmail.remove(previous.user.getEmail(), id);
+        }
+        idsByEmail.put(user.getEmail(), id);
+        // Undo the put if an invalidation slipped in between the token check and the put.
+        if (invalidationSequence.get() != loadToken) {
+            remove(id, entry);
+        }
+    }
+
+    /**
+     * Removes a user from the cache and discards any loads that are still running.
+     *
+     * @param id The ID of the user that changed.
+    */
+    public void invalidate(int id) {
+        invalidationSequence.incrementAndGet();
+        Entry entry = usersById.remove(id);
+        if (entry != null) {
+            idsByEmail.remove(entry.user.getEmail(), id);
+        }
+    }
+
+    /**
+     * Removes every user from the cache.
+    */
+    public void clear() {
+        invalidationSequence.incrementAndGet();
+        usersById.clear();
+        idsByEmail.clear();
+    }
+
+    /**
+     * Retrieves the number of lookups served from the cache.
+     *
+     * @return The hit count.
+    */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Retrieves the number of lookups that had to go to the database.
+     *
+     * @return The miss count.
+    */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Retrieves the number of users evicted because the cache was full.
+     *
+     * @return The eviction count.
+    */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * Retrieves the number of users currently cached.
+     *
+     * @return The cache size.
+    */
+    public int size() {
+        return usersById.size();
+    }
+
+    @Override
+    public String toString() {
+        long hits = this.hits.get();
+        long lookups = hits + misses.get();
+        return String.format("UserCache[size=%d, hits=%d, misses=%d, hitRate=%.1f%%, evictions=%d]",
+                usersById.size(), hits, lookups - hits, lookups == 0 ? 0.0 : hits * 100.0 / lookups, evictions.get());
+    }
+
+    /**
+     * Advances the clock hand to the first entry that has not been read since the hand last passed it and evicts it,
+     * clearing the read mark of every entry it passes on the way.
+     *
+     * @return True if an entry was evicted, false if the cache is empty.
+    */
+    private boolean evictOne() {
+        synchronized (clockLock) {
+            // Two full turns always find an entry, since the first turn clears every read mark.
+            for (int step = 0, limit = 2 * usersById.size() + 1; step < limit; step++) {
+                if (clockHand == null || !clockHand.hasNext()) {
+                    clockHand = usersById.entrySet().iterator();
+                    if (!clockHand.hasNext()) {
+                        return false;
+                    }
+                }
+                Map.Entry<Integer, Entry> candidate = clockHand.next();
+                if (candidate.getValue().referenced) {
+                    candidate.getValue().referenced = false;
+                } else if (remove(candidate.getKey(), candidate.getValue())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Removes an entry if it is still the one cached for its ID, along with its email mapping.
+    */
+    private boolean remove(int id, Entry entry) {
+        if (!usersById.remove(id, entry)) {
+            return false;
+        }
+        idsByEmail.remove(entry.user.getEmail(), id);
+        return true;
+    }
+
+    private boolean isExpired(Entry entry) {
+        return System.currentTimeMillis() > entry.expiresAtMillis;
+    }
+
+    private static User copy(User user) {
+        return new User(user.getId(), user.getFirstName(), user.getLastName(), user.getEmail(), user.getPassword(), user.isDoctor());
+    }
+
+    /**
+     * A cached user, the time it expires, and whether it has been read since the clock hand last passed it.
+    */
+    private static class Entry {
+        private final User user;
+        private final long expiresAtMillis;
+        private volatile boolean referenced;
+
+        private Entry(User user, long expiresAtMillis) {
+            this.user = user;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+    }
+}
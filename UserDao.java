@@ -1,20 +1,104 @@
 import org.mindrot.jbcrypt.BCrypt;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 /**
  * Manages user-related operations in the database.
 */
 public class UserDao {
-    private Connection connection;
+    private static final int DEFAULT_CACHE_SIZE = 10000;
+    private static final long DEFAULT_CACHE_TTL_MILLIS = 5 * 60 * 1000;
+    private static final int DEFAULT_WORK_FACTOR = 10;
+    private static final int REHASH_QUEUE_CAPACITY = 1000;
+
+    private ConnectionPool pool;
+    private final UserCache userCache;
+    private volatile DoctorPatientIndex relationIndex;
+    private volatile int workFactor = DEFAULT_WORK_FACTOR;
+    private final Set<String> pendingRehashes = ConcurrentHashMap.newKeySet();
+    private final ThreadPoolExecutor rehashExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(REHASH_QUEUE_CAPACITY), runnable -> {
+                Thread thread = new Thread(runnable, "password-rehash");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    /**
+     * Constructs a UserDao object that borrows connections from the specified pool.
+     *
+     * @param pool The connection pool to borrow connections from.
+    */
+    public UserDao(ConnectionPool pool) {
+        this(pool, new UserCache(DEFAULT_CACHE_SIZE, DEFAULT_CACHE_TTL_MILLIS));
+    }
+
+    /**
+     * Constructs a UserDao object that reads users through the specified cache.
+     *
+     * @param pool      The connection pool to borrow connections from.
+     * @param userCache The cache for user lookups by ID and email.
+    */
+    public UserDao(ConnectionPool pool, UserCache userCache) {
+        this.pool = pool;
+        this.userCache = userCache;
+    }
+
+    /**
+     * Retrieves the BCrypt cost factor used for new password hashes.
+     *
+     * @return The BCrypt work factor.
+    */
+    public int getWorkFactor() {
+        return workFactor;
+    }
+
+    /**
+     * Sets the BCrypt cost factor used for new password hashes. Existing hashes with a different cost
+     * are rehashed in the background the next time their owner logs in.
+     *
+     * @param workFactor The BCrypt work factor, between 4 and 31.
+    */
+    public void setWorkFactor(int workFactor) {
+        if (workFactor < 4 || workFactor > 31) {
+            throw new IllegalArgumentException("BCrypt work factor must be between 4 and 31: " + workFactor);
+        }
+        this.workFactor = workFactor;
+    }
+
+    /**
+     * Retrieves the cache used for user lookups.
+     *
+     * @return The user cache.
+    */
+    public UserCache getUserCache() {
+        return userCache;
+    }
+
+    /**
+     * Retrieves the in-memory index of doctor-patient relations.
+     *
+     * @return The relation index, or null if relations are read from the database.
+    */
+    public DoctorPatientIndex getRelationIndex() {
+        return relationIndex;
+    }
 
     /**
-     * Constructs a UserDao object with the specified database connection.
+     * Answers doctor-patient relation lookups from an in-memory index instead of the database.
+     * Relations added or removed through this UserDao are applied to the index as well; relations removed elsewhere
+     * keep granting access until the index is next reconciled.
      *
-     * @param connection The database connection to use.
+     * @param relationIndex The relation index, or null to read relations from the database.
     */
-    public UserDao(Connection connection) {
-        this.connection = connection;
+    public void setRelationIndex(DoctorPatientIndex relationIndex) {
+        this.relationIndex = relationIndex;
     }
 
     /**
@@ -24,9 +108,10 @@ public class UserDao {
      * @return True if the user creation is successful, false otherwise.
     */
     public boolean createUser(User user) {
-        String hashedPassword = BCrypt.hashpw(user.getPassword(), BCrypt.gensalt());
+        String hashedPassword = BCrypt.hashpw(user.getPassword(), BCrypt.gensalt(workFactor));
         String sql = "INSERT INTO users (first_name, last_name, email, password, is_doctor) VALUES (?, ?, ?, ?, ?)";
-        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
             statement.setString(1, user.getFirstName());
             statement.setString(2, user.getLastName());
             statement.setString(3, user.getEmail());
@@ -41,19 +126,25 @@ public class UserDao {
     }
 
     /**
-     * Retrieves a user by their ID from the database.
+     * Retrieves a user by their ID, from the cache if possible and otherwise from the database.
      *
      * @param id The ID of the user to retrieve.
      * @return The User object representing the retrieved user, or null if not found.
     */
     public User getUserById(int id) {
-        User user = null;
+        User user = userCache.getById(id);
+        if (user != null) {
+            return user;
+        }
+        long loadToken = userCache.startLoad();
         String sql = "SELECT * FROM users WHERE id = ?";
-        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
             statement.setInt(1, id);
             try (ResultSet resultSet = statement.executeQuery()) {
                 if (resultSet.next()) {
                     user = extractUserFromResultSet(resultSet);
+                    userCache.put(user, loadToken);
                 }
             }
         } catch (SQLException e) {
@@ -63,19 +154,25 @@ public class UserDao {
     }
 
     /**
-     * Retrieves a user by their email from the database.
+     * Retrieves a user by their email, from the cache if possible and otherwise from the database.
      *
      * @param email The email of the user to retrieve.
      * @return The User object representing the retrieved user, or null if not found.
     */
     public User getUserByEmail(String email) {
-        User user = null;
+        User user = userCache.getByEmail(email);
+        if (user != null) {
+            return user;
+        }
+        long loadToken = userCache.startLoad();
         String sql = "SELECT * FROM users WHERE email = ?";
-        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
             statement.setString(1, email);
             try (ResultSet resultSet = statement.executeQuery()) {
                 if (resultSet.next()) {
                     user = extractUserFromResultSet(resultSet);
+                    userCache.put(user, loadToken);
                 }
             }
         } catch (SQLException e) {
@@ -92,7 +189,8 @@ public class UserDao {
     */
     public boolean updateUser(User user) {
         String sql = "UPDATE users SET first_name = ?, last_name = ?, email = ?, is_doctor = ? WHERE id = ?";
-        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
             statement.setString(1, user.getFirstName());
             statement.setString(2, user.getLastName());
             statement.setString(3, user.getEmail());
@@ -103,6 +201,8 @@ public class UserDao {
         } catch (SQLException e) {
             e.printStackTrace();
             return false;
+        } finally {
+            userCache.invalidate(user.getId());
         }
     }
 
@@ -114,37 +214,68 @@ public class UserDao {
     */
     public boolean deleteUser(int id) {
         String sql = "DELETE FROM users WHERE id = ?";
-        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
             statement.setInt(1, id);
             int rowsDeleted = statement.executeUpdate();
             return rowsDeleted > 0;
         } catch (SQLException e) {
             e.printStackTrace();
             return false;
+        } finally {
+            userCache.invalidate(id);
+        }
+    }
+
+    /**
+     * Updates a user's password, storing a fresh BCrypt hash.
+     *
+     * @param id          The ID of the user.
+     * @param newPassword The new plain-text password.
+     * @return True if the password was updated, false otherwise.
+    */
+    public boolean updatePassword(int id, String newPassword) {
+        String hashedPassword = BCrypt.hashpw(newPassword, BCrypt.gensalt(workFactor));
+        String sql = "UPDATE users SET password = ? WHERE id = ?";
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setString(1, hashedPassword);
+            statement.setInt(2, id);
+            int rowsUpdated = statement.executeUpdate();
+            return rowsUpdated > 0;
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            userCache.invalidate(id);
         }
     }
 
     /**
      * Verifies whether the given password matches the stored password for the specified email.
+     * The stored hash is read through the user cache, so repeat logins do not query the database.
+     * If the password matches a hash made with a different work factor, it is rehashed in the background.
      *
      * @param email    The email of the user whose password is to be verified.
      * @param password The password to verify.
      * @return True if the password is verified, false otherwise.
     */
     public boolean verifyPassword(String email, String password) {
-        String sql = "SELECT password FROM users WHERE email = ?";
-        try (PreparedStatement statement = connection.prepareStatement(sql)) {
-            statement.setString(1, email);
-            try (ResultSet resultSet = statement.executeQuery()) {
-                if (resultSet.next()) {
-                    String hashedPassword = resultSet.getString("password");
-                    return BCrypt.checkpw(password, hashedPassword);
-                }
+        User user = getUserByEmail(email);
+        if (user == null || user.getPassword() == null) {
+            return false;
+        }
+        try {
+            boolean verified = BCrypt.checkpw(password, user.getPassword());
+            if (verified && getWorkFactor(user.getPassword()) != workFactor) {
+                scheduleRehash(user, password);
             }
-        } catch (SQLException e) {
+            return verified;
+        } catch (IllegalArgumentException e) {
+            // The stored value is not a valid BCrypt hash.
             e.printStackTrace();
+            return false;
         }
-        return false;
     }
 
     /**
@@ -156,10 +287,15 @@ public class UserDao {
     */
     public boolean addDoctorPatientRelation(int doctorId, int patientId) {
         String sql = "INSERT INTO doctor_patient (doctor_id, patient_id) VALUES (?, ?)";
-        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
             statement.setInt(1, doctorId);
             statement.setInt(2, patientId);
             int rowsInserted = statement.executeUpdate();
+            DoctorPatientIndex index = relationIndex;
+            if (rowsInserted > 0 && index != null) {
+                index.add(doctorId, patientId);
+            }
             return rowsInserted > 0;
         } catch (SQLException e) {
             e.printStackTrace();
@@ -176,10 +312,15 @@ public class UserDao {
     */
     public boolean removeDoctorPatientRelation(int doctorId, int patientId) {
         String sql = "DELETE FROM doctor_patient WHERE doctor_id = ? AND patient_id = ?";
-        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
             statement.setInt(1, doctorId);
             statement.setInt(2, patientId);
             int rowsDeleted = statement.executeUpdate();
+            DoctorPatientIndex index = relationIndex;
+            if (rowsDeleted > 0 && index != null) {
+                index.remove(doctorId, patientId);
+            }
             return rowsDeleted > 0;
         } catch (SQLException e) {
             e.printStackTrace();
@@ -188,15 +329,22 @@ public class UserDao {
     }
     
     /**
-     * Checks if a doctor-patient relation exists in the database.
+     * Checks if a doctor-patient relation exists, using the relation index if one is set.
+     * The database is asked instead while the index is not {@link DoctorPatientIndex#isCurrent() current},
+     * so a relation removed since a snapshot was taken never grants access.
      *
      * @param doctorId  The ID of the doctor.
      * @param patientId The ID of the patient.
      * @return True if the relation exists, false otherwise.
     */
     public boolean hasDoctorPatientRelation(int doctorId, int patientId) {
-        String sql = "SELECT * FROM doctor_patient WHERE doctor_id = ? AND patient_id = ?";
-        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+        DoctorPatientIndex index = relationIndex;
+        if (index != null && index.isCurrent()) {
+            return index.contains(doctorId, patientId);
+        }
+        String sql = "SELECT 1 FROM doctor_patient WHERE doctor_id = ? AND patient_id = ?";
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
             statement.setInt(1, doctorId);
             statement.setInt(2, patientId);
             try (ResultSet resultSet = statement.executeQuery()) {
@@ -209,15 +357,20 @@ public class UserDao {
     }
     
     /**
-     * Retrieves the doctors associated with a specific patient from the database.
+     * Retrieves the doctors associated with a specific patient, using the relation index if one is set.
      *
      * @param patientId The ID of the patient.
      * @return A list of User objects representing the doctors associated with the patient.
     */
     public List<User> getDoctorsForPatient(int patientId) {
+        DoctorPatientIndex index = relationIndex;
+        if (index != null) {
+            return getUsersByIds(index.getDoctors(patientId));
+        }
         List<User> doctors = new ArrayList<>();
         String sql = "SELECT * FROM users WHERE id IN (SELECT doctor_id FROM doctor_patient WHERE patient_id = ?)";
-        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
             statement.setInt(1, patientId);
             try (ResultSet resultSet = statement.executeQuery()) {
                 while (resultSet.next()) {
@@ -232,15 +385,20 @@ public class UserDao {
     }
     
     /**
-     * Retrieves the patients associated with a specific doctor from the database.
+     * Retrieves the patients associated with a specific doctor, using the relation index if one is set.
      *
      * @param doctorId The ID of the doctor.
      * @return A list of User objects representing the patients associated with the doctor.
     */
     public List<User> getPatientsForDoctor(int doctorId) {
+        DoctorPatientIndex index = relationIndex;
+        if (index != null) {
+            return getUsersByIds(index.getPatients(doctorId));
+        }
         List<User> patients = new ArrayList<>();
         String sql = "SELECT * FROM users WHERE id IN (SELECT patient_id FROM doctor_patient WHERE doctor_id = ?)";
-        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
             statement.setInt(1, doctorId);
             try (ResultSet resultSet = statement.executeQuery()) {
                 while (resultSet.next()) {
@@ -254,6 +412,124 @@ public class UserDao {
         return patients;
     }
 
+    /**
+     * Retrieves several users by ID, from the cache where possible and the rest in a single query.
+     *
+     * @param ids The IDs of the users to retrieve.
+     * @return The users that were found, in the order of the given IDs.
+    */
+    public List<User> getUsersByIds(int[] ids) {
+        User[] users = new User[ids.length];
+        int[] missing = new int[ids.length];
+        int missingCount = 0;
+        for (int i = 0; i < ids.length; i++) {
+            users[i] = userCache.getById(ids[i]);
+            if (users[i] == null) {
+                missing[missingCount++] = ids[i];
+            }
+        }
+        if (missingCount > 0) {
+            Arrays.sort(missing, 0, missingCount);
+            int unique = 0;
+            for (int i = 0; i < missingCount; i++) {
+                if (unique == 0 || missing[i] != missing[unique - 1]) {
+                    missing[unique++] = missing[i];
+                }
+            }
+            int[] missingIds = Arrays.copyOf(missing, unique);
+            missingCount = unique;
+            User[] loaded = new User[missingCount];
+            long loadToken = userCache.startLoad();
+            String sql = "SELECT * FROM users WHERE id = ANY(?)";
+            try (Connection connection = pool.getConnection();
+                 PreparedStatement statement = connection.prepareStatement(sql)) {
+                statement.setObject(1, missingIds);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        User user = extractUserFromResultSet(resultSet);
+                        userCache.put(user, loadToken);
+                        loaded[Arrays.binarySearch(missingIds, user.getId())] = user;
+                    }
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+            for (int i = 0; i < ids.length; i++) {
+                if (users[i] == null) {
+                    int index = Arrays.binarySearch(missingIds, ids[i]);
+                    users[i] = loaded[index];
+                }
+            }
+        }
+        List<User> found = new ArrayList<>(ids.length);
+        for (User user : users) {
+            if (user != null) {
+                found.add(user);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Reads the cost factor out of a BCrypt hash such as "$2a$10$...".
+     *
+     * @param hashedPassword The BCrypt hash.
+     * @return The work factor, or -1 if the hash is not in the expected format.
+    */
+    static int getWorkFactor(String hashedPassword) {
+        if (hashedPassword == null || hashedPassword.length() < 7 || hashedPassword.charAt(0) != '$') {
+            return -1;
+        }
+        int costStart = hashedPassword.indexOf('$', 1) + 1;
+        try {
+            return Integer.parseInt(hashedPassword.substring(costStart, costStart + 2));
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Queues a background rehash of a verified password at the current work factor.
+     * If the queue is full the rehash is skipped; it will be tried again on the user's next login.
+    */
+    private void scheduleRehash(User user, String password) {
+        String email = user.getEmail();
+        String oldHash = user.getPassword();
+        if (!pendingRehashes.add(email)) {
+            return;
+        }
+        try {
+            rehashExecutor.execute(() -> {
+                try {
+                    rehashPassword(user.getId(), password, oldHash);
+                } finally {
+                    pendingRehashes.remove(email);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pendingRehashes.remove(email);
+        }
+    }
+
+    /**
+     * Replaces a password hash, but only if it has not been changed since it was verified.
+    */
+    private void rehashPassword(int id, String password, String oldHash) {
+        String newHash = BCrypt.hashpw(password, BCrypt.gensalt(workFactor));
+        String sql = "UPDATE users SET password = ? WHERE id = ? AND password = ?";
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setString(1, newHash);
+            statement.setInt(2, id);
+            statement.setString(3, oldHash);
+            statement.executeUpdate();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        } finally {
+            userCache.invalidate(id);
+        }
+    }
+
     /**
      * Helper method to convert a ResultSet row into a User object.
      *
@@ -0,0 +1,136 @@
+import java.lang.reflect.Proxy;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Synthetic inputs for the benchmarks, built without a database.
+*/
+public class BenchmarkFixtures {
+    private BenchmarkFixtures() {
+    }
+
+    /**
+     * Builds a column store of random readings spread over the year before 2024-04-12.
+     *
+     * @param rows The number of readings.
+     * @return The column store.
+    */
+    static HealthDataColumnStore syntheticColumnStore(int rows) {
+        HealthDataColumnStore store = new HealthDataColumnStore(rows);
+        long lastDay = LocalDate.of(2024, 4, 12).toEpochDay();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < rows; i++) {
+            store.append(i + 1, random.nextInt(10000), lastDay - random.nextInt(365), 50 + random.nextDouble(70),
+                    1.5 + random.nextDouble(0.5), random.nextInt(2000, 20000), random.nextInt(50, 130));
+        }
+        return store;
+    }
+
+    /**
+     * Builds a relation index in which every patient has one doctor and about a tenth have a second one.
+     *
+     * @param doctors  The number of doctors.
+     * @param patients The number of patients.
+     * @return The relation index.
+    */
+    static DoctorPatientIndex syntheticRelationIndex(int doctors, int patients) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int[] pairs = new int[patients * 2 + patients / 10 * 2];
+        for (int patient = 1; patient <= patients; patient++) {
+            pairs[2 * patient - 2] = random.nextInt(doctors) + 1;
+            pairs[2 * patient - 1] = patient;
+        }
+        for (int i = patients; i < pairs.length / 2; i++) {
+            pairs[2 * i] = random.nextInt(doctors) + 1;
+            pairs[2 * i + 1] = random.nextInt(patients) + 1;
+        }
+        return DoctorPatientIndex.fromPairs(pairs);
+    }
+
+    /**
+     * Builds a ResultSet that returns the same health_data row for every call.
+     * Like the driver, it decodes the date from its text form on every read, so every mapping pays for the decoding.
+     *
+     * @return The ResultSet.
+    */
+    static ResultSet healthDataRow() {
+        String dateText = "2024-04-12";
+        return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[] { ResultSet.class },
+                (proxy, method, methodArgs) -> {
+                    switch (method.getName()) {
+                        case "getInt":
+                            return "steps".equals(methodArgs[0]) ? 10001 : "heart_rate".equals(methodArgs[0]) ? 76 : 42;
+                        case "getDouble":
+                            return "weight".equals(methodArgs[0]) ? 82.5 : 1.8;
+                        case "getString":
+                            return HealthData.DEFAULT_SOURCE;
+                        case "getDate":
+                            return Date.valueOf(dateText);
+                        case "getObject":
+                            return LocalDate.parse(dateText);
+                        case "next":
+                            return true;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    /**
+     * Maps a health_data row as the DAOs did before HealthData moved to LocalDate: the date is read as a java.sql.Date
+     * and formatted into a String with a new SimpleDateFormat per row.
+     *
+     * @param resultSet The row.
+     * @return The mapped values, in HealthData constructor order.
+     * @throws SQLException If a column cannot be read.
+    */
+    static Object[] extractWithStringDate(ResultSet resultSet) throws SQLException {
+        return new Object[] {
+            resultSet.getInt("id"),
+            resultSet.getInt("user_id"),
+            resultSet.getDouble("weight"),
+            resultSet.getDouble("height"),
+            resultSet.getInt("steps"),
+            resultSet.getInt("heart_rate"),
+            new SimpleDateFormat("yyyy-MM-dd").format(resultSet.getDate("date")),
+            resultSet.getString("source")
+        };
+    }
+
+    /**
+     * Builds a PreparedStatement whose executeQuery returns {@link #healthDataRow()}, so it can be instrumented by DaoMetrics.
+     *
+     * @return The PreparedStatement.
+    */
+    static PreparedStatement healthDataStatement() {
+        ResultSet row = healthDataRow();
+        return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                new Class<?>[] { PreparedStatement.class }, (proxy, method, methodArgs) -> {
+                    if (method.getName().equals("executeQuery")) {
+                        return row;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    /**
+     * A RecommendationDao that discards what it is given, so generateRecommendations can be measured without a database.
+    */
+    static class StubRecommendationDao extends RecommendationDao {
+        StubRecommendationDao() {
+            super(null);
+        }
+
+        @Override
+        public boolean saveRecommendationsBatch(Map<Integer, List<String>> recommendationsByUser) {
+            return true;
+        }
+    }
+}
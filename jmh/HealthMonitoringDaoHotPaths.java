@@ -0,0 +1,71 @@
+import benchmarks.DaoHotPaths;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.LocalDate;
+
+/**
+ * The DAO reads behind {@link DaoHotPaths}, run against the database configured for DatabaseConnection.
+*/
+public class HealthMonitoringDaoHotPaths implements DaoHotPaths {
+    private final HealthDataDao uncachedDao;
+    private final HealthDataDao cachedDao;
+    private final DoctorPortalDao doctorPortalDao;
+    private final UserDao userDao;
+    private final UserDao indexedUserDao;
+    private final LocalDate today = LocalDate.now();
+
+    /**
+     * Connects to the database and builds the DAOs.
+     *
+     * @throws SQLException If the database is not reachable.
+    */
+    public HealthMonitoringDaoHotPaths() throws SQLException {
+        ConnectionPool pool = DatabaseConnection.getPool();
+        try (Connection connection = pool.getConnection()) {
+            connection.isValid(1);
+        }
+        // A zero-size latest cache sends every lookup to the database.
+        uncachedDao = new HealthDataDao(pool, new LatestHealthDataCache(0));
+        cachedDao = new HealthDataDao(pool);
+        doctorPortalDao = new DoctorPortalDao(pool);
+        userDao = new UserDao(pool);
+        indexedUserDao = new UserDao(pool);
+        indexedUserDao.setRelationIndex(DoctorPatientIndex.load(pool));
+    }
+
+    @Override
+    public Object getLatestHealthDataFromDatabase() {
+        return uncachedDao.getLatestHealthDataForUser(3);
+    }
+
+    @Override
+    public Object getLatestHealthDataCached() {
+        return cachedDao.getLatestHealthDataForUser(3);
+    }
+
+    @Override
+    public Object getHealthDataPage() {
+        return uncachedDao.getHealthData(3, today.minusYears(5), today, null, 0, 100);
+    }
+
+    @Override
+    public Object getDashboard() {
+        return doctorPortalDao.getDashboard(1, 0, 50);
+    }
+
+    @Override
+    public boolean hasDoctorPatientRelationFromDatabase() {
+        return userDao.hasDoctorPatientRelation(1, 3);
+    }
+
+    @Override
+    public boolean hasDoctorPatientRelationFromIndex() {
+        return indexedUserDao.hasDoctorPatientRelation(1, 3);
+    }
+
+    @Override
+    public void close() {
+        DatabaseConnection.shutdown();
+    }
+}
@@ -0,0 +1,108 @@
+import benchmarks.HotPaths;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+
+/**
+ * The in-memory hot paths behind {@link HotPaths}, set up with the inputs in {@link BenchmarkFixtures}.
+*/
+public class HealthMonitoringHotPaths implements HotPaths {
+    private static final int COLUMN_STORE_ROWS = 1_000_000;
+    private static final int INDEX_DOCTORS = 1_000;
+    private static final int INDEX_PATIENTS = 100_000;
+
+    private final HealthData healthData = new HealthData(1, 3, 90, 1.67, 11008, 180, LocalDate.of(2024, 1, 2));
+    private final RecommendationSystem recommendationSystem =
+            new RecommendationSystem(new BenchmarkFixtures.StubRecommendationDao());
+    private final LocalDate date = LocalDate.of(2024, 4, 12);
+    private final java.sql.Date sqlDate = java.sql.Date.valueOf(date);
+    private final ResultSet row = BenchmarkFixtures.healthDataRow();
+    private final ResultSet instrumentedRow;
+    private final HealthDataColumnStore columnStore = BenchmarkFixtures.syntheticColumnStore(COLUMN_STORE_ROWS);
+    private final HealthDataColumnStore.Filter lastQuarter = HealthDataColumnStore.Filter.between(date.minusDays(90), date);
+    private final DoctorPatientIndex relationIndex = BenchmarkFixtures.syntheticRelationIndex(INDEX_DOCTORS, INDEX_PATIENTS);
+    private int patientCount;
+
+    /**
+     * Builds the synthetic data. The instrumented row is the fixture row as DaoMetrics hands it to a DAO.
+     *
+     * @throws SQLException Never; the fixture statement does not touch a database.
+    */
+    public HealthMonitoringHotPaths() throws SQLException {
+        PreparedStatement statement = (PreparedStatement) new DaoMetrics(0)
+                .instrument(BenchmarkFixtures.healthDataStatement(), "SELECT * FROM health_data WHERE id = ?");
+        instrumentedRow = statement.executeQuery();
+    }
+
+    @Override
+    public Object generateRecommendations() {
+        return recommendationSystem.generateRecommendations(healthData);
+    }
+
+    @Override
+    public double getBMI() {
+        return healthData.getBMI();
+    }
+
+    @Override
+    public Object parseDate() {
+        return DateUtils.parse("2024-04-12");
+    }
+
+    @Override
+    public Object formatDate() {
+        return DateUtils.format(date);
+    }
+
+    @Override
+    public Object stringToSqlDate() throws Exception {
+        return DateUtils.stringToSqlDate("2024-04-12");
+    }
+
+    @Override
+    public Object sqlDateToString() {
+        return DateUtils.sqlDateToString(sqlDate);
+    }
+
+    @Override
+    public Object extractHealthDataFromResultSet() throws Exception {
+        return HealthDataDao.extractHealthDataFromResultSet(row);
+    }
+
+    @Override
+    public Object extractHealthDataWithStringDate() throws Exception {
+        return BenchmarkFixtures.extractWithStringDate(row);
+    }
+
+    @Override
+    public Object extractHealthDataFromInstrumentedResultSet() throws Exception {
+        return HealthDataDao.extractHealthDataFromResultSet(instrumentedRow);
+    }
+
+    @Override
+    public Object aggregateColumnStore() {
+        return columnStore.aggregate(lastQuarter, HealthDataColumnStore.Column.HEART_RATE);
+    }
+
+    @Override
+    public boolean relationIndexContains(int doctorId, int patientId) {
+        return relationIndex.contains(doctorId, patientId);
+    }
+
+    @Override
+    public int relationIndexForEachPatient(int doctorId) {
+        return relationIndex.forEachPatient(doctorId, patientId -> patientCount++);
+    }
+
+    @Override
+    public int getIndexDoctors() {
+        return INDEX_DOCTORS;
+    }
+
+    @Override
+    public int getIndexPatients() {
+        return INDEX_PATIENTS;
+    }
+}
@@ -0,0 +1,31 @@
+package benchmarks;
+
+/**
+ * The DAO reads measured by {@link DaoJmh}, reached through an interface for the same reason as {@link HotPaths}.
+*/
+public interface DaoHotPaths extends AutoCloseable {
+    Object getLatestHealthDataFromDatabase();
+
+    Object getLatestHealthDataCached();
+
+    Object getHealthDataPage();
+
+    Object getDashboard();
+
+    boolean hasDoctorPatientRelationFromDatabase();
+
+    boolean hasDoctorPatientRelationFromIndex();
+
+    @Override
+    void close();
+
+    /**
+     * Loads the implementation from the unnamed package and connects it to the configured database.
+     *
+     * @return The DAO hot paths.
+     * @throws ReflectiveOperationException If the implementation is not on the classpath or the database is not reachable.
+    */
+    static DaoHotPaths connect() throws ReflectiveOperationException {
+        return (DaoHotPaths) Class.forName("HealthMonitoringDaoHotPaths").getDeclaredConstructor().newInstance();
+    }
+}
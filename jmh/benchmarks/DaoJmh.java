@@ -0,0 +1,63 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end DAO read throughput against the configured database.
+ * Excluded from gradle jmh unless run with -Pdao, since it needs a reachable database with the sample data loaded.
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class DaoJmh {
+    private DaoHotPaths daoHotPaths;
+
+    @Setup
+    public void setUp() throws ReflectiveOperationException {
+        daoHotPaths = DaoHotPaths.connect();
+    }
+
+    @TearDown
+    public void tearDown() {
+        daoHotPaths.close();
+    }
+
+    @Benchmark
+    public Object getLatestHealthDataFromDatabase() {
+        return daoHotPaths.getLatestHealthDataFromDatabase();
+    }
+
+    @Benchmark
+    public Object getLatestHealthDataCached() {
+        return daoHotPaths.getLatestHealthDataCached();
+    }
+
+    @Benchmark
+    public Object getHealthDataPage() {
+        return daoHotPaths.getHealthDataPage();
+    }
+
+    @Benchmark
+    public Object getDashboard() {
+        return daoHotPaths.getDashboard();
+    }
+
+    @Benchmark
+    public boolean hasDoctorPatientRelationFromDatabase() {
+        return daoHotPaths.hasDoctorPatientRelationFromDatabase();
+    }
+
+    @Benchmark
+    public boolean hasDoctorPatientRelationFromIndex() {
+        return daoHotPaths.hasDoctorPatientRelationFromIndex();
+    }
+}
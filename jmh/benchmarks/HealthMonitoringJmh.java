@@ -0,0 +1,97 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the recommendation, date conversion, row mapping, column store and relation index hot paths.
+ * Run with gradle jmh; results are written as JSON to build/results/jmh/results.json, with the gc profiler's
+ * allocation rate per operation (gc.alloc.rate.norm) next to each score.
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class HealthMonitoringJmh {
+    private HotPaths hotPaths;
+
+    @Setup
+    public void setUp() throws ReflectiveOperationException {
+        hotPaths = HotPaths.load();
+    }
+
+    @Benchmark
+    public Object generateRecommendations() {
+        return hotPaths.generateRecommendations();
+    }
+
+    @Benchmark
+    public double getBMI() {
+        return hotPaths.getBMI();
+    }
+
+    @Benchmark
+    public Object parseDate() {
+        return hotPaths.parseDate();
+    }
+
+    @Benchmark
+    public Object formatDate() {
+        return hotPaths.formatDate();
+    }
+
+    @Benchmark
+    public Object stringToSqlDate() throws Exception {
+        return hotPaths.stringToSqlDate();
+    }
+
+    @Benchmark
+    public Object sqlDateToString() {
+        return hotPaths.sqlDateToString();
+    }
+
+    /**
+     * Maps a row with the LocalDate mapping; compare with {@link #extractHealthDataWithStringDate()}.
+    */
+    @Benchmark
+    public Object extractHealthDataFromResultSet() throws Exception {
+        return hotPaths.extractHealthDataFromResultSet();
+    }
+
+    /**
+     * Maps the same row with the String-date mapping it replaced.
+    */
+    @Benchmark
+    public Object extractHealthDataWithStringDate() throws Exception {
+        return hotPaths.extractHealthDataWithStringDate();
+    }
+
+    @Benchmark
+    public Object extractHealthDataFromInstrumentedResultSet() throws Exception {
+        return hotPaths.extractHealthDataFromInstrumentedResultSet();
+    }
+
+    @Benchmark
+    public Object aggregateColumnStore() {
+        return hotPaths.aggregateColumnStore();
+    }
+
+    @Benchmark
+    public boolean relationIndexContains() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return hotPaths.relationIndexContains(random.nextInt(hotPaths.getIndexDoctors()) + 1,
+                random.nextInt(hotPaths.getIndexPatients()) + 1);
+    }
+
+    @Benchmark
+    public int relationIndexForEachPatient() {
+        return hotPaths.relationIndexForEachPatient(ThreadLocalRandom.current().nextInt(hotPaths.getIndexDoctors()) + 1);
+    }
+}
@@ -0,0 +1,47 @@
+package benchmarks;
+
+/**
+ * The in-memory hot paths measured by {@link HealthMonitoringJmh}.
+ * The application classes live in the unnamed package, which JMH benchmark classes cannot import,
+ * so the benchmarks reach them through this interface; the one implementation, HealthMonitoringHotPaths,
+ * is loaded once per trial and its calls are monomorphic, so the JIT inlines them like direct calls.
+*/
+public interface HotPaths {
+    Object generateRecommendations();
+
+    double getBMI();
+
+    Object parseDate();
+
+    Object formatDate();
+
+    Object stringToSqlDate() throws Exception;
+
+    Object sqlDateToString();
+
+    Object extractHealthDataFromResultSet() throws Exception;
+
+    Object extractHealthDataWithStringDate() throws Exception;
+
+    Object extractHealthDataFromInstrumentedResultSet() throws Exception;
+
+    Object aggregateColumnStore();
+
+    boolean relationIndexContains(int doctorId, int patientId);
+
+    int relationIndexForEachPatient(int doctorId);
+
+    int getIndexDoctors();
+
+    int getIndexPatients();
+
+    /**
+     * Loads the implementation from the unnamed package.
+     *
+     * @return The hot paths, with their synthetic data already built.
+     * @throws ReflectiveOperationException If the implementation is not on the classpath.
+    */
+    static HotPaths load() throws ReflectiveOperationException {
+        return (HotPaths) Class.forName("HealthMonitoringHotPaths").getDeclaredConstructor().newInstance();
+    }
+}
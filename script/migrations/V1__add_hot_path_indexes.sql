@@ -0,0 +1,11 @@
+-- Latest reading per user (ORDER BY date DESC, id DESC LIMIT 1) and per-user history ranges.
+CREATE INDEX IF NOT EXISTS idx_health_data_user_date ON health_data (user_id, date DESC, id DESC);
+
+-- Due reminders for a user on a given date.
+CREATE INDEX IF NOT EXISTS idx_medicine_reminders_user_dates ON medicine_reminders (user_id, start_date, end_date);
+
+-- Doctors for a patient; the primary key (doctor_id, patient_id) already covers lookups by doctor.
+CREATE INDEX IF NOT EXISTS idx_doctor_patient_patient_doctor ON doctor_patient (patient_id, doctor_id);
+
+-- Recommendations for a user.
+CREATE INDEX IF NOT EXISTS idx_recommendations_user ON recommendations (user_id);
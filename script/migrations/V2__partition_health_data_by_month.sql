@@ -0,0 +1,44 @@
+-- Rebuilds health_data as a table range-partitioned on date, with one partition per month that already has data.
+-- Later months are created ahead of time by HealthDataPartitionManager; rows outside every monthly partition
+-- land in health_data_default.
+-- Primary keys on a partitioned table must include the partition key, so the key becomes (id, date).
+ALTER TABLE health_data RENAME TO health_data_unpartitioned;
+ALTER INDEX IF EXISTS idx_health_data_user_date RENAME TO idx_health_data_unpartitioned_user_date;
+
+CREATE TABLE health_data (
+    id INT NOT NULL DEFAULT nextval('health_data_id_seq'),
+    user_id INT NOT NULL,
+    weight DECIMAL(5,2) NOT NULL,
+    height DECIMAL(5,2) NOT NULL,
+    steps INT NOT NULL,
+    heart_rate INT NOT NULL,
+    date DATE NOT NULL,
+    PRIMARY KEY (id, date),
+    FOREIGN KEY (user_id) REFERENCES users(id)
+) PARTITION BY RANGE (date);
+
+-- Keep the existing id sequence alive when the old table is dropped.
+ALTER SEQUENCE health_data_id_seq OWNED BY health_data.id;
+
+CREATE TABLE health_data_default PARTITION OF health_data DEFAULT;
+
+-- Existing rows go into monthly partitions rather than the default one, so every month can later be retired.
+DO $$
+DECLARE
+    month DATE;
+BEGIN
+    FOR month IN
+        SELECT generate_series(date_trunc('month', min(date)), date_trunc('month', max(date)), interval '1 month')::date
+        FROM health_data_unpartitioned
+    LOOP
+        EXECUTE format('CREATE TABLE %I PARTITION OF health_data FOR VALUES FROM (%L) TO (%L)',
+                       'health_data_p' || to_char(month, 'YYYY_MM'), month, (month + interval '1 month')::date);
+    END LOOP;
+END $$;
+
+INSERT INTO health_data (id, user_id, weight, height, steps, heart_rate, date)
+SELECT id, user_id, weight, height, steps, heart_rate, date FROM health_data_unpartitioned;
+
+DROP TABLE health_data_unpartitioned;
+
+CREATE INDEX idx_health_data_user_date ON health_data (user_id, date DESC, id DESC);
@@ -0,0 +1,115 @@
+-- Per-user daily ('D') and weekly ('W', weeks start on Monday) aggregates of health_data,
+-- maintained by a trigger so every write path (single inserts, batches, COPY) keeps them current.
+CREATE TABLE health_data_rollup (
+    user_id INT NOT NULL,
+    granularity CHAR(1) NOT NULL,
+    period_start DATE NOT NULL,
+    reading_count INT NOT NULL,
+    min_heart_rate INT NOT NULL,
+    max_heart_rate INT NOT NULL,
+    sum_heart_rate BIGINT NOT NULL,
+    total_steps BIGINT NOT NULL,
+    first_date DATE NOT NULL,
+    first_id INT NOT NULL,
+    first_weight DECIMAL(5,2) NOT NULL,
+    last_date DATE NOT NULL,
+    last_id INT NOT NULL,
+    last_weight DECIMAL(5,2) NOT NULL,
+    last_height DECIMAL(5,2) NOT NULL,
+    PRIMARY KEY (user_id, granularity, period_start),
+    CHECK (granularity IN ('D', 'W'))
+);
+
+-- Folds one new reading into its day and week, in O(1).
+CREATE FUNCTION health_data_rollup_add(r health_data) RETURNS void AS $$
+DECLARE
+    g CHAR(1);
+    p DATE;
+BEGIN
+    FOREACH g IN ARRAY ARRAY['D', 'W'] LOOP
+        p := CASE g WHEN 'D' THEN r.date ELSE date_trunc('week', r.date)::date END;
+
+        INSERT INTO health_data_rollup AS t
+        VALUES (r.user_id, g, p, 1, r.heart_rate, r.heart_rate, r.heart_rate, r.steps,
+                r.date, r.id, r.weight, r.date, r.id, r.weight, r.height)
+        ON CONFLICT (user_id, granularity, period_start) DO UPDATE SET
+            reading_count = t.reading_count + 1,
+            min_heart_rate = LEAST(t.min_heart_rate, EXCLUDED.min_heart_rate),
+            max_heart_rate = GREATEST(t.max_heart_rate, EXCLUDED.max_heart_rate),
+            sum_heart_rate = t.sum_heart_rate + EXCLUDED.sum_heart_rate,
+            total_steps = t.total_steps + EXCLUDED.total_steps;
+
+        UPDATE health_data_rollup
+        SET first_date = r.date, first_id = r.id, first_weight = r.weight
+        WHERE user_id = r.user_id AND granularity = g AND period_start = p
+          AND (r.date, r.id) < (first_date, first_id);
+
+        UPDATE health_data_rollup
+        SET last_date = r.date, last_id = r.id, last_weight = r.weight, last_height = r.height
+        WHERE user_id = r.user_id AND granularity = g AND period_start = p
+          AND (r.date, r.id) > (last_date, last_id);
+    END LOOP;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Recomputes a user's day and week from the raw rows; used when readings are updated or deleted,
+-- since minimums, maximums and first/last values cannot be undone incrementally.
+CREATE FUNCTION health_data_rollup_refresh(p_user_id INT, p_date DATE) RETURNS void AS $$
+DECLARE
+    g CHAR(1);
+    p DATE;
+BEGIN
+    FOREACH g IN ARRAY ARRAY['D', 'W'] LOOP
+        p := CASE g WHEN 'D' THEN p_date ELSE date_trunc('week', p_date)::date END;
+
+        DELETE FROM health_data_rollup WHERE user_id = p_user_id AND granularity = g AND period_start = p;
+
+        INSERT INTO health_data_rollup
+        SELECT p_user_id, g, p, count(*), min(heart_rate), max(heart_rate), sum(heart_rate), sum(steps),
+               (array_agg(date ORDER BY date, id))[1],
+               (array_agg(id ORDER BY date, id))[1],
+               (array_agg(weight ORDER BY date, id))[1],
+               (array_agg(date ORDER BY date DESC, id DESC))[1],
+               (array_agg(id ORDER BY date DESC, id DESC))[1],
+               (array_agg(weight ORDER BY date DESC, id DESC))[1],
+               (array_agg(height ORDER BY date DESC, id DESC))[1]
+        FROM health_data
+        WHERE user_id = p_user_id AND date >= p AND date < p + CASE g WHEN 'D' THEN 1 ELSE 7 END
+        HAVING count(*) > 0;
+    END LOOP;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE FUNCTION health_data_rollup_trigger() RETURNS trigger AS $$
+BEGIN
+    IF TG_OP = 'INSERT' THEN
+        PERFORM health_data_rollup_add(NEW);
+    ELSIF TG_OP = 'UPDATE' THEN
+        PERFORM health_data_rollup_refresh(OLD.user_id, OLD.date);
+        IF (NEW.user_id, NEW.date) IS DISTINCT FROM (OLD.user_id, OLD.date) THEN
+            PERFORM health_data_rollup_refresh(NEW.user_id, NEW.date);
+        END IF;
+    ELSE
+        PERFORM health_data_rollup_refresh(OLD.user_id, OLD.date);
+    END IF;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER health_data_rollup
+AFTER INSERT OR UPDATE OR DELETE ON health_data
+FOR EACH ROW EXECUTE FUNCTION health_data_rollup_trigger();
+
+-- Backfill from the rows already in health_data.
+INSERT INTO health_data_rollup
+SELECT user_id, g.granularity, period_start, count(*), min(heart_rate), max(heart_rate), sum(heart_rate), sum(steps),
+       (array_agg(date ORDER BY date, id))[1],
+       (array_agg(id ORDER BY date, id))[1],
+       (array_agg(weight ORDER BY date, id))[1],
+       (array_agg(date ORDER BY date DESC, id DESC))[1],
+       (array_agg(id ORDER BY date DESC, id DESC))[1],
+       (array_agg(weight ORDER BY date DESC, id DESC))[1],
+       (array_agg(height ORDER BY date DESC, id DESC))[1]
+FROM health_data
+CROSS JOIN LATERAL (VALUES ('D', date), ('W', date_trunc('week', date)::date)) AS g(granularity, period_start)
+GROUP BY user_id, g.granularity, period_start;
@@ -0,0 +1,60 @@
+-- The most recent health_data row of every user, kept in sync by a trigger in the same transaction as the write,
+-- so latest-reading lookups are a primary key read that never touches the history table.
+CREATE TABLE health_data_latest (
+    user_id INT PRIMARY KEY,
+    id INT NOT NULL,
+    weight DECIMAL(5,2) NOT NULL,
+    height DECIMAL(5,2) NOT NULL,
+    steps INT NOT NULL,
+    heart_rate INT NOT NULL,
+    date DATE NOT NULL,
+    FOREIGN KEY (user_id) REFERENCES users(id)
+);
+
+-- Re-derives a user's latest row from health_data using idx_health_data_user_date.
+CREATE FUNCTION health_data_latest_refresh(p_user_id INT) RETURNS void AS $$
+BEGIN
+    DELETE FROM health_data_latest WHERE user_id = p_user_id;
+    INSERT INTO health_data_latest (user_id, id, weight, height, steps, heart_rate, date)
+    SELECT user_id, id, weight, height, steps, heart_rate, date
+    FROM health_data
+    WHERE user_id = p_user_id
+    ORDER BY date DESC, id DESC
+    LIMIT 1;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE FUNCTION health_data_latest_trigger() RETURNS trigger AS $$
+BEGIN
+    IF TG_OP = 'INSERT' THEN
+        INSERT INTO health_data_latest AS l (user_id, id, weight, height, steps, heart_rate, date)
+        VALUES (NEW.user_id, NEW.id, NEW.weight, NEW.height, NEW.steps, NEW.heart_rate, NEW.date)
+        ON CONFLICT (user_id) DO UPDATE SET
+            id = EXCLUDED.id,
+            weight = EXCLUDED.weight,
+            height = EXCLUDED.height,
+            steps = EXCLUDED.steps,
+            heart_rate = EXCLUDED.heart_rate,
+            date = EXCLUDED.date
+        WHERE (EXCLUDED.date, EXCLUDED.id) >= (l.date, l.id);
+    ELSIF TG_OP = 'UPDATE' THEN
+        PERFORM health_data_latest_refresh(OLD.user_id);
+        IF NEW.user_id <> OLD.user_id THEN
+            PERFORM health_data_latest_refresh(NEW.user_id);
+        END IF;
+    ELSIF EXISTS (SELECT 1 FROM health_data_latest WHERE user_id = OLD.user_id AND id = OLD.id) THEN
+        PERFORM health_data_latest_refresh(OLD.user_id);
+    END IF;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER health_data_latest
+AFTER INSERT OR UPDATE OR DELETE ON health_data
+FOR EACH ROW EXECUTE FUNCTION health_data_latest_trigger();
+
+-- Backfill from the rows already in health_data.
+INSERT INTO health_data_latest (user_id, id, weight, height, steps, heart_rate, date)
+SELECT DISTINCT ON (user_id) user_id, id, weight, height, steps, heart_rate, date
+FROM health_data
+ORDER BY user_id, date DESC, id DESC;
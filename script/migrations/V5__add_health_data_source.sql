@@ -0,0 +1,67 @@
+-- Records which device or app sent each reading, and makes (user_id, date, source) an idempotency key,
+-- so a device that retries an upload cannot store the same reading twice.
+ALTER TABLE health_data ADD COLUMN source VARCHAR(50) NOT NULL DEFAULT 'manual';
+
+-- Exact duplicates already stored (same user, date and values) keep only their first row.
+DELETE FROM health_data h
+USING health_data d
+WHERE d.user_id = h.user_id
+  AND d.date = h.date
+  AND d.weight = h.weight
+  AND d.height = h.height
+  AND d.steps = h.steps
+  AND d.heart_rate = h.heart_rate
+  AND d.id < h.id;
+
+-- Different readings on the same day are kept, each under its own legacy source.
+UPDATE health_data h
+SET source = 'legacy-' || h.id
+WHERE EXISTS (SELECT 1 FROM health_data d WHERE d.user_id = h.user_id AND d.date = h.date AND d.id < h.id);
+
+-- A unique constraint on a partitioned table must include the partition key, which date is.
+ALTER TABLE health_data ADD CONSTRAINT uq_health_data_user_date_source UNIQUE (user_id, date, source);
+
+ALTER TABLE health_data_latest ADD COLUMN source VARCHAR(50) NOT NULL DEFAULT 'manual';
+
+UPDATE health_data_latest l
+SET source = h.source
+FROM health_data h
+WHERE h.id = l.id AND h.user_id = l.user_id AND h.source <> l.source;
+
+CREATE OR REPLACE FUNCTION health_data_latest_refresh(p_user_id INT) RETURNS void AS $$
+BEGIN
+    DELETE FROM health_data_latest WHERE user_id = p_user_id;
+    INSERT INTO health_data_latest (user_id, id, weight, height, steps, heart_rate, date, source)
+    SELECT user_id, id, weight, height, steps, heart_rate, date, source
+    FROM health_data
+    WHERE user_id = p_user_id
+    ORDER BY date DESC, id DESC
+    LIMIT 1;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION health_data_latest_trigger() RETURNS trigger AS $$
+BEGIN
+    IF TG_OP = 'INSERT' THEN
+        INSERT INTO health_data_latest AS l (user_id, id, weight, height, steps, heart_rate, date, source)
+        VALUES (NEW.user_id, NEW.id, NEW.weight, NEW.height, NEW.steps, NEW.heart_rate, NEW.date, NEW.source)
+        ON CONFLICT (user_id) DO UPDATE SET
+            id = EXCLUDED.id,
+            weight = EXCLUDED.weight,
+            height = EXCLUDED.height,
+            steps = EXCLUDED.steps,
+            heart_rate = EXCLUDED.heart_rate,
+            date = EXCLUDED.date,
+            source = EXCLUDED.source
+        WHERE (EXCLUDED.date, EXCLUDED.id) >= (l.date, l.id);
+    ELSIF TG_OP = 'UPDATE' THEN
+        PERFORM health_data_latest_refresh(OLD.user_id);
+        IF NEW.user_id <> OLD.user_id THEN
+            PERFORM health_data_latest_refresh(NEW.user_id);
+        END IF;
+    ELSIF EXISTS (SELECT 1 FROM health_data_latest WHERE user_id = OLD.user_id AND id = OLD.id) THEN
+        PERFORM health_data_latest_refresh(OLD.user_id);
+    END IF;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
@@ -0,0 +1,25 @@
+-- health_data_latest_refresh deleted the user's latest row and inserted it again. Two transactions refreshing the
+-- same user could both delete, then both insert, and the second insert failed on the primary key.
+-- The latest row is now upserted, and only deleted when the user has no health data left.
+CREATE OR REPLACE FUNCTION health_data_latest_refresh(p_user_id INT) RETURNS void AS $$
+BEGIN
+    INSERT INTO health_data_latest AS l (user_id, id, weight, height, steps, heart_rate, date, source)
+    SELECT user_id, id, weight, height, steps, heart_rate, date, source
+    FROM health_data
+    WHERE user_id = p_user_id
+    ORDER BY date DESC, id DESC
+    LIMIT 1
+    ON CONFLICT (user_id) DO UPDATE SET
+        id = EXCLUDED.id,
+        weight = EXCLUDED.weight,
+        height = EXCLUDED.height,
+        steps = EXCLUDED.steps,
+        heart_rate = EXCLUDED.heart_rate,
+        date = EXCLUDED.date,
+        source = EXCLUDED.source;
+
+    IF NOT FOUND THEN
+        DELETE FROM health_data_latest WHERE user_id = p_user_id;
+    END IF;
+END;
+$$ LANGUAGE plpgsql;
@@ -0,0 +1,17 @@
+-- Announces every change to medicine_reminders on the medicine_reminder_changes channel, as "<operation>:<id>",
+-- so each ReminderScheduler can load or drop just the reminders that changed instead of polling the table.
+-- Notifications are delivered when the transaction commits, and identical ones within a transaction are sent once.
+CREATE FUNCTION medicine_reminders_notify() RETURNS trigger AS $$
+BEGIN
+    IF TG_OP = 'DELETE' THEN
+        PERFORM pg_notify('medicine_reminder_changes', 'delete:' || OLD.id);
+    ELSE
+        PERFORM pg_notify('medicine_reminder_changes', lower(TG_OP) || ':' || NEW.id);
+    END IF;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER medicine_reminders_notify
+AFTER INSERT OR UPDATE OR DELETE ON medicine_reminders
+FOR EACH ROW EXECUTE FUNCTION medicine_reminders_notify();